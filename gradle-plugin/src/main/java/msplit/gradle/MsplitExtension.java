@@ -0,0 +1,20 @@
+package msplit.gradle;
+
+import msplit.SplitMethod;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+
+import javax.inject.Inject;
+
+/** The {@code msplit} extension to configure the split */
+public class MsplitExtension {
+  protected final Property<Integer> maxBytes;
+
+  @Inject
+  public MsplitExtension(ObjectFactory objects) {
+    maxBytes = objects.property(Integer.class).convention(SplitMethod.HUGE_METHOD_LIMIT);
+  }
+
+  /** The maximum number of bytes of code each method can have, defaults to {@link SplitMethod#HUGE_METHOD_LIMIT} */
+  public Property<Integer> getMaxBytes() { return maxBytes; }
+}
@@ -0,0 +1,48 @@
+package msplit.gradle;
+
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.SourceSetContainer;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.compile.JavaCompile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plugin that splits the too large methods of the main source set's classes after they are compiled. A
+ * {@link SplitClassesTask} named {@code splitMethods} reads the output of {@code compileJava} and its output takes the
+ * place of the compiled Java classes in the source set output, so the jar, tests, and dependent projects all use the
+ * split classes. The classes dirs of other compilers (e.g. Kotlin or Groovy) are left in the output as they are.
+ */
+public class MsplitPlugin implements Plugin<Project> {
+  @Override
+  public void apply(Project project) {
+    project.getPluginManager().apply(JavaPlugin.class);
+    MsplitExtension extension = project.getExtensions().create("msplit", MsplitExtension.class);
+    SourceSet main = project.getExtensions().getByType(SourceSetContainer.class).
+        getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+    TaskProvider<JavaCompile> compileJava =
+        project.getTasks().named(main.getCompileJavaTaskName(), JavaCompile.class);
+    TaskProvider<SplitClassesTask> splitMethods = project.getTasks().register("splitMethods",
+        SplitClassesTask.class, task -> {
+          task.setDescription("Splits the methods of the compiled classes that are too large");
+          task.getClassesDir().set(compileJava.flatMap(JavaCompile::getDestinationDirectory));
+          task.getMaxBytes().set(extension.getMaxBytes());
+          task.getOutputDir().set(project.getLayout().getBuildDirectory().dir("msplit/classes/" + main.getName()));
+        });
+    // The source set's classes dirs are a configurable collection, replacing the Java dir's entry with the task's
+    // output carries the task dependency and keeps the other entries (and their dependencies) in place
+    ConfigurableFileCollection classesDirs = (ConfigurableFileCollection) main.getOutput().getClassesDirs();
+    DirectoryProperty javaClassesDir = main.getJava().getDestinationDirectory();
+    List<Object> from = new ArrayList<>(classesDirs.getFrom());
+    int javaIndex = from.indexOf(javaClassesDir);
+    if (javaIndex == -1) throw new IllegalStateException("Unable to find the Java classes dir of " + main.getName());
+    from.set(javaIndex, splitMethods.flatMap(SplitClassesTask::getOutputDir));
+    classesDirs.setFrom(from);
+  }
+}
@@ -0,0 +1,68 @@
+package msplit.gradle;
+
+import msplit.SplittingClassVisitor;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Set;
+
+/**
+ * Writes a single file to its output, split if it's a class with methods that are too large. Classes are first checked
+ * with {@link SplittingClassVisitor#methodsOver(ClassReader, int)} so the rest are just copied without being parsed.
+ * A class that can't be read or split to fit is copied as is with a warning.
+ */
+public abstract class SplitClassAction implements WorkAction<SplitClassAction.Parameters> {
+  private static final Logger logger = Logging.getLogger(SplitClassAction.class);
+
+  public interface Parameters extends WorkParameters {
+    RegularFileProperty getInputFile();
+    RegularFileProperty getOutputFile();
+    Property<Integer> getMaxBytes();
+  }
+
+  @Override
+  public void execute() {
+    File inputFile = getParameters().getInputFile().get().getAsFile();
+    File outputFile = getParameters().getOutputFile().get().getAsFile();
+    int maxBytes = getParameters().getMaxBytes().get();
+    try {
+      byte[] bytes = Files.readAllBytes(inputFile.toPath());
+      if (inputFile.getName().endsWith(".class")) bytes = split(inputFile, bytes, maxBytes);
+      Files.createDirectories(outputFile.toPath().getParent());
+      Files.write(outputFile.toPath(), bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Split the class if needed. A class that fails, e.g. because it's malformed or can't be split to fit, is left as is
+   * with a warning so the rest still get done, the same as in {@link msplit.JarSplitter}.
+   */
+  protected static byte[] split(File inputFile, byte[] bytes, int maxBytes) {
+    try {
+      ClassReader reader = new ClassReader(bytes);
+      Set<String> methodsOver = SplittingClassVisitor.methodsOver(reader, maxBytes);
+      if (methodsOver.isEmpty()) return bytes;
+      // Frames and maxs are emitted by the split, so nothing has to be computed (which would need the class hierarchy)
+      ClassWriter writer = new ClassWriter(0);
+      reader.accept(new SplittingClassVisitor(Opcodes.ASM6, writer, maxBytes, methodsOver),
+          ClassReader.EXPAND_FRAMES);
+      return writer.toByteArray();
+    } catch (RuntimeException | LinkageError e) {
+      logger.warn("Unable to split methods of {} to fit in {} bytes, copying as is: {}", inputFile, maxBytes, e);
+      return bytes;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package msplit.gradle;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.*;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Copies a directory of classes, splitting the methods that are too large. It's incremental, so only added or changed
+ * files are processed and removed ones deleted. Each file is processed by a {@link SplitClassAction} on the worker
+ * executor so they are done in parallel.
+ */
+public abstract class SplitClassesTask extends DefaultTask {
+
+  /** The compiled classes */
+  @Incremental
+  @PathSensitive(PathSensitivity.RELATIVE)
+  @InputDirectory
+  public abstract DirectoryProperty getClassesDir();
+
+  /** The maximum number of bytes of code each method can have */
+  @Input
+  public abstract Property<Integer> getMaxBytes();
+
+  /** Where the classes are copied to, split if needed */
+  @OutputDirectory
+  public abstract DirectoryProperty getOutputDir();
+
+  @Inject
+  protected abstract WorkerExecutor getWorkerExecutor();
+
+  @TaskAction
+  public void split(InputChanges changes) {
+    if (!changes.isIncremental()) clear(getOutputDir().get().getAsFile().toPath());
+    WorkQueue queue = getWorkerExecutor().noIsolation();
+    for (FileChange change : changes.getFileChanges(getClassesDir())) {
+      if (change.getFileType() == FileType.DIRECTORY) continue;
+      File outputFile = getOutputDir().file(change.getNormalizedPath()).get().getAsFile();
+      if (change.getChangeType() == ChangeType.REMOVED) {
+        delete(outputFile.toPath());
+        continue;
+      }
+      queue.submit(SplitClassAction.class, params -> {
+        params.getInputFile().set(change.getFile());
+        params.getOutputFile().set(outputFile);
+        params.getMaxBytes().set(getMaxBytes());
+      });
+    }
+  }
+
+  /** Delete everything in the directory but the directory itself */
+  protected static void clear(Path dir) {
+    if (!Files.exists(dir)) return;
+    try (Stream<Path> paths = Files.walk(dir)) {
+      paths.sorted(Comparator.reverseOrder()).filter(path -> !path.equals(dir)).forEach(SplitClassesTask::delete);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Delete the file or empty directory if it's there, failing the task if it can't be */
+  protected static void delete(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
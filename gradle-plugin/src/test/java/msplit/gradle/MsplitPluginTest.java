@@ -0,0 +1,95 @@
+package msplit.gradle;
+
+import msplit.SplittingClassVisitor;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class MsplitPluginTest {
+
+  @Rule
+  public TemporaryFolder projectDir = new TemporaryFolder();
+
+  @Test
+  public void testSplitsCompiledClasses() throws Exception {
+    writeProject();
+    BuildResult result = runner("jar").build();
+    Assert.assertEquals(TaskOutcome.SUCCESS, result.task(":splitMethods").getOutcome());
+
+    // The split class fits and the one that was small enough is copied as is
+    File splitDir = new File(projectDir.getRoot(), "build/msplit/classes/main");
+    File compiledDir = new File(projectDir.getRoot(), "build/classes/java/main");
+    ClassReader huge = new ClassReader(Files.readAllBytes(new File(splitDir, "Huge.class").toPath()));
+    Assert.assertTrue(SplittingClassVisitor.maxCodeLength(huge) <= 1000);
+    Assert.assertArrayEquals(Files.readAllBytes(new File(compiledDir, "Small.class").toPath()),
+        Files.readAllBytes(new File(splitDir, "Small.class").toPath()));
+
+    // Nothing changed, nothing to do
+    result = runner("jar").build();
+    Assert.assertEquals(TaskOutcome.UP_TO_DATE, result.task(":splitMethods").getOutcome());
+
+    // A removed source removes the copied class
+    Files.delete(new File(projectDir.getRoot(), "src/main/java/Small.java").toPath());
+    result = runner("jar").build();
+    Assert.assertEquals(TaskOutcome.SUCCESS, result.task(":splitMethods").getOutcome());
+    Assert.assertFalse(new File(splitDir, "Small.class").exists());
+    Assert.assertTrue(new File(splitDir, "Huge.class").exists());
+  }
+
+  @Test
+  public void testKeepsOtherClassesDirs() throws Exception {
+    writeProject();
+    // Groovy is applied first so its classes dir is already in the output when the plugin replaces the Java one
+    String output = runner("printClassesDirs").build().getOutput();
+    Assert.assertTrue(output.contains("classes dir: build/msplit/classes/main"));
+    Assert.assertTrue(output.contains("classes dir: build/classes/groovy/main"));
+    Assert.assertFalse(output.contains("classes dir: build/classes/java/main"));
+  }
+
+  protected GradleRunner runner(String... args) {
+    return GradleRunner.create().withProjectDir(projectDir.getRoot()).withPluginClasspath().withArguments(args);
+  }
+
+  protected void writeProject() throws IOException {
+    write("settings.gradle", "rootProject.name = 'split-test'\n");
+    write("build.gradle", "plugins {\n" +
+        "  id 'groovy'\n" +
+        "  id 'com.github.cretz.msplit'\n" +
+        "}\n" +
+        // Compiled for Java 8 so the classes can be read by the ASM version used
+        "java {\n" +
+        "  sourceCompatibility = JavaVersion.VERSION_1_8\n" +
+        "  targetCompatibility = JavaVersion.VERSION_1_8\n" +
+        "}\n" +
+        "msplit { maxBytes = 1000 }\n" +
+        "tasks.register('printClassesDirs') {\n" +
+        "  doLast {\n" +
+        "    sourceSets.main.output.classesDirs.each {\n" +
+        "      def path = projectDir.toPath().relativize(it.toPath()).toString().replace('\\\\', '/')\n" +
+        "      println 'classes dir: ' + path\n" +
+        "    }\n" +
+        "  }\n" +
+        "}\n");
+    // A method of a few thousand bytes that has to be split to fit
+    StringBuilder huge = new StringBuilder("public class Huge {\n  public static int sum(int a) {\n    int x = a;\n");
+    for (int i = 0; i < 500; i++) huge.append("    x += a * ").append(i + 1000).append(";\n");
+    huge.append("    return x;\n  }\n}\n");
+    write("src/main/java/Huge.java", huge.toString());
+    write("src/main/java/Small.java", "public class Small {\n  public static int one() { return 1; }\n}\n");
+  }
+
+  protected void write(String path, String contents) throws IOException {
+    File file = new File(projectDir.getRoot(), path);
+    Files.createDirectories(file.getParentFile().toPath());
+    Files.write(file.toPath(), contents.getBytes("UTF-8"));
+  }
+}
@@ -0,0 +1,163 @@
+package msplit;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Benchmarks of how fast split code runs compared to the original. Methods that already fit are compiled from source
+ * and force split once with {@link SplitMethod#fromSplitPoint(String, MethodNode, Splitter.SplitPoint)} at the split
+ * point that stresses the given shape the most. Both are called through a method handle so the only difference is the
+ * split. Run with the GC profiler (the default for the jmh task) to see the allocations of the return conventions.
+ * <p>
+ * With the {@code OBJECT_ARRAY} return conventions param, every split off method boxes its outputs into an object
+ * array, which shows the cost of boxing compared to the primitive conventions used with {@code ALL}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RuntimeOverheadBenchmark {
+
+  /** The shape of the method and how the split point is chosen */
+  public enum Shape {
+    /** Many int, long, float, and double locals all updated, split where the most locals are read and written */
+    PRIMITIVE_LOCALS(point -> point.localsRead.size() + point.localsWritten.size()),
+    /** Longs and doubles computed as args of one call, split where the most stack slots cross the boundary */
+    WIDE_STACK(point -> slots(point.neededFromStackAtStart) + slots(point.putOnStackAtEnd)),
+    /** A loop with a large body, split at the largest point which is inside the body so it's called every iteration */
+    LOOP(point -> point.length);
+
+    final ToIntFunction<Splitter.SplitPoint> score;
+
+    Shape(ToIntFunction<Splitter.SplitPoint> score) { this.score = score; }
+  }
+
+  @Param
+  public Shape shape;
+
+  @Param({ "ALL", "OBJECT_ARRAY" })
+  public String returnConventions;
+
+  public int param = 42;
+
+  private MethodHandle original;
+  private MethodHandle split;
+
+  @Setup
+  public void setup() throws Throwable {
+    String name = "Overhead" + shape.name();
+    byte[] bytes = RuntimeCompiler.compileToBytes(name, source(name));
+    original = handle(name, bytes);
+    // Split at the best point for the shape
+    ClassNode cls = new ClassNode();
+    new ClassReader(bytes).accept(cls, ClassReader.EXPAND_FRAMES);
+    MethodNode method = null;
+    for (MethodNode m : cls.methods) if (m.name.equals("run")) method = m;
+    Splitter.SplitPoint best = bestSplitPoint(cls.name, method);
+    SplitMethod splitMethod = returnConventions.equals("ALL") ? new SplitMethod(Opcodes.ASM6) :
+        new SplitMethod(Opcodes.ASM6, SplitMethod.Options.builder().
+            returnConventions(EnumSet.noneOf(SplitMethod.ReturnConvention.class)).build());
+    SplitMethod.Result result = splitMethod.fromSplitPoint(cls.name, method, best);
+    cls.methods.remove(method);
+    cls.methods.add(result.trimmedMethod);
+    cls.methods.add(result.splitOffMethod);
+    split = MethodHandles.lookup().unreflect(TestUtil.compileMethodAsIs(cls, "run"));
+    long expected = (long) original.invokeExact(param);
+    long actual = (long) split.invokeExact(param);
+    if (expected != actual) throw new IllegalStateException("Expected " + expected + ", got " + actual);
+  }
+
+  @Benchmark
+  public long original() throws Throwable {
+    return (long) original.invokeExact(param);
+  }
+
+  @Benchmark
+  public long split() throws Throwable {
+    return (long) split.invokeExact(param);
+  }
+
+  private Splitter.SplitPoint bestSplitPoint(String owner, MethodNode method) {
+    int size = method.instructions.size();
+    Iterator<Splitter.SplitPoint> iter =
+        new Splitter(Opcodes.ASM6, owner, method, (int) (size * 0.2) + 1, (int) (size * 0.7) + 1).iterator();
+    Splitter.SplitPoint best = null;
+    while (iter.hasNext()) {
+      Splitter.SplitPoint point = iter.next();
+      if (best == null || shape.score.applyAsInt(point) > shape.score.applyAsInt(best)) best = point;
+    }
+    if (best == null) throw new IllegalStateException("No split points for " + shape);
+    return best;
+  }
+
+  private static MethodHandle handle(String name, byte[] bytes) throws Exception {
+    return MethodHandles.lookup().unreflect(RuntimeCompiler.defineClass(name, bytes).getMethod("run", int.class));
+  }
+
+  private static int slots(List<org.objectweb.asm.Type> types) {
+    int ret = 0;
+    for (org.objectweb.asm.Type type : types) ret += type.getSize();
+    return ret;
+  }
+
+  private String source(String name) {
+    StringBuilder body = new StringBuilder();
+    switch (shape) {
+      case PRIMITIVE_LOCALS:
+        body.append("int i0 = x, i1 = x + 1, i2 = x + 2, i3 = x + 3;\n");
+        body.append("long l0 = x * 3L, l1 = x * 5L, l2 = x * 7L, l3 = x * 11L;\n");
+        body.append("float f0 = x * 0.5f, f1 = x * 0.25f, f2 = x * 0.125f;\n");
+        body.append("double d0 = x * 0.5, d1 = x * 0.25, d2 = x * 0.125;\n");
+        for (int k = 1; k <= 30; k++) {
+          body.append("i0 += i1 ^ ").append(k).append("; i1 += i2 * i3; i2 ^= i0 >>> 3; i3 -= i2;\n");
+          body.append("l0 += l1 * i2 + ").append(k).append("; l1 ^= l0 >>> 7; l2 += l3 - i1; l3 ^= l2 << 1;\n");
+          body.append("f0 += f1 * ").append(k).append("; f1 -= f2 * 0.5f; f2 += i0 & 7;\n");
+          body.append("d0 += d1 + i3; d1 -= d2 * ").append(k).append("; d2 += l0 & 15;\n");
+        }
+        body.append("return i0 + i1 + i2 + i3 + l0 + l1 + l2 + l3 + (long) (f0 + f1 + f2) + (long) (d0 + d1 + d2);\n");
+        break;
+      case WIDE_STACK:
+        body.append("return sum(");
+        for (int k = 1; k <= 8; k++) {
+          if (k > 1) body.append(",\n");
+          if (k % 2 == 1) {
+            body.append("((x * ").append(k).append("L + ").append(k * 7).append(") ^ (x >>> ").append(k).
+                append(")) * ").append(k * 13).append("L + (x & ").append(k * 3).append(") - (x | ").append(k).
+                append("L) * (x ^ ").append(k * 5).append("L)");
+          } else {
+            body.append("(x * ").append(k).append(".5 + ").append(k).append(") / (x + ").append(k).
+                append(".25) * (x - ").append(k).append(".75) + x * x * ").append(k).append(".125");
+          }
+        }
+        body.append(");\n");
+        break;
+      case LOOP:
+        body.append("long sum = x;\n");
+        body.append("for (int i = 0; i < 100; i++) {\n");
+        for (int k = 1; k <= 30; k++) {
+          body.append("  sum += (i ^ x) * ").append(k).append("L; sum ^= sum >>> ").append(k % 13 + 1).
+              append("; sum -= i * ").append(k * 3).append(";\n");
+        }
+        body.append("}\n");
+        body.append("return sum;\n");
+        break;
+    }
+    return "public class " + name + " {\n" +
+        "  public static long run(int x) {\n" + body + "  }\n" +
+        "  private static long sum(long a, double b, long c, double d, long e, double f, long g, double h) {\n" +
+        "    return a + (long) b + c + (long) d + e + (long) f + g + (long) h;\n" +
+        "  }\n" +
+        "}\n";
+  }
+}
@@ -0,0 +1,70 @@
+package msplit;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.MethodNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the analysis, {@link Splitter} iteration plus {@link SplitMethod#split(String, MethodNode)} and
+ * {@link SplitMethod#fromSplitPoint(String, MethodNode, Splitter.SplitPoint)}, on generated methods of different sizes
+ * and shapes. Run with the GC profiler (the default for the jmh task) to get allocation rates too.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SplitterBenchmark {
+  private static final String OWNER = "msplit/Generated";
+
+  @Param({ "1000", "10000", "50000", "200000" })
+  public int insnCount;
+
+  @Param({ "0", "0.1" })
+  public double jumpDensity;
+
+  @Param({ "0", "0.05" })
+  public double switchDensity;
+
+  @Param({ "0", "3" })
+  public int tryDepth;
+
+  private MethodNode method;
+  private Splitter.SplitPoint splitPoint;
+
+  @Setup
+  public void setup() {
+    method = new MethodGenerator().insnCount(insnCount).jumpDensity(jumpDensity).switchDensity(switchDensity).
+        tryDepth(tryDepth).generate("generated");
+    Iterator<Splitter.SplitPoint> iter = newSplitter().iterator();
+    splitPoint = iter.hasNext() ? iter.next() : null;
+  }
+
+  /** Same sizes {@link SplitMethod#split(String, MethodNode)} uses */
+  private Splitter newSplitter() {
+    int size = method.instructions.size();
+    return new Splitter(Opcodes.ASM6, OWNER, method, (int) (size * 0.2) + 1, (int) (size * 0.7) + 1);
+  }
+
+  @Benchmark
+  public void iterateSplitPoints(Blackhole blackhole) {
+    Iterator<Splitter.SplitPoint> iter = newSplitter().iterator();
+    while (iter.hasNext()) blackhole.consume(iter.next());
+  }
+
+  @Benchmark
+  public SplitMethod.Result split() {
+    return new SplitMethod(Opcodes.ASM6).split(OWNER, method);
+  }
+
+  @Benchmark
+  public SplitMethod.Result fromSplitPoint() {
+    if (splitPoint == null) return null;
+    return new SplitMethod(Opcodes.ASM6).fromSplitPoint(OWNER, method, splitPoint);
+  }
+}
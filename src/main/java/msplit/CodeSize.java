@@ -0,0 +1,120 @@
+package msplit;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+/**
+ * The encoded size in bytes of each instruction of a method, laid out the way ASM writes them. This includes the
+ * shortest local instruction forms, WIDE prefixes, switch padding based on the instruction's offset, and jumps that are
+ * too far for a 16-bit offset being widened to GOTO_W (with an inverted jump over it if conditional).
+ * <p>
+ * The only thing that is not exact is LDC, which is always counted as LDC_W since the constant pool index is not known
+ * until the class is written. So sizes are never under what ASM writes and at most one byte over per LDC.
+ */
+public class CodeSize {
+  /** The offset of each instruction. Has one extra entry for the end. */
+  protected final int[] offsets;
+
+  /** @param method The method to compute the sizes for */
+  public CodeSize(MethodNode method) {
+    AbstractInsnNode[] insns = method.instructions.toArray();
+    Map<LabelNode, Integer> labelIndexes = new IdentityHashMap<>();
+    for (int i = 0; i < insns.length; i++) {
+      if (insns[i] instanceof LabelNode) labelIndexes.put((LabelNode) insns[i], i);
+    }
+    offsets = new int[insns.length + 1];
+    // Start with all jumps short and keep widening the ones too far until none change. Once wide, a jump stays wide
+    // so this always ends.
+    BitSet wideJumps = new BitSet(insns.length);
+    boolean changed = true;
+    while (changed) {
+      for (int i = 0; i < insns.length; i++) {
+        offsets[i + 1] = offsets[i] + insnSize(insns[i], offsets[i], wideJumps.get(i));
+      }
+      changed = false;
+      for (int i = 0; i < insns.length; i++) {
+        if (!(insns[i] instanceof JumpInsnNode) || wideJumps.get(i)) continue;
+        int jump = offsets[labelIndexes.get(((JumpInsnNode) insns[i]).label)] - offsets[i];
+        if (jump < Short.MIN_VALUE || jump > Short.MAX_VALUE) {
+          wideJumps.set(i);
+          changed = true;
+        }
+      }
+    }
+  }
+
+  /** The number of bytes of code in the given method */
+  public static int of(MethodNode method) { return new CodeSize(method).size(); }
+
+  /** The number of bytes of code in the whole method */
+  public int size() { return offsets[offsets.length - 1]; }
+
+  /** The offset of the instruction at the given index. Index can be the instruction count for the end. */
+  public int offsetOf(int index) { return offsets[index]; }
+
+  /** The number of bytes the given inclusive range of instructions takes in this method */
+  public int sizeOf(int startIndex, int endIndex) { return offsets[endIndex + 1] - offsets[startIndex]; }
+
+  /** The last end index whose range from startIndex is at most maxBytes, or startIndex - 1 if not even the first is */
+  public int lastEndIndexWithin(int startIndex, int maxBytes) {
+    int lo = startIndex;
+    int hi = offsets.length - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (offsets[mid] - offsets[startIndex] <= maxBytes) lo = mid;
+      else hi = mid - 1;
+    }
+    return lo - 1;
+  }
+
+  /**
+   * The number of bytes the given instruction takes when written at the given offset. Labels, line numbers, and frames
+   * take none.
+   *
+   * @param insn The instruction
+   * @param offset The offset the instruction is at, only used for switch padding
+   * @param wideJump Whether a jump is too far for a 16-bit offset
+   */
+  public static int insnSize(AbstractInsnNode insn, int offset, boolean wideJump) {
+    switch (insn.getType()) {
+      case AbstractInsnNode.LABEL:
+      case AbstractInsnNode.LINE:
+      case AbstractInsnNode.FRAME:
+        return 0;
+      case AbstractInsnNode.INSN:
+        return 1;
+      case AbstractInsnNode.INT_INSN:
+        return insn.getOpcode() == Opcodes.SIPUSH ? 3 : 2;
+      case AbstractInsnNode.VAR_INSN:
+        int var = ((VarInsnNode) insn).var;
+        // Loads and stores of the first 4 locals have their own opcodes
+        if (var < 4 && insn.getOpcode() != Opcodes.RET) return 1;
+        return var < 256 ? 2 : 4;
+      case AbstractInsnNode.IINC_INSN:
+        IincInsnNode iinc = (IincInsnNode) insn;
+        return iinc.var < 256 && iinc.incr >= Byte.MIN_VALUE && iinc.incr <= Byte.MAX_VALUE ? 3 : 6;
+      case AbstractInsnNode.JUMP_INSN:
+        if (!wideJump) return 3;
+        // Far conditional jumps become an inverted jump over a GOTO_W
+        return insn.getOpcode() == Opcodes.GOTO || insn.getOpcode() == Opcodes.JSR ? 5 : 8;
+      case AbstractInsnNode.TABLESWITCH_INSN:
+        return 1 + switchPadding(offset) + 12 + 4 * ((TableSwitchInsnNode) insn).labels.size();
+      case AbstractInsnNode.LOOKUPSWITCH_INSN:
+        return 1 + switchPadding(offset) + 8 + 8 * ((LookupSwitchInsnNode) insn).labels.size();
+      case AbstractInsnNode.METHOD_INSN:
+        return insn.getOpcode() == Opcodes.INVOKEINTERFACE ? 5 : 3;
+      case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+        return 5;
+      case AbstractInsnNode.MULTIANEWARRAY_INSN:
+        return 4;
+      default:
+        // Type, field, and LDC (always assumed LDC_W or LDC2_W)
+        return 3;
+    }
+  }
+
+  /** Switch operands start at the next multiple of 4 after the opcode */
+  protected static int switchPadding(int offset) { return -(offset + 1) & 3; }
+}
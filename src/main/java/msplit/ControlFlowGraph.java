@@ -0,0 +1,307 @@
+package msplit;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+/**
+ * The basic blocks of a method with their dominators and natural loops. {@link Splitter} keeps ranges valid on its
+ * own, this is used to propose ranges that run a whole loop (see {@link #wholeLoopRange(Loop)}) and to prefer ranges
+ * whose split off method is called once over ones where it's called on every iteration of a loop the range is inside
+ * of.
+ * <p>
+ * Catch handlers are only reached from the block the try/catch block starts in instead of from every block it covers.
+ * That keeps the graph linear in the size of the method with deeply nested try/catch blocks and is enough for loops,
+ * which are what it's used for, since a handler in a loop is still only reached from within it.
+ */
+public class ControlFlowGraph {
+  protected final AbstractInsnNode[] insns;
+  /** In instruction order */
+  protected final List<Block> blocks = new ArrayList<>();
+  /** The index in {@link #blocks} of the block of each instruction */
+  protected final int[] blockIndexes;
+  /** Innermost first for each nest */
+  protected final List<Loop> loops = new ArrayList<>();
+
+  /** Same as {@link #ControlFlowGraph(MethodNode, Deadline)} with no deadline */
+  public ControlFlowGraph(MethodNode method) { this(method, Deadline.NONE); }
+
+  /**
+   * @param method The method to build the graph of
+   * @param deadline When to give up, checked during each pass of the dominators and while finding loops
+   * @throws Deadline.ExceededException If the deadline passes before the graph is built
+   */
+  public ControlFlowGraph(MethodNode method, Deadline deadline) {
+    insns = method.instructions.toArray();
+    blockIndexes = new int[insns.length];
+    Map<LabelNode, Integer> labelIndexes = new IdentityHashMap<>();
+    for (int i = 0; i < insns.length; i++) {
+      if (insns[i] instanceof LabelNode) labelIndexes.put((LabelNode) insns[i], i);
+    }
+    // Blocks start at the start, at each jump target and try/catch label, and after each jump or exit
+    BitSet leaders = new BitSet(insns.length);
+    if (insns.length > 0) leaders.set(0);
+    for (int i = 0; i < insns.length; i++) {
+      for (LabelNode label : JumpIndex.jumpTargets(insns[i])) leaders.set(labelIndexes.get(label));
+      if (endsBlock(insns[i].getOpcode()) && i + 1 < insns.length) leaders.set(i + 1);
+    }
+    for (TryCatchBlockNode block : method.tryCatchBlocks) {
+      leaders.set(labelIndexes.get(block.start));
+      leaders.set(labelIndexes.get(block.handler));
+    }
+    for (int start = leaders.nextSetBit(0); start != -1; ) {
+      int next = leaders.nextSetBit(start + 1);
+      int end = next == -1 ? insns.length - 1 : next - 1;
+      Block block = new Block(blocks.size(), start, end);
+      Arrays.fill(blockIndexes, start, end + 1, block.index);
+      blocks.add(block);
+      start = next;
+    }
+    // Edges
+    for (Block block : blocks) {
+      int last = block.endIndex;
+      while (last > block.startIndex && insns[last].getOpcode() == -1) last--;
+      int opcode = insns[last].getOpcode();
+      for (LabelNode label : JumpIndex.jumpTargets(insns[last])) addEdge(block, blockAt(labelIndexes.get(label)));
+      boolean fallsThrough = !endsBlock(opcode) || (insns[last] instanceof JumpInsnNode && opcode != Opcodes.GOTO);
+      if (fallsThrough && block.index + 1 < blocks.size()) addEdge(block, blocks.get(block.index + 1));
+    }
+    for (TryCatchBlockNode block : method.tryCatchBlocks) {
+      addEdge(blockAt(labelIndexes.get(block.start)), blockAt(labelIndexes.get(block.handler)));
+    }
+    if (!blocks.isEmpty()) {
+      computeDominators(deadline);
+      computeLoops(deadline);
+    }
+  }
+
+  protected static boolean endsBlock(int opcode) {
+    return (opcode >= Opcodes.IFEQ && opcode <= Opcodes.RETURN) || opcode == Opcodes.ATHROW ||
+        opcode == Opcodes.IFNULL || opcode == Opcodes.IFNONNULL;
+  }
+
+  protected static void addEdge(Block from, Block to) {
+    from.successors.add(to);
+    to.predecessors.add(from);
+  }
+
+  /** Cooper, Harvey, and Kennedy's iterative algorithm over the blocks in reverse postorder */
+  protected void computeDominators(Deadline deadline) {
+    // Postorder without recursion, unreachable blocks are left without an order or dominator
+    List<Block> postorder = new ArrayList<>();
+    Deque<Block> stack = new ArrayDeque<>();
+    Deque<Integer> nextSuccessor = new ArrayDeque<>();
+    Block entry = blocks.get(0);
+    entry.postorder = -2;
+    stack.push(entry);
+    nextSuccessor.push(0);
+    while (!stack.isEmpty()) {
+      Block block = stack.peek();
+      int next = nextSuccessor.pop();
+      if (next < block.successors.size()) {
+        nextSuccessor.push(next + 1);
+        Block successor = block.successors.get(next);
+        if (successor.postorder == -1) {
+          successor.postorder = -2;
+          stack.push(successor);
+          nextSuccessor.push(0);
+        }
+      } else {
+        stack.pop();
+        block.postorder = postorder.size();
+        postorder.add(block);
+      }
+    }
+    entry.dominator = entry;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = postorder.size() - 2; i >= 0; i--) {
+        deadline.check(i);
+        Block block = postorder.get(i);
+        Block dominator = null;
+        for (Block predecessor : block.predecessors) {
+          if (predecessor.dominator == null) continue;
+          dominator = dominator == null ? predecessor : intersect(predecessor, dominator);
+        }
+        if (dominator != block.dominator) {
+          block.dominator = dominator;
+          changed = true;
+        }
+      }
+    }
+  }
+
+  protected static Block intersect(Block first, Block second) {
+    while (first != second) {
+      while (first.postorder < second.postorder) first = first.dominator;
+      while (second.postorder < first.postorder) second = second.dominator;
+    }
+    return first;
+  }
+
+  /** Natural loops of each back edge, merged by header, and nested by which contains which */
+  protected void computeLoops(Deadline deadline) {
+    Map<Block, Loop> loopsByHeader = new LinkedHashMap<>();
+    for (Block block : blocks) {
+      for (Block successor : block.successors) {
+        if (!dominates(successor, block)) continue;
+        // Each back edge can go over every block
+        deadline.check();
+        Loop loop = loopsByHeader.computeIfAbsent(successor, Loop::new);
+        // Everything that reaches the back edge without going through the header
+        Deque<Block> work = new ArrayDeque<>();
+        if (!loop.blocks.get(block.index)) {
+          loop.blocks.set(block.index);
+          work.add(block);
+        }
+        while (!work.isEmpty()) {
+          for (Block predecessor : work.poll().predecessors) {
+            if (predecessor.dominator != null && !loop.blocks.get(predecessor.index)) {
+              loop.blocks.set(predecessor.index);
+              work.add(predecessor);
+            }
+          }
+        }
+      }
+    }
+    // Outermost first so the innermost is set on each block last, and its parent is what was set on its header before
+    List<Loop> largestFirst = new ArrayList<>(loopsByHeader.values());
+    largestFirst.sort((o1, o2) -> Integer.compare(o2.blocks.cardinality(), o1.blocks.cardinality()));
+    for (Loop loop : largestFirst) {
+      loop.parent = loop.header.loop;
+      loop.depth = loop.parent == null ? 1 : loop.parent.depth + 1;
+      for (int i = loop.blocks.nextSetBit(0); i != -1; i = loop.blocks.nextSetBit(i + 1)) {
+        Block block = blocks.get(i);
+        block.loop = loop;
+        loop.firstIndex = Math.min(loop.firstIndex, block.startIndex);
+        loop.lastIndex = Math.max(loop.lastIndex, block.endIndex);
+      }
+    }
+    for (int i = largestFirst.size() - 1; i >= 0; i--) loops.add(largestFirst.get(i));
+  }
+
+  /** The basic blocks in instruction order */
+  public List<Block> blocks() { return blocks; }
+
+  /** The block the instruction at the index is in */
+  public Block blockAt(int index) { return blocks.get(blockIndexes[index]); }
+
+  /** The natural loops, an inner loop always before the loops it's in */
+  public List<Loop> loops() { return loops; }
+
+  /** Whether every path from the start of the method to the second block goes through the first */
+  public boolean dominates(Block dominator, Block block) {
+    if (block.dominator == null || dominator.dominator == null) return false;
+    while (block.postorder < dominator.postorder) block = block.dominator;
+    return block == dominator;
+  }
+
+  /** How many loops the instruction at the index is in */
+  public int loopDepth(int index) {
+    Loop loop = blockAt(index).loop;
+    return loop == null ? 0 : loop.depth;
+  }
+
+  /**
+   * How many loops the inclusive range starts inside of without containing all of, which is how many loops the call to
+   * a method split off at the range is made on every iteration of
+   */
+  public int loopsCutBy(int startIndex, int endIndex) {
+    int ret = 0;
+    for (Loop loop = blockAt(startIndex).loop; loop != null; loop = loop.parent) {
+      if (loop.firstIndex < startIndex || loop.lastIndex > endIndex) ret++;
+    }
+    return ret;
+  }
+
+  /**
+   * The inclusive instruction range that runs the loop as a whole, entered once before it starts and left once it's
+   * done. It starts at the jump into the loop if the block right before it only enters it by jumping (e.g. javac jumps
+   * to the condition at the bottom), otherwise at the loop's first index. It ends right before the furthest place
+   * after the loop that it exits to (e.g. a break), or at its last index if it only exits by falling out of the end.
+   * The range may still not be valid to split off, e.g. if it's jumped into elsewhere or exits to before itself.
+   */
+  public int[] wholeLoopRange(Loop loop) {
+    int start = loop.firstIndex;
+    if (start > 0) {
+      Block before = blockAt(start - 1);
+      int last = before.endIndex;
+      while (last > before.startIndex && insns[last].getOpcode() == -1) last--;
+      if (!loop.contains(before) && insns[last] instanceof JumpInsnNode && before.successors.contains(loop.header) &&
+          loop.header.startIndex != start) {
+        start = last;
+      }
+    }
+    int end = loop.lastIndex;
+    for (int i = loop.blocks.nextSetBit(0); i != -1; i = loop.blocks.nextSetBit(i + 1)) {
+      for (Block successor : blocks.get(i).successors) {
+        if (!loop.contains(successor)) end = Math.max(end, successor.startIndex - 1);
+      }
+    }
+    return new int[] { start, end };
+  }
+
+  /** Instructions that can only be left from the last and only entered at the first */
+  public static class Block {
+    /** The index in {@link #blocks()} */
+    public final int index;
+    public final int startIndex;
+    /** Inclusive */
+    public final int endIndex;
+    public final List<Block> successors = new ArrayList<>();
+    public final List<Block> predecessors = new ArrayList<>();
+    /** The immediate dominator, itself for the first block, or null if unreachable */
+    protected Block dominator;
+    /** The innermost loop this is in, or null */
+    protected Loop loop;
+    /** -1 until visited */
+    protected int postorder = -1;
+
+    protected Block(int index, int startIndex, int endIndex) {
+      this.index = index;
+      this.startIndex = startIndex;
+      this.endIndex = endIndex;
+    }
+
+    /** The immediate dominator, itself for the first block, or null if unreachable */
+    public Block dominator() { return dominator; }
+
+    /** The innermost loop this is in, or null */
+    public Loop loop() { return loop; }
+  }
+
+  /** A natural loop, i.e. the blocks that can reach a back edge to a header that dominates them */
+  public static class Loop {
+    public final Block header;
+    /** Indexes in {@link #blocks()} */
+    protected final BitSet blocks = new BitSet();
+    /** The loop this one is in, or null */
+    protected Loop parent;
+    /** 1 if not in another loop */
+    protected int depth;
+    /** The first and last instruction indexes of the blocks, inclusive */
+    protected int firstIndex = Integer.MAX_VALUE;
+    protected int lastIndex = -1;
+
+    protected Loop(Block header) {
+      this.header = header;
+      blocks.set(header.index);
+    }
+
+    public boolean contains(Block block) { return blocks.get(block.index); }
+
+    /** The loop this one is in, or null */
+    public Loop parent() { return parent; }
+
+    /** 1 if not in another loop */
+    public int depth() { return depth; }
+
+    /** The first instruction index of the blocks */
+    public int firstIndex() { return firstIndex; }
+
+    /** The last instruction index of the blocks, inclusive */
+    public int lastIndex() { return lastIndex; }
+  }
+}
@@ -0,0 +1,165 @@
+package msplit;
+
+import org.objectweb.asm.Type;
+
+import java.util.List;
+
+/**
+ * Scores split points so {@link SplitMethod#split(String, org.objectweb.asm.tree.MethodNode, Splitter.SizeUnit, int,
+ * int, int)} can choose between them. The split point with the highest score is used. The score is given the
+ * {@link Boundary} of the split point, which is what calling the split off method will cost, so a slightly shorter
+ * region that needs a couple of params and returns nothing can win over a longer one that needs dozens of params and
+ * boxes what it returns.
+ * <p>
+ * Implementations should be stateless. {@link SplitCache} keys results by the {@link #toString()} of the cost model,
+ * so custom implementations that are cached need one that differs when the scores do.
+ */
+public interface CostModel {
+  /** Weighs the size of the region against its boundary, the default */
+  CostModel BALANCED = new Weighted("BALANCED", 10, 1, 4, 1, false);
+  /** Prefers the cheapest boundary even for a much smaller region, for code where split off methods run hot */
+  CostModel LOWEST_OVERHEAD = new Weighted("LOWEST_OVERHEAD", 40, 4, 16, 4, false);
+  /** Only the size, so the largest region is split off and the fewest splits are needed */
+  CostModel FEWEST_SPLITS = new Weighted("FEWEST_SPLITS", 0, 0, 0, 0, false);
+  /** The first split point found is used without looking at any others */
+  CostModel FASTEST_ANALYSIS = new Weighted("FASTEST_ANALYSIS", 0, 0, 0, 0, true);
+
+  /** The score of the split point at the boundary, higher is better */
+  double score(Boundary boundary);
+
+  /** Whether the split point at the boundary with the score is good enough to stop looking at others */
+  default boolean isGoodEnough(Boundary boundary, double score) { return false; }
+
+  /**
+   * Whether the score can depend on {@link Boundary#loopsCut}. If not, the {@link ControlFlowGraph} it comes from is
+   * never built and the ranges that run a whole loop aren't tried, since nothing would prefer them.
+   */
+  default boolean weighsLoopsCut() { return true; }
+
+  /** What calling the method split off at a split point costs, in the form of the values crossing the call */
+  class Boundary {
+    public final Splitter.SplitPoint splitPoint;
+    /** The size of the region in the {@link Splitter.SizeUnit} being split by */
+    public final int size;
+    /** The parameter slots of the split off method, longs and doubles take two */
+    public final int paramSlots;
+    /** The stack slots needed at the start and passed as params */
+    public final int stackSlotsIn;
+    /** The stack slots put back at the end and returned */
+    public final int stackSlotsOut;
+    /**
+     * The values that go through an array: read locals packed because there are too many for params and outputs
+     * returned with {@link SplitMethod.ReturnConvention#LONG_ARRAY} or
+     * {@link SplitMethod.ReturnConvention#OBJECT_ARRAY}
+     */
+    public final int boxedValues;
+    public final SplitMethod.ReturnConvention returnConvention;
+    /**
+     * From an {@link ExecutionProfile}, how hot the region is from 0 when it never ran to 1 when it has the hottest
+     * code of the method. Always 0 without a profile.
+     */
+    public final double heat;
+    /**
+     * From an {@link ExecutionProfile}, how many times the split off method would be called per call of the method,
+     * more than 1 if the region is in a loop. Always 0 without a profile.
+     */
+    public final double callsPerInvocation;
+    /**
+     * How many loops the region is inside of without containing all of, see
+     * {@link ControlFlowGraph#loopsCutBy(int, int)}. The split off method is called on every iteration of each.
+     */
+    public final int loopsCut;
+
+    public Boundary(Splitter.SplitPoint splitPoint, int size, List<Type> params,
+        SplitMethod.ReturnConvention returnConvention) {
+      this(splitPoint, size, params, returnConvention, 0, 0, 0);
+    }
+
+    public Boundary(Splitter.SplitPoint splitPoint, int size, List<Type> params,
+        SplitMethod.ReturnConvention returnConvention, double heat, double callsPerInvocation, int loopsCut) {
+      this.splitPoint = splitPoint;
+      this.size = size;
+      this.paramSlots = slots(params);
+      this.stackSlotsIn = slots(splitPoint.neededFromStackAtStart);
+      this.stackSlotsOut = slots(splitPoint.putOnStackAtEnd);
+      int boxedValues = SplitMethod.packsReadLocals(splitPoint) ? splitPoint.localsRead.size() : 0;
+      if (returnConvention == SplitMethod.ReturnConvention.LONG_ARRAY ||
+          returnConvention == SplitMethod.ReturnConvention.OBJECT_ARRAY) {
+        boxedValues += SplitMethod.ReturnConvention.outputsOf(splitPoint).size();
+      }
+      this.boxedValues = boxedValues;
+      this.returnConvention = returnConvention;
+      this.heat = heat;
+      this.callsPerInvocation = callsPerInvocation;
+      this.loopsCut = loopsCut;
+    }
+
+    protected static int slots(List<Type> types) {
+      int ret = 0;
+      for (Type type : types) ret += type.getSize();
+      return ret;
+    }
+  }
+
+  /**
+   * Scores the size minus a weight for the call itself and for each param slot, boxed value, and stack slot in or out.
+   * The weights are roughly how many instructions each one adds to the call and the split off method. With an
+   * {@link ExecutionProfile}, only the cold part of the size counts, so the hottest region scores no more than its
+   * boundary, and the boundary is weighed by how many times it's crossed per call of the method, so regions in loops
+   * score lower. Without a profile, each loop the region cuts is assumed to iterate {@link #ASSUMED_LOOP_ITERATIONS}
+   * times.
+   */
+  class Weighted implements CostModel {
+    /** How many times a loop is assumed to iterate when there is no profile */
+    public static final double ASSUMED_LOOP_ITERATIONS = 10;
+
+    protected final String name;
+    protected final double callWeight;
+    protected final double paramSlotWeight;
+    protected final double boxedValueWeight;
+    protected final double stackSlotWeight;
+    protected final boolean firstIsGoodEnough;
+
+    /**
+     * @param name The name, used at the start of the {@link #toString()} which also has every weight
+     * @param callWeight What the call itself takes away from the size
+     * @param paramSlotWeight What each param slot takes away from the size
+     * @param boxedValueWeight What each value going through an array takes away from the size
+     * @param stackSlotWeight What each stack slot in or out takes away from the size
+     * @param firstIsGoodEnough Whether to use the first split point found
+     */
+    public Weighted(String name, double callWeight, double paramSlotWeight, double boxedValueWeight,
+        double stackSlotWeight, boolean firstIsGoodEnough) {
+      this.name = name;
+      this.callWeight = callWeight;
+      this.paramSlotWeight = paramSlotWeight;
+      this.boxedValueWeight = boxedValueWeight;
+      this.stackSlotWeight = stackSlotWeight;
+      this.firstIsGoodEnough = firstIsGoodEnough;
+    }
+
+    @Override
+    public double score(Boundary boundary) {
+      double boundaryCost = callWeight + paramSlotWeight * boundary.paramSlots +
+          boxedValueWeight * boundary.boxedValues + stackSlotWeight * (boundary.stackSlotsIn + boundary.stackSlotsOut);
+      double crossings = boundary.callsPerInvocation > 0 ? boundary.callsPerInvocation :
+          Math.pow(ASSUMED_LOOP_ITERATIONS, boundary.loopsCut);
+      return boundary.size * (1 - boundary.heat) - boundaryCost * Math.max(1, crossings);
+    }
+
+    @Override
+    public boolean isGoodEnough(Boundary boundary, double score) { return firstIsGoodEnough; }
+
+    /** Only the boundary cost is multiplied by the loops cut, so without any weight they don't matter */
+    @Override
+    public boolean weighsLoopsCut() {
+      return callWeight != 0 || paramSlotWeight != 0 || boxedValueWeight != 0 || stackSlotWeight != 0;
+    }
+
+    @Override
+    public String toString() {
+      return name + "(" + callWeight + ", " + paramSlotWeight + ", " + boxedValueWeight + ", " + stackSlotWeight +
+          ", " + firstIsGoodEnough + ")";
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package msplit;
+
+/**
+ * A time after which an analysis or search of a method gives up. The analyses that repeat passes until they settle
+ * ({@link FrameTable}, {@link Liveness}, and {@link ControlFlowGraph}) check it between passes and every so many
+ * instructions within one, and throw {@link ExceededException} once it's passed, so nothing built on a method runs
+ * unbounded when a {@link SplitMethod.Budget} of time is given.
+ */
+public class Deadline {
+  /** Never passes */
+  public static final Deadline NONE = new Deadline(0, 0);
+
+  /** How many instructions an analysis goes over between checks within a pass */
+  public static final int CHECK_INTERVAL = 1024;
+
+  protected final long startNanos;
+  protected final long maxNanos;
+
+  /**
+   * @param startNanos The {@link System#nanoTime()} the time started at
+   * @param maxNanos If &gt; 0, the most nanoseconds after the start, otherwise it never passes
+   */
+  public Deadline(long startNanos, long maxNanos) {
+    this.startNanos = startNanos;
+    this.maxNanos = maxNanos;
+  }
+
+  /** A deadline the given nanoseconds from now, or that never passes if not &gt; 0 */
+  public static Deadline in(long maxNanos) { return maxNanos > 0 ? new Deadline(System.nanoTime(), maxNanos) : NONE; }
+
+  /** Whether the time is up */
+  public boolean isPassed() { return maxNanos > 0 && System.nanoTime() - startNanos >= maxNanos; }
+
+  /** Throw if the time is up */
+  public void check() {
+    if (isPassed()) throw new ExceededException();
+  }
+
+  /**
+   * Same as {@link #check()} but only at every {@link #CHECK_INTERVAL}th index, for loops over instructions where
+   * reading the clock every time would cost more than the work
+   */
+  public void check(int index) {
+    if (index % CHECK_INTERVAL == 0) check();
+  }
+
+  /** Thrown when the deadline has passed part way through an analysis */
+  @SuppressWarnings("serial")
+  public static class ExceededException extends RuntimeException {
+    public ExceededException() { super("Deadline passed", null, false, false); }
+  }
+}
@@ -0,0 +1,288 @@
+package msplit;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How many times the code of methods ran, so {@link SplitMethod} can keep hot code in the trimmed method and split off
+ * cold code. It's read from a simple text file so profiles can come from any tool. Each line is a method, a bytecode
+ * offset in it, and a count, separated by whitespace:
+ * <pre>
+ * com/example/Rules.eval(I)J 0 1000
+ * com/example/Rules.eval(I)J 42 250000
+ * </pre>
+ * The method is the internal name of the owner, a dot, then the name and descriptor. Blank lines and lines starting
+ * with {@code #} are ignored. A count applies to the instruction at its offset and every one after it up to the next
+ * offset given, so counts are usually given at the start of each basic block. The count at offset 0 is how many times
+ * the method was called. Offsets are the bytecode indexes of the method as profiled, before it was split, e.g. as shown
+ * by {@code javap -c}. Since ASM doesn't keep them, {@link #readOffsets(ClassReader)} has to be called with the class
+ * as read before its methods' counts are asked for.
+ */
+public class ExecutionProfile {
+  /** Counts by offset for each owner + "." + name + descriptor */
+  protected final Map<String, SortedMap<Integer, Long>> counts;
+  /** The offset of each instruction of the methods in the profile whose class was read, keyed like the counts */
+  protected final Map<String, int[]> insnOffsets = new ConcurrentHashMap<>();
+
+  /** @param counts Counts by offset for each method, keyed by the owner's internal name + "." + name + descriptor */
+  public ExecutionProfile(Map<String, SortedMap<Integer, Long>> counts) {
+    this.counts = counts;
+  }
+
+  /** Read a profile from a file in the format described on the class */
+  public static ExecutionProfile read(Path file) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return read(reader);
+    }
+  }
+
+  /**
+   * Read a profile in the format described on the class
+   *
+   * @throws IllegalArgumentException If a line is not in the format
+   */
+  public static ExecutionProfile read(BufferedReader reader) throws IOException {
+    Map<String, SortedMap<Integer, Long>> counts = new HashMap<>();
+    String line;
+    int lineNumber = 0;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) continue;
+      String[] parts = line.split("\\s+");
+      if (parts.length != 3 || parts[0].indexOf('.') == -1) {
+        throw new IllegalArgumentException("Expected method, offset, and count on profile line " + lineNumber);
+      }
+      try {
+        counts.computeIfAbsent(parts[0], k -> new TreeMap<>()).merge(
+            Integer.parseInt(parts[1]), Long.parseLong(parts[2]), Long::sum);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid offset or count on profile line " + lineNumber, e);
+      }
+    }
+    return new ExecutionProfile(counts);
+  }
+
+  /** The counts by offset of the given method, empty if it's not in the profile */
+  public SortedMap<Integer, Long> countsOf(String owner, String name, String desc) {
+    SortedMap<Integer, Long> ret = counts.get(owner + "." + name + desc);
+    return ret == null ? Collections.emptySortedMap() : Collections.unmodifiableSortedMap(ret);
+  }
+
+  /**
+   * The count of each instruction of the given method as it was profiled, or null if it's not in the profile. The
+   * method must be as read from a class given to {@link #readOffsets(ClassReader)}.
+   *
+   * @throws IllegalStateException If the method is in the profile but its class wasn't read
+   * @throws IllegalArgumentException If the method's instructions aren't those read
+   */
+  public Counts countsFor(String owner, MethodNode method) {
+    SortedMap<Integer, Long> byOffset = countsOf(owner, method.name, method.desc);
+    if (byOffset.isEmpty()) return null;
+    int[] offsets = insnOffsets.get(owner + "." + method.name + method.desc);
+    if (offsets == null) {
+      throw new IllegalStateException("Offsets of " + owner + "." + method.name + method.desc + " not read");
+    }
+    long[] insnCounts = new long[method.instructions.size()];
+    // Labels, line numbers, and frames are at the same offset as what follows them, so go backwards
+    int opcodeIndex = offsets.length;
+    int offset = Integer.MAX_VALUE;
+    AbstractInsnNode insn = method.instructions.getLast();
+    for (int i = insnCounts.length - 1; i >= 0; i--, insn = insn.getPrevious()) {
+      if (insn.getOpcode() >= 0) {
+        if (--opcodeIndex < 0) break;
+        offset = offsets[opcodeIndex];
+      }
+      // The last count at or before the offset
+      SortedMap<Integer, Long> atOrBefore = byOffset.headMap(offset == Integer.MAX_VALUE ? offset : offset + 1);
+      insnCounts[i] = atOrBefore.isEmpty() ? 0 : atOrBefore.get(atOrBefore.lastKey());
+    }
+    if (opcodeIndex != 0) {
+      throw new IllegalArgumentException("Instructions of " + owner + "." + method.name + method.desc +
+          " are not those read");
+    }
+    return new Counts(insnCounts);
+  }
+
+  /**
+   * Read the offset of each instruction of the methods of the class that are in the profile, so their counts can be
+   * given to the instructions of the methods as read. Safe to call from multiple threads.
+   */
+  public void readOffsets(ClassReader reader) {
+    String owner = reader.getClassName();
+    char[] buf = new char[reader.getMaxStringLength()];
+    // Skip the access, name, super name, and interfaces, then the fields
+    int offset = reader.header + 6;
+    offset += 2 + 2 * reader.readUnsignedShort(offset);
+    int fieldCount = reader.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < fieldCount; i++) offset = skipAttributes(reader, offset + 6);
+    int methodCount = reader.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < methodCount; i++) {
+      String key = owner + "." + reader.readUTF8(offset + 2, buf) + reader.readUTF8(offset + 4, buf);
+      int attributeCount = reader.readUnsignedShort(offset + 6);
+      offset += 8;
+      for (int j = 0; j < attributeCount; j++) {
+        if (counts.containsKey(key) && "Code".equals(reader.readUTF8(offset, buf))) {
+          insnOffsets.put(key, codeInsnOffsets(reader, offset + 6));
+        }
+        offset += 6 + reader.readInt(offset + 2);
+      }
+    }
+  }
+
+  /** The offset after the attributes at the given offset */
+  protected static int skipAttributes(ClassReader reader, int offset) {
+    int attributeCount = reader.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < attributeCount; i++) offset += 6 + reader.readInt(offset + 2);
+    return offset;
+  }
+
+  /** The offset of each instruction of the Code attribute whose contents start at the given offset */
+  protected static int[] codeInsnOffsets(ClassReader reader, int codeAttributeOffset) {
+    int codeStart = codeAttributeOffset + 8;
+    int codeLength = reader.readInt(codeAttributeOffset + 4);
+    int[] ret = new int[codeLength];
+    int count = 0;
+    for (int offset = 0; offset < codeLength; offset += insnLength(reader, codeStart, offset)) ret[count++] = offset;
+    return Arrays.copyOf(ret, count);
+  }
+
+  /** The number of bytes the instruction at the given offset of the code starting at codeStart takes */
+  protected static int insnLength(ClassReader reader, int codeStart, int offset) {
+    int opcode = reader.readByte(codeStart + offset);
+    switch (opcode) {
+      case Opcodes.BIPUSH:
+      case Opcodes.LDC:
+      case Opcodes.NEWARRAY:
+      case Opcodes.RET:
+        return 2;
+      case Opcodes.SIPUSH:
+      case 19: // LDC_W
+      case 20: // LDC2_W
+      case Opcodes.IINC:
+      case Opcodes.GETSTATIC:
+      case Opcodes.PUTSTATIC:
+      case Opcodes.GETFIELD:
+      case Opcodes.PUTFIELD:
+      case Opcodes.INVOKEVIRTUAL:
+      case Opcodes.INVOKESPECIAL:
+      case Opcodes.INVOKESTATIC:
+      case Opcodes.NEW:
+      case Opcodes.ANEWARRAY:
+      case Opcodes.CHECKCAST:
+      case Opcodes.INSTANCEOF:
+      case Opcodes.IFNULL:
+      case Opcodes.IFNONNULL:
+        return 3;
+      case Opcodes.MULTIANEWARRAY:
+        return 4;
+      case Opcodes.INVOKEINTERFACE:
+      case Opcodes.INVOKEDYNAMIC:
+      case 200: // GOTO_W
+      case 201: // JSR_W
+        return 5;
+      case 196: // WIDE
+        return reader.readByte(codeStart + offset + 1) == Opcodes.IINC ? 6 : 4;
+      case Opcodes.TABLESWITCH: {
+        int operands = codeStart + offset + 1 + CodeSize.switchPadding(offset);
+        int caseCount = reader.readInt(operands + 8) - reader.readInt(operands + 4) + 1;
+        return operands + 12 + 4 * caseCount - codeStart - offset;
+      }
+      case Opcodes.LOOKUPSWITCH: {
+        int operands = codeStart + offset + 1 + CodeSize.switchPadding(offset);
+        return operands + 8 + 8 * reader.readInt(operands + 4) - codeStart - offset;
+      }
+      default:
+        // Locals by index, jumps, and the rest of the one byte instructions
+        if (opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD) return 2;
+        if (opcode >= Opcodes.ISTORE && opcode <= Opcodes.ASTORE) return 2;
+        if (opcode >= Opcodes.IFEQ && opcode <= Opcodes.JSR) return 3;
+        return 1;
+    }
+  }
+
+  /** The count of each instruction of a method by index */
+  public static class Counts {
+    protected final long[] counts;
+    /** Max of each node of a segment tree over the counts, so the max of any range is quick */
+    protected final long[] tree;
+    protected final int leafCount;
+
+    public Counts(long[] counts) {
+      this.counts = counts;
+      int leafCount = 1;
+      while (leafCount < counts.length) leafCount <<= 1;
+      this.leafCount = leafCount;
+      tree = new long[leafCount * 2];
+      System.arraycopy(counts, 0, tree, leafCount, counts.length);
+      for (int i = leafCount - 1; i > 0; i--) tree[i] = Math.max(tree[i * 2], tree[i * 2 + 1]);
+    }
+
+    /** How many times the instruction at the index ran */
+    public long countAt(int index) { return counts[index]; }
+
+    /** How many times the method was called, which is the count of its first instruction */
+    public long invocations() { return counts.length == 0 ? 0 : counts[0]; }
+
+    /** The most times any instruction in the inclusive range ran */
+    public long maxIn(int startIndex, int endIndex) {
+      long ret = 0;
+      for (int lo = startIndex + leafCount, hi = endIndex + leafCount + 1; lo < hi; lo >>= 1, hi >>= 1) {
+        if ((lo & 1) == 1) ret = Math.max(ret, tree[lo++]);
+        if ((hi & 1) == 1) ret = Math.max(ret, tree[--hi]);
+      }
+      return ret;
+    }
+
+    /**
+     * How hot the inclusive range is, from 0 when none of it ran to 1 when it has the hottest instruction of the
+     * method
+     */
+    public double heatOf(int startIndex, int endIndex) {
+      long max = tree[1];
+      return max == 0 ? 0 : (double) maxIn(startIndex, endIndex) / max;
+    }
+
+    /**
+     * How many times a range starting at the index is entered per call of the method, more than 1 if it's in a loop.
+     * It's 0 if the method's calls are unknown.
+     */
+    public double entriesPerInvocation(int startIndex) {
+      long invocations = invocations();
+      return invocations == 0 ? 0 : (double) counts[startIndex] / invocations;
+    }
+
+    /**
+     * The counts for a method made from the given one, e.g. the trimmed method after a split. Instructions cloned from
+     * the given one keep their count, and any added, e.g. to call a split off method, take the count of the one before
+     * since they run right after it.
+     *
+     * @param method The new method
+     * @param origIndexes The index in the method these counts are for of each instruction cloned from it
+     */
+    public Counts remapped(MethodNode method, Map<AbstractInsnNode, Integer> origIndexes) {
+      long[] ret = new long[method.instructions.size()];
+      long count = invocations();
+      int i = 0;
+      for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+        Integer origIndex = origIndexes.get(insn);
+        if (origIndex != null) count = counts[origIndex];
+        ret[i++] = count;
+      }
+      return new Counts(ret);
+    }
+  }
+}
@@ -0,0 +1,554 @@
+package msplit;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AnalyzerAdapter;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+import static msplit.Util.*;
+
+/**
+ * The stack and local state at every instruction index of a method, computed in a single forward pass. This is what
+ * lets {@link Splitter} build each {@link Splitter.SplitPoint} from a lookup at its start plus a scan over only its
+ * own range instead of replaying the method from the beginning for every candidate.
+ * <p>
+ * Stack and local items are in the same form as {@link AnalyzerAdapter#stack}. Frames are used as they are seen (so
+ * they must be expanded like {@link AnalyzerAdapter} requires). For methods without frames, the state at each label
+ * is merged from the instruction before it and every jump, switch, and try block that targets it. Items that differ
+ * are TOP (i.e. unknown) unless one is null and the other a reference, and the pass is repeated while a jump back to a
+ * label already passed changes its state.
+ */
+public class FrameTable {
+  protected final String owner;
+  /** Stack before each instruction, or null if unknown/unreachable. Has one extra entry for after the last one. */
+  protected final Object[][] stacks;
+  /** Locals before each instruction, same as {@link #stacks} */
+  protected final Object[][] locals;
+  /** The lowest stack size reached while executing each instruction */
+  protected final int[] lowestStackSizes;
+  protected final JumpIndex.RangeTree lowestStackSizeMins;
+  /** Whether execution can continue from each instruction on to the next one */
+  protected final BitSet fallsThrough;
+  /**
+   * For local loads, the type of the local before the instruction. For local stores, the type being stored. For
+   * increments, always {@link Opcodes#INTEGER}. Null for all other instructions.
+   */
+  protected final Object[] localTypes;
+  /** The local each load, store, or increment accesses, -1 for all other instructions */
+  protected final int[] accessedLocals;
+  /**
+   * For loads and increments, the index of the previous one of the same local or -1 if none. For stores and increments,
+   * the same with the previous store or increment. {@link Integer#MAX_VALUE} for all other instructions.
+   */
+  protected final JumpIndex.RangeTree prevLocalReads;
+  protected final JumpIndex.RangeTree prevLocalWrites;
+  /** Loads, stores, and increments whose local type isn't known or is uninitialized */
+  protected final BitSet unknownLocalAccesses;
+  protected final Map<Object, Object> uninitializedTypes;
+  /** The index of the NEW instruction that created each uninitialized item */
+  protected final Map<Object, Integer> newIndexes = new HashMap<>();
+  /**
+   * For constructor calls, the index of the NEW instruction that created the object being initialized or -1 if it is
+   * not known (or is "this"). {@link Integer#MAX_VALUE} for all other instructions.
+   */
+  protected final JumpIndex.RangeTree initNewIndexes;
+
+  /**
+   * Same as {@link #FrameTable(int, String, MethodNode, Deadline)} with no deadline
+   *
+   * @param api Same as for {@link org.objectweb.asm.MethodVisitor#MethodVisitor(int)} or any other ASM class
+   * @param owner Internal name of the method's owner
+   * @param method The method to compute the state for
+   */
+  public FrameTable(int api, String owner, MethodNode method) { this(api, owner, method, Deadline.NONE); }
+
+  /**
+   * @param api Same as for {@link org.objectweb.asm.MethodVisitor#MethodVisitor(int)} or any other ASM class
+   * @param owner Internal name of the method's owner
+   * @param method The method to compute the state for
+   * @param deadline When to give up, checked before each pass and during them
+   * @throws Deadline.ExceededException If the deadline passes before the state is computed
+   */
+  public FrameTable(int api, String owner, MethodNode method, Deadline deadline) {
+    this.owner = owner;
+    AbstractInsnNode[] insns = method.instructions.toArray();
+    stacks = new Object[insns.length + 1][];
+    locals = new Object[insns.length + 1][];
+    lowestStackSizes = new int[insns.length];
+    fallsThrough = new BitSet(insns.length);
+    localTypes = new Object[insns.length];
+    // Try block start and end labels mapped to their blocks
+    Map<Label, List<TryCatchBlockNode>> tryCatchBlocksByStart = new HashMap<>();
+    Map<Label, List<TryCatchBlockNode>> tryCatchBlocksByEnd = new HashMap<>();
+    for (TryCatchBlockNode block : method.tryCatchBlocks) {
+      tryCatchBlocksByStart.computeIfAbsent(block.start.getLabel(), k -> new ArrayList<>()).add(block);
+      tryCatchBlocksByEnd.computeIfAbsent(block.end.getLabel(), k -> new ArrayList<>()).add(block);
+    }
+    // Labels jumped to without a frame after them, whose state is merged from everything that gets there
+    Set<Label> mergedLabels = new HashSet<>();
+    for (AbstractInsnNode insn : insns) {
+      for (LabelNode label : JumpIndex.jumpTargets(insn)) mergedLabels.add(label.getLabel());
+    }
+    for (TryCatchBlockNode block : method.tryCatchBlocks) mergedLabels.add(block.handler.getLabel());
+    for (int i = 0; i < insns.length; i++) {
+      if (!(insns[i] instanceof LabelNode)) continue;
+      for (int j = i + 1; j < insns.length && insns[j].getOpcode() == -1; j++) {
+        if (insns[j] instanceof FrameNode) mergedLabels.remove(((LabelNode) insns[i]).getLabel());
+      }
+    }
+    Map<Label, Object[][]> jumpStates = new HashMap<>();
+    int[] initNewIndexValues = new int[insns.length];
+    TrackingAdapter adapter;
+    do {
+      deadline.check();
+      adapter = new TrackingAdapter(api, owner, method, jumpStates, mergedLabels);
+      analyze(insns, adapter, tryCatchBlocksByStart, tryCatchBlocksByEnd, initNewIndexValues, deadline);
+    } while (adapter.passedStateChanged);
+    initNewIndexes = new JumpIndex.RangeTree(initNewIndexValues, false);
+    lowestStackSizeMins = new JumpIndex.RangeTree(lowestStackSizes, false);
+    // Link each local access to the previous one of the same local so the distinct locals in a range can be found
+    // without going over the whole range
+    accessedLocals = JumpIndex.filled(insns.length, -1);
+    int[] prevLocalReadValues = JumpIndex.filled(insns.length, Integer.MAX_VALUE);
+    int[] prevLocalWriteValues = JumpIndex.filled(insns.length, Integer.MAX_VALUE);
+    unknownLocalAccesses = new BitSet(insns.length);
+    Map<Integer, Integer> lastReads = new HashMap<>();
+    Map<Integer, Integer> lastWrites = new HashMap<>();
+    for (int i = 0; i < insns.length; i++) {
+      if (localTypes[i] == null) continue;
+      if (!isKnownItem(localTypes[i]) || isUninitializedItem(localTypes[i])) unknownLocalAccesses.set(i);
+      boolean increment = insns[i] instanceof IincInsnNode;
+      int var = increment ? ((IincInsnNode) insns[i]).var : ((VarInsnNode) insns[i]).var;
+      accessedLocals[i] = var;
+      if (increment || !isStoreOp(insns[i].getOpcode())) {
+        Integer prev = lastReads.put(var, i);
+        prevLocalReadValues[i] = prev == null ? -1 : prev;
+      }
+      if (increment || isStoreOp(insns[i].getOpcode())) {
+        Integer prev = lastWrites.put(var, i);
+        prevLocalWriteValues[i] = prev == null ? -1 : prev;
+      }
+    }
+    prevLocalReads = new JumpIndex.RangeTree(prevLocalReadValues, false);
+    prevLocalWrites = new JumpIndex.RangeTree(prevLocalWriteValues, false);
+    stacks[insns.length] = adapter.stack == null ? null : adapter.stack.toArray();
+    locals[insns.length] = adapter.locals == null ? null : adapter.locals.toArray();
+    uninitializedTypes = adapter.uninitializedTypes;
+  }
+
+  /** Go over the instructions once, recording the state before each one */
+  protected void analyze(AbstractInsnNode[] insns, TrackingAdapter adapter,
+      Map<Label, List<TryCatchBlockNode>> tryCatchBlocksByStart,
+      Map<Label, List<TryCatchBlockNode>> tryCatchBlocksByEnd, int[] initNewIndexValues, Deadline deadline) {
+    fallsThrough.clear();
+    newIndexes.clear();
+    // Blocks the current instruction is in whose handlers don't have a frame
+    List<TryCatchBlockNode> openBlocks = new ArrayList<>();
+    Object[] prevStack = null;
+    Object[] prevLocals = null;
+    for (int i = 0; i < insns.length; i++) {
+      deadline.check(i);
+      AbstractInsnNode insn = insns[i];
+      List<TryCatchBlockNode> started = null;
+      if (insn instanceof LabelNode) {
+        Label label = ((LabelNode) insn).getLabel();
+        adapter.mergeAt(label);
+        List<TryCatchBlockNode> ended = tryCatchBlocksByEnd.get(label);
+        if (ended != null) openBlocks.removeAll(ended);
+        started = tryCatchBlocksByStart.get(label);
+        if (started != null) {
+          for (TryCatchBlockNode block : started) {
+            if (adapter.mergedLabels.contains(block.handler.getLabel())) openBlocks.add(block);
+          }
+        }
+      }
+      // Record the stack, reusing the last array if it has not changed
+      if (adapter.stack == null) {
+        prevStack = null;
+      } else if (prevStack == null || !adapter.stack.equals(Arrays.asList(prevStack))) {
+        prevStack = adapter.stack.toArray();
+      }
+      stacks[i] = prevStack;
+      boolean localsChanged = false;
+      if (adapter.locals == null) {
+        prevLocals = null;
+      } else if (prevLocals == null ||
+          !sameLocals(insn instanceof LabelNode || i == 0 ? null : insns[i - 1], adapter.locals, prevLocals)) {
+        prevLocals = adapter.locals.toArray();
+        localsChanged = true;
+      }
+      locals[i] = prevLocals;
+      // Handlers are considered to be jumped to from anywhere in their blocks, so they get every locals state in them.
+      // Those with a frame only need one for before it, so they get the state at the start.
+      if (prevLocals != null && started != null) {
+        for (TryCatchBlockNode block : started) saveForHandler(adapter, block, prevLocals);
+      }
+      if (prevLocals != null && localsChanged) {
+        for (TryCatchBlockNode block : openBlocks) saveForHandler(adapter, block, prevLocals);
+      }
+      localTypes[i] = adapter.localTypeFor(insn);
+      adapter.lowestStackSize = prevStack == null ? Integer.MAX_VALUE : prevStack.length;
+      initNewIndexValues[i] = initNewIndexFor(insn, prevStack);
+      insn.accept(adapter);
+      lowestStackSizes[i] = adapter.lowestStackSize;
+      if (adapter.stack != null) {
+        fallsThrough.set(i);
+        if (insn.getOpcode() == Opcodes.NEW) newIndexes.put(adapter.stack.get(adapter.stack.size() - 1), i);
+      }
+    }
+  }
+
+  protected static void saveForHandler(TrackingAdapter adapter, TryCatchBlockNode block, Object[] localItems) {
+    adapter.save(block.handler.getLabel(), localItems,
+        new Object[] { block.type == null ? "java/lang/Throwable" : block.type });
+  }
+
+  /**
+   * Whether the locals are still the same as the previous ones after the given instruction. Only stores, constructor
+   * calls, and frames can change locals, and stores only the slots next to theirs, so methods with thousands of locals
+   * don't compare them all at every instruction. A null instruction (e.g. at a label the state may have been restored
+   * at) compares them all.
+   */
+  protected static boolean sameLocals(AbstractInsnNode prevInsn, List<Object> locals, Object[] prevLocals) {
+    if (locals.size() != prevLocals.length) return false;
+    if (prevInsn == null || prevInsn.getOpcode() == -1 || prevInsn.getOpcode() == Opcodes.INVOKESPECIAL) {
+      return locals.equals(Arrays.asList(prevLocals));
+    }
+    if (!isStoreOp(prevInsn.getOpcode())) return true;
+    // Stores can set the next slot to top for a long or double, or the previous if it was one
+    int var = ((VarInsnNode) prevInsn).var;
+    for (int i = Math.max(0, var - 1); i <= var + 1 && i < prevLocals.length; i++) {
+      if (!Objects.equals(locals.get(i), prevLocals[i])) return false;
+    }
+    return true;
+  }
+
+  protected int initNewIndexFor(AbstractInsnNode insn, Object[] stack) {
+    if (insn.getOpcode() != Opcodes.INVOKESPECIAL || !((MethodInsnNode) insn).name.equals("<init>")) {
+      return Integer.MAX_VALUE;
+    }
+    if (stack == null) return -1;
+    int receiverIndex = stack.length - (Type.getArgumentsAndReturnSizes(((MethodInsnNode) insn).desc) >> 2);
+    if (receiverIndex < 0) return -1;
+    Integer newIndex = newIndexes.get(stack[receiverIndex]);
+    return newIndex == null ? -1 : newIndex;
+  }
+
+  /** The number of instructions in the method */
+  public int size() { return lowestStackSizes.length; }
+
+  /** The stack before the instruction at the given index or null if unknown. Index can be the size for the end. */
+  public Object[] stackAt(int index) { return stacks[index]; }
+
+  /**
+   * The local at the given slot before the instruction at the given index, or null if unknown. Index can be the size
+   * for the end.
+   */
+  public Object localAt(int index, int var) {
+    Object[] itemsAt = locals[index];
+    return itemsAt == null || var >= itemsAt.length ? null : itemsAt[var];
+  }
+
+  /** The lowest stack size reached in the given inclusive range, or {@link Integer#MAX_VALUE} if unknown */
+  public int lowestStackSize(int startIndex, int endIndex) { return lowestStackSizeMins.min(startIndex, endIndex); }
+
+  /** Whether execution can continue from the instruction at the given index to the one after */
+  public boolean fallsThrough(int index) { return fallsThrough.get(index); }
+
+  /** The type of the local read or written by the instruction at the given index. See {@link #localTypes}. */
+  public Object localTypeAt(int index) { return localTypes[index]; }
+
+  /** The locals loaded or incremented in the given inclusive range, each once in order of their first access */
+  public List<Integer> localsReadIn(int startIndex, int endIndex) {
+    return firstAccessesIn(prevLocalReads, startIndex, endIndex);
+  }
+
+  /** The locals stored or incremented in the given inclusive range, each once in order of their first access */
+  public List<Integer> localsWrittenIn(int startIndex, int endIndex) {
+    return firstAccessesIn(prevLocalWrites, startIndex, endIndex);
+  }
+
+  /**
+   * The first load, store, or increment in the given inclusive range whose local type isn't known or is uninitialized,
+   * or -1 if none
+   */
+  public int firstUnknownLocalAccess(int startIndex, int endIndex) {
+    int index = unknownLocalAccesses.nextSetBit(startIndex);
+    return index != -1 && index <= endIndex ? index : -1;
+  }
+
+  protected List<Integer> firstAccessesIn(JumpIndex.RangeTree prevAccesses, int startIndex, int endIndex) {
+    List<Integer> ret = new ArrayList<>();
+    // The first access of each local in the range is the one whose previous access is before the range
+    for (int i = prevAccesses.firstBelow(startIndex, startIndex); i != -1 && i <= endIndex;
+        i = prevAccesses.firstBelow(i + 1, startIndex)) {
+      ret.add(accessedLocals[i]);
+    }
+    return ret;
+  }
+
+  /**
+   * The first constructor call at or after the given index that initializes an object not created at or after the
+   * given index (or "this"), or -1 if none
+   */
+  public int firstInitOfObjectCreatedBefore(int index) { return initNewIndexes.firstBelow(index, index); }
+
+  /**
+   * The lowest index of a NEW instruction in the given inclusive range whose object is still uninitialized on the
+   * stack after the range, or -1 if none
+   */
+  public int firstUninitializedCreatedIn(int startIndex, int endIndex) {
+    if (!fallsThrough(endIndex) || stacks[endIndex + 1] == null) return -1;
+    int ret = -1;
+    for (Object item : stacks[endIndex + 1]) {
+      Integer newIndex = newIndexes.get(item);
+      if (newIndex != null && newIndex >= startIndex && newIndex <= endIndex && (ret == -1 || newIndex < ret)) {
+        ret = newIndex;
+      }
+    }
+    return ret;
+  }
+
+  /** Whether the item is an object that has been created but not yet initialized (including "this") */
+  public boolean isUninitializedItem(Object item) {
+    return item == Opcodes.UNINITIALIZED_THIS || item instanceof Label;
+  }
+
+  /** Whether the item is a known stack/local item that {@link #typeFromItem(Object)} can convert */
+  public boolean isKnownItem(Object item) { return item != null && item != Opcodes.TOP; }
+
+  /** Whether the stack item at the given slot is known, i.e. not TOP unless it's the second slot of a long or double */
+  public boolean isKnownStackItem(Object[] stack, int index) {
+    return stack[index] != Opcodes.TOP ||
+        (index > 0 && (stack[index - 1] == Opcodes.LONG || stack[index - 1] == Opcodes.DOUBLE));
+  }
+
+  /** Convert the stack/local item to a type which is always int, float, long, double, or an object */
+  public Type typeFromItem(Object item) {
+    if (item == Opcodes.INTEGER) return Type.INT_TYPE;
+    else if (item == Opcodes.FLOAT) return Type.FLOAT_TYPE;
+    else if (item == Opcodes.LONG) return Type.LONG_TYPE;
+    else if (item == Opcodes.DOUBLE) return Type.DOUBLE_TYPE;
+    else if (item == Opcodes.NULL) return OBJECT_TYPE;
+    else if (item == Opcodes.UNINITIALIZED_THIS) return Type.getObjectType(owner);
+    else if (item instanceof Label) return Type.getObjectType((String) uninitializedTypes.get(item));
+    else if (item instanceof String) return Type.getObjectType((String) item);
+    else throw new IllegalStateException("Unrecognized stack item: " + item);
+  }
+
+  /** Convert stack items from the given slot on to types, skipping the extra slot for longs and doubles */
+  public List<Type> typesFromStack(Object[] stack, int start) {
+    List<Type> ret = new ArrayList<>();
+    for (int i = start; i < stack.length; i++) {
+      Object item = stack[i];
+      ret.add(typeFromItem(item));
+      // Jump an extra spot for longs and doubles
+      if (item == Opcodes.LONG || item == Opcodes.DOUBLE) {
+        if (stack[++i] != Opcodes.TOP) throw new IllegalStateException("Expected top after long/double");
+      }
+    }
+    return ret;
+  }
+
+  protected static class TrackingAdapter extends AnalyzerAdapter {
+    /** The locals and stack merged from everything that jumps to each label, kept across passes */
+    protected final Map<Label, Object[][]> jumpStates;
+    protected final Set<Label> mergedLabels;
+    protected final Set<Label> passedLabels = new HashSet<>();
+    public int lowestStackSize;
+    /** Whether the merged state of a label changed after it was passed, so another pass is needed */
+    public boolean passedStateChanged;
+
+    protected TrackingAdapter(int api, String owner, MethodNode method, Map<Label, Object[][]> jumpStates,
+        Set<Label> mergedLabels) {
+      super(api, owner, method.access, method.name, method.desc, null);
+      this.jumpStates = jumpStates;
+      this.mergedLabels = mergedLabels;
+      trackStack();
+    }
+
+    protected void trackStack() {
+      if (stack == null) return;
+      SizeChangeNotifyList<Object> tracked = new SizeChangeNotifyList<Object>() {
+        @Override
+        protected void onSizeChanged() { lowestStackSize = Math.min(lowestStackSize, size()); }
+      };
+      tracked.list.addAll(stack);
+      stack = tracked;
+    }
+
+    protected Object localTypeFor(AbstractInsnNode insn) {
+      if (locals == null) return null;
+      if (insn instanceof IincInsnNode) return Opcodes.INTEGER;
+      if (!(insn instanceof VarInsnNode)) return null;
+      int var = ((VarInsnNode) insn).var;
+      switch (insn.getOpcode()) {
+        case Opcodes.ILOAD:
+        case Opcodes.LLOAD:
+        case Opcodes.FLOAD:
+        case Opcodes.DLOAD:
+        case Opcodes.ALOAD:
+          return var < locals.size() ? locals.get(var) : Opcodes.TOP;
+        case Opcodes.ISTORE:
+        case Opcodes.FSTORE:
+        case Opcodes.ASTORE:
+          return stack.get(stack.size() - 1);
+        case Opcodes.LSTORE:
+        case Opcodes.DSTORE:
+          return stack.get(stack.size() - 2);
+        default:
+          return null;
+      }
+    }
+
+    /**
+     * Take the state at the label, merged from the previous instruction and everything that jumped here. Labels with a
+     * frame or that nothing jumps to keep the previous instruction's state, or if unreachable the first one that jumped
+     * here, until the frame.
+     */
+    protected void mergeAt(Label label) {
+      if (!mergedLabels.contains(label)) {
+        if (locals == null) restore(label);
+        return;
+      }
+      if (locals != null) save(label, locals.toArray(), stack.toArray());
+      passedLabels.add(label);
+      restore(label);
+    }
+
+    /** Merge the given state into the one saved for the label */
+    protected void save(Label label, Object[] localItems, Object[] stackItems) {
+      Object[][] prev = jumpStates.get(label);
+      Object[][] state = prev == null ? new Object[][] { localItems, stackItems } :
+          new Object[][] { mergedItems(prev[0], localItems), mergedItems(prev[1], stackItems) };
+      if (prev != null && Arrays.equals(prev[0], state[0]) && Arrays.equals(prev[1], state[1])) return;
+      jumpStates.put(label, state);
+      if (passedLabels.contains(label)) passedStateChanged = true;
+    }
+
+    protected void saveForJump(Label label, int popCount) {
+      if (stack == null) return;
+      save(label, locals.toArray(), stack.subList(0, stack.size() - popCount).toArray());
+    }
+
+    protected void restore(Label label) {
+      Object[][] state = jumpStates.get(label);
+      if (state == null) return;
+      locals = new ArrayList<>(Arrays.asList(state[0]));
+      stack = new ArrayList<>(Arrays.asList(state[1]));
+      trackStack();
+    }
+
+    /** Items merged by slot, TOP where they differ unless one is null and the other a reference */
+    protected static Object[] mergedItems(Object[] first, Object[] second) {
+      Object[] ret = new Object[Math.max(first.length, second.length)];
+      for (int i = 0; i < ret.length; i++) {
+        Object firstItem = i < first.length ? first[i] : Opcodes.TOP;
+        Object secondItem = i < second.length ? second[i] : Opcodes.TOP;
+        if (Objects.equals(firstItem, secondItem)) ret[i] = firstItem;
+        else if (firstItem == Opcodes.NULL && secondItem instanceof String) ret[i] = secondItem;
+        else if (secondItem == Opcodes.NULL && firstItem instanceof String) ret[i] = firstItem;
+        else ret[i] = Opcodes.TOP;
+      }
+      return ret;
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+      // An element of an array that isn't known isn't known either
+      boolean unknownArray = opcode == Opcodes.AALOAD && stack != null && stack.get(stack.size() - 2) == Opcodes.TOP;
+      super.visitInsn(opcode);
+      if (unknownArray) stack.set(stack.size() - 1, Opcodes.TOP);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+      // Initializing an object that isn't known leaves its other copies unknown instead of replacing every TOP
+      if (opcode == Opcodes.INVOKESPECIAL && name.equals("<init>") && stack != null) {
+        int receiverIndex = stack.size() - (Type.getArgumentsAndReturnSizes(desc) >> 2);
+        if (receiverIndex >= 0 && stack.get(receiverIndex) == Opcodes.TOP) stack.set(receiverIndex, new Object());
+      }
+      super.visitMethodInsn(opcode, owner, name, desc, itf);
+    }
+
+    @Override
+    public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+      // Replacing the stack is not considered as reaching a lower size
+      int lowest = lowestStackSize;
+      boolean wasUnreachable = this.stack == null;
+      super.visitFrame(type, nLocal, local, nStack, stack);
+      if (wasUnreachable) trackStack();
+      lowestStackSize = Math.min(lowest, this.stack.size());
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+      switch (opcode) {
+        case Opcodes.GOTO:
+          saveForJump(label, 0);
+          break;
+        case Opcodes.JSR:
+          // Not supported by the analyzer
+          break;
+        case Opcodes.IFNULL:
+        case Opcodes.IFNONNULL:
+        case Opcodes.IFEQ:
+        case Opcodes.IFNE:
+        case Opcodes.IFLT:
+        case Opcodes.IFGE:
+        case Opcodes.IFGT:
+        case Opcodes.IFLE:
+          saveForJump(label, 1);
+          break;
+        default:
+          saveForJump(label, 2);
+      }
+      super.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+      saveForJump(dflt, 1);
+      for (Label label : labels) saveForJump(label, 1);
+      super.visitTableSwitchInsn(min, max, dflt, labels);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+      saveForJump(dflt, 1);
+      for (Label label : labels) saveForJump(label, 1);
+      super.visitLookupSwitchInsn(dflt, keys, labels);
+    }
+  }
+
+  protected static class SizeChangeNotifyList<T> extends AbstractList<T> {
+    protected final ArrayList<T> list = new ArrayList<>();
+
+    protected void onSizeChanged() { }
+
+    @Override
+    public T get(int index) { return list.get(index); }
+
+    @Override
+    public int size() { return list.size(); }
+
+    @Override
+    public T set(int index, T element) { return list.set(index, element); }
+
+    @Override
+    public void add(int index, T element) {
+      list.add(index, element);
+      onSizeChanged();
+    }
+
+    @Override
+    public T remove(int index) {
+      T ret = list.remove(index);
+      onSizeChanged();
+      return ret;
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package msplit;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.*;
+
+/**
+ * Rewrites a jar, splitting every method with more than a maximum number of bytes of code. Classes are checked and
+ * split in parallel on a {@link ForkJoinPool}, and the output jar has all entries in the same order as the input.
+ * Each class is first checked with {@link SplittingClassVisitor#methodsOver(ClassReader, int)} which doesn't parse it,
+ * so only classes with methods that are too large are parsed and written again. Entries keep their compression method,
+ * and stored ones their size and CRC. A rewritten class no longer matches a jar signature, so if the jar is signed and
+ * any class has a method that is too large, the signature files ({@code META-INF/*.SF}, {@code *.RSA}, {@code *.DSA},
+ * and {@code *.EC}) are left out and the output jar is unsigned. Since those come before the classes, a signed jar's
+ * classes are all checked on the pool first and only the ones over are split after.
+ * <p>
+ * Run from the command line with: {@code msplit.JarSplitter <in.jar> <out.jar> [maxBytes [threads]]}. The max bytes
+ * defaults to {@link SplitMethod#MAX_CODE_SIZE}, use {@link SplitMethod#HUGE_METHOD_LIMIT} to have the methods JIT
+ * compiled, and the threads default to the number of processors. A class that can't be read or split to fit is left
+ * as is and reported in the summary.
+ */
+public class JarSplitter {
+  protected final int api;
+  protected final int maxBytes;
+  protected final ForkJoinPool pool;
+  /** How many classes can be read or split ahead of the one being written, so they aren't all in memory at once */
+  protected final int maxClassesInFlight;
+
+  /**
+   * @param api Same as for {@link org.objectweb.asm.ClassVisitor#ClassVisitor(int)}
+   * @param maxBytes The maximum number of bytes of code each method can have
+   * @param pool The pool to check and split the classes on
+   */
+  public JarSplitter(int api, int maxBytes, ForkJoinPool pool) {
+    this.api = api;
+    this.maxBytes = maxBytes;
+    this.pool = pool;
+    maxClassesInFlight = pool.getParallelism() * 4;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2 || args.length > 4) {
+      System.err.println("Usage: msplit.JarSplitter <in.jar> <out.jar> [maxBytes [threads]]");
+      System.exit(1);
+    }
+    int maxBytes = args.length > 2 ? Integer.parseInt(args[2]) : SplitMethod.MAX_CODE_SIZE;
+    ForkJoinPool pool = args.length > 3 ? new ForkJoinPool(Integer.parseInt(args[3])) : ForkJoinPool.commonPool();
+    long start = System.nanoTime();
+    Summary summary = new JarSplitter(Opcodes.ASM6, maxBytes, pool).split(Paths.get(args[0]), Paths.get(args[1]));
+    System.out.println(summary + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+    for (String failed : summary.failedClasses) System.out.println("Unable to split " + failed);
+  }
+
+  /** Split the classes in the given jar and write them, and every other entry, to the output jar */
+  public Summary split(Path in, Path out) throws IOException {
+    Summary summary = new Summary();
+    try (ZipFile zip = new ZipFile(in.toFile())) {
+      // Classes are started on the pool ahead of being written, everything else is copied as it's written
+      List<? extends ZipEntry> entries = Collections.list(zip.entries());
+      // Signature files come before the classes, so for a signed jar which classes are over is found up front and
+      // only those are split after
+      Boolean[] over = entries.stream().anyMatch(JarSplitter::isSignatureFile) ? classesOver(zip, entries) : null;
+      boolean dropSignatureFiles = over != null && Arrays.asList(over).contains(Boolean.TRUE);
+      List<ForkJoinTask<ClassResult>> results = new ArrayList<>(Collections.nCopies(entries.size(), null));
+      int nextToStart = 0;
+      int inFlight = 0;
+      // Write in order, waiting on each class if it's not done
+      try (ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(out)))) {
+        for (int i = 0; i < entries.size(); i++) {
+          for (; nextToStart < entries.size() && inFlight < maxClassesInFlight; nextToStart++) {
+            ZipEntry toStart = entries.get(nextToStart);
+            if (!isClass(toStart) || (over != null && Boolean.FALSE.equals(over[nextToStart]))) continue;
+            results.set(nextToStart, pool.submit(() -> splitClass(zip, toStart)));
+            inFlight++;
+          }
+          ZipEntry entry = entries.get(i);
+          if (dropSignatureFiles && isSignatureFile(entry)) {
+            summary.droppedSignatureFileCount++;
+            continue;
+          }
+          ZipEntry outEntry = new ZipEntry(entry.getName());
+          outEntry.setTime(entry.getTime());
+          outEntry.setMethod(entry.getMethod());
+          if (entry.getExtra() != null) outEntry.setExtra(entry.getExtra());
+          if (entry.getComment() != null) outEntry.setComment(entry.getComment());
+          if (results.get(i) == null) {
+            // Stored entries have to have their size and CRC before they're written
+            if (entry.getMethod() == ZipEntry.STORED) {
+              outEntry.setSize(entry.getSize());
+              outEntry.setCompressedSize(entry.getSize());
+              outEntry.setCrc(entry.getCrc());
+            }
+            zipOut.putNextEntry(outEntry);
+            try (InputStream entryIn = zip.getInputStream(entry)) { copy(entryIn, zipOut); }
+            // A class already checked and left as is
+            if (over != null && Boolean.FALSE.equals(over[i])) summary.classCount++;
+          } else {
+            ClassResult result = results.get(i).join();
+            if (entry.getMethod() == ZipEntry.STORED) {
+              CRC32 crc = new CRC32();
+              crc.update(result.bytes);
+              outEntry.setSize(result.bytes.length);
+              outEntry.setCompressedSize(result.bytes.length);
+              outEntry.setCrc(crc.getValue());
+            }
+            zipOut.putNextEntry(outEntry);
+            zipOut.write(result.bytes);
+            summary.add(entry.getName(), result);
+            inFlight--;
+          }
+          zipOut.closeEntry();
+          // Let it be collected
+          results.set(i, null);
+        }
+      }
+    }
+    return summary;
+  }
+
+  /**
+   * Check the class and split it if needed. A class that fails, e.g. because it's malformed or can't be split to fit,
+   * is left as is and marked failed so the rest of the jar still gets done.
+   */
+  protected ClassResult splitClass(ZipFile zip, ZipEntry entry) throws IOException {
+    byte[] bytes;
+    try (InputStream entryIn = zip.getInputStream(entry)) { bytes = readAll(entryIn); }
+    try {
+      ClassReader reader = new ClassReader(bytes);
+      Set<String> methodsOver = SplittingClassVisitor.methodsOver(reader, maxBytes);
+      if (methodsOver.isEmpty()) return new ClassResult(bytes, 0, 0, false);
+      // Frames and maxs are emitted by the split, so nothing has to be computed (which would need the class hierarchy)
+      ClassWriter writer = new ClassWriter(0);
+      SplittingClassVisitor visitor = new SplittingClassVisitor(api, writer, maxBytes, methodsOver);
+      reader.accept(visitor, ClassReader.EXPAND_FRAMES);
+      return new ClassResult(writer.toByteArray(), visitor.getSplitMethodCount(), visitor.getSplitOffMethodCount(),
+          false);
+    } catch (RuntimeException | LinkageError e) {
+      return new ClassResult(bytes, 0, 0, true);
+    }
+  }
+
+  /**
+   * For each entry, whether it's a class with a method over the max bytes, checked on the pool the same way as before
+   * splitting it, without parsing it. Null for entries that aren't classes or can't be read, the latter are left for
+   * {@link #splitClass(ZipFile, ZipEntry)} to mark failed.
+   */
+  protected Boolean[] classesOver(ZipFile zip, List<? extends ZipEntry> entries) throws IOException {
+    Boolean[] ret = new Boolean[entries.size()];
+    try {
+      pool.invoke(new Splitter.IndexTask(ret, 0, 0, ret.length, i -> {
+        ZipEntry entry = entries.get(i);
+        if (!isClass(entry)) return null;
+        try (InputStream entryIn = zip.getInputStream(entry)) {
+          return !SplittingClassVisitor.methodsOver(new ClassReader(readAll(entryIn)), maxBytes).isEmpty();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        } catch (RuntimeException | LinkageError e) {
+          return null;
+        }
+      }));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return ret;
+  }
+
+  /** Whether the entry is a signature file of a signed jar, i.e. directly in META-INF with a signature extension */
+  protected static boolean isSignatureFile(ZipEntry entry) {
+    String name = entry.getName().toUpperCase(Locale.ROOT);
+    if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) != -1) return false;
+    return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC");
+  }
+
+  protected static boolean isClass(ZipEntry entry) {
+    return !entry.isDirectory() && entry.getName().endsWith(".class");
+  }
+
+  protected static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    copy(in, out);
+    return out.toByteArray();
+  }
+
+  protected static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buf = new byte[8192];
+    int read;
+    while ((read = in.read(buf)) != -1) out.write(buf, 0, read);
+  }
+
+  /** The bytes to write for a class and what was done to it */
+  protected static class ClassResult {
+    public final byte[] bytes;
+    public final int splitMethodCount;
+    public final int splitOffMethodCount;
+    public final boolean failed;
+
+    public ClassResult(byte[] bytes, int splitMethodCount, int splitOffMethodCount, boolean failed) {
+      this.bytes = bytes;
+      this.splitMethodCount = splitMethodCount;
+      this.splitOffMethodCount = splitOffMethodCount;
+      this.failed = failed;
+    }
+  }
+
+  /** What was done to the classes of a jar */
+  public static class Summary {
+    /** The number of classes checked */
+    public int classCount;
+    /** The number of classes written again with split methods */
+    public int rewrittenClassCount;
+    /** The number of methods that were split */
+    public int splitMethodCount;
+    /** The number of methods split off of the split methods */
+    public int splitOffMethodCount;
+    /** The entry names of the classes that couldn't be read or had methods that couldn't be split to fit, left as is */
+    public final List<String> failedClasses = new ArrayList<>();
+    /** The number of signature files left out because classes of the signed jar were going to be rewritten */
+    public int droppedSignatureFileCount;
+
+    protected void add(String entryName, ClassResult result) {
+      classCount++;
+      if (result.splitMethodCount > 0) rewrittenClassCount++;
+      splitMethodCount += result.splitMethodCount;
+      splitOffMethodCount += result.splitOffMethodCount;
+      if (result.failed) failedClasses.add(entryName);
+    }
+
+    @Override
+    public String toString() {
+      return "Checked " + classCount + " classes, rewrote " + rewrittenClassCount + " classes, split " +
+          splitMethodCount + " methods into " + splitOffMethodCount + " more, " + failedClasses.size() + " failed" +
+          (droppedSignatureFileCount > 0 ? ", dropped " + droppedSignatureFileCount + " signature files" : "");
+    }
+  }
+}
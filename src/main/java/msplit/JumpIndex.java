@@ -0,0 +1,287 @@
+package msplit;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+/**
+ * Index of a method's jumps, switches and try/catch blocks, built once so that {@link Splitter} can constrain the end
+ * of a split range with logarithmic queries instead of walking every instruction or block for each start index.
+ * <p>
+ * Jumps and switches are kept as the lowest and highest target of each source instruction and the lowest and highest
+ * source of each target instruction. Try/catch blocks are kept sorted by start with range trees over their ends and
+ * handlers. A try/catch block is also considered a jump from its start and its end to its handler, so a handler can
+ * only be in a range with the whole block, and a return is considered a jump out of any range.
+ */
+public class JumpIndex {
+  protected static final int[] NO_BLOCKS = new int[0];
+
+  protected final AbstractInsnNode[] insns;
+  protected final Map<LabelNode, Integer> labelIndexes = new IdentityHashMap<>();
+  /** Lowest/highest target for each source index */
+  protected final RangeTree targetMins;
+  protected final RangeTree targetMaxes;
+  /** Lowest/highest source for each target index */
+  protected final RangeTree sourceMins;
+  protected final RangeTree sourceMaxes;
+  /** Try/catch block indexes, all sorted by start. Block end is the index of the end label. */
+  protected final int[] tryStarts;
+  protected final int[] tryEnds;
+  protected final int[] tryHandlers;
+  protected final RangeTree tryEndMaxes;
+  protected final RangeTree tryHandlerMins;
+  protected final RangeTree tryHandlerMaxes;
+  /** For each index, the lowest end label index of all blocks that start before it and end at or after it */
+  protected final int[] coveringTryEndMins;
+
+  /** @param method The method to index */
+  public JumpIndex(MethodNode method) {
+    insns = method.instructions.toArray();
+    for (int i = 0; i < insns.length; i++) {
+      if (insns[i] instanceof LabelNode) labelIndexes.put((LabelNode) insns[i], i);
+    }
+    // Jumps and switches
+    int[] targetMinValues = filled(insns.length, Integer.MAX_VALUE);
+    int[] targetMaxValues = filled(insns.length, -1);
+    int[] sourceMinValues = filled(insns.length, Integer.MAX_VALUE);
+    int[] sourceMaxValues = filled(insns.length, -1);
+    for (int i = 0; i < insns.length; i++) {
+      for (LabelNode label : jumpTargets(insns[i])) {
+        int target = indexOf(label);
+        targetMinValues[i] = Math.min(targetMinValues[i], target);
+        targetMaxValues[i] = Math.max(targetMaxValues[i], target);
+        sourceMinValues[target] = Math.min(sourceMinValues[target], i);
+        sourceMaxValues[target] = Math.max(sourceMaxValues[target], i);
+      }
+      // Returns leave the method, so they are considered a jump out of any range
+      if (insns[i].getOpcode() >= Opcodes.IRETURN && insns[i].getOpcode() <= Opcodes.RETURN) {
+        targetMaxValues[i] = Integer.MAX_VALUE;
+      }
+    }
+    // Try/catch blocks, sorted by start
+    List<TryCatchBlockNode> blocks = new ArrayList<>(method.tryCatchBlocks);
+    blocks.sort(Comparator.comparingInt(block -> indexOf(block.start)));
+    tryStarts = new int[blocks.size()];
+    tryEnds = new int[blocks.size()];
+    tryHandlers = new int[blocks.size()];
+    for (int i = 0; i < blocks.size(); i++) {
+      TryCatchBlockNode block = blocks.get(i);
+      tryStarts[i] = indexOf(block.start);
+      tryEnds[i] = indexOf(block.end);
+      tryHandlers[i] = indexOf(block.handler);
+      // Handlers are jumped to from anywhere in the block
+      sourceMinValues[tryHandlers[i]] = Math.min(sourceMinValues[tryHandlers[i]], tryStarts[i]);
+      sourceMaxValues[tryHandlers[i]] = Math.max(sourceMaxValues[tryHandlers[i]], tryEnds[i]);
+    }
+    targetMins = new RangeTree(targetMinValues, false);
+    targetMaxes = new RangeTree(targetMaxValues, true);
+    sourceMins = new RangeTree(sourceMinValues, false);
+    sourceMaxes = new RangeTree(sourceMaxValues, true);
+    tryEndMaxes = new RangeTree(tryEnds, true);
+    tryHandlerMins = new RangeTree(tryHandlers, false);
+    tryHandlerMaxes = new RangeTree(tryHandlers, true);
+    // Sweep to find the nearest end of the blocks covering each index
+    coveringTryEndMins = filled(insns.length, Integer.MAX_VALUE);
+    PriorityQueue<Integer> openEnds = new PriorityQueue<>();
+    int nextBlock = 0;
+    for (int i = 0; i < insns.length; i++) {
+      while (nextBlock < tryStarts.length && tryStarts[nextBlock] < i) openEnds.add(tryEnds[nextBlock++]);
+      while (!openEnds.isEmpty() && openEnds.peek() < i) openEnds.poll();
+      if (!openEnds.isEmpty()) coveringTryEndMins[i] = openEnds.peek();
+    }
+  }
+
+  /** The index of the given label in the method */
+  public int indexOf(LabelNode label) {
+    Integer index = labelIndexes.get(label);
+    if (index == null) throw new IllegalArgumentException("Label not in method");
+    return index;
+  }
+
+  /**
+   * The first jump or switch at or after startIndex and at or before endIndex that targets any index outside of the
+   * range, or -1 if none
+   */
+  public int firstJumpOut(int startIndex, int endIndex) {
+    return firstInRange(startIndex, endIndex, targetMins.firstBelow(startIndex, startIndex),
+        targetMaxes.firstAbove(startIndex, endIndex));
+  }
+
+  /**
+   * The first jump or switch at or after startIndex and at or before endIndex that targets any index before startIndex,
+   * or -1 if none. Unlike {@link #firstJumpOut(int, int)}, returns are not included.
+   */
+  public int firstJumpBack(int startIndex, int endIndex) {
+    return firstInRange(startIndex, endIndex, targetMins.firstBelow(startIndex, startIndex), -1);
+  }
+
+  /**
+   * The first index at or after startIndex and at or before endIndex that is targeted by a jump, switch, or try/catch
+   * block from outside the range, or -1 if none
+   */
+  public int firstJumpIn(int startIndex, int endIndex) {
+    return firstInRange(startIndex, endIndex, sourceMins.firstBelow(startIndex, startIndex),
+        sourceMaxes.firstAbove(startIndex, endIndex));
+  }
+
+  /**
+   * The start index of the first try/catch block that starts in the range but either ends outside of it or has a
+   * handler outside of it, or -1 if none. The end label of the block must be in the range to be considered inside.
+   */
+  public int firstTryCatchBlockNotContained(int startIndex, int endIndex) {
+    int block = firstTryCatchBlockNotContainedFrom(firstTryCatchBlockAtOrAfter(startIndex), startIndex, endIndex);
+    return block == -1 || tryStarts[block] > endIndex ? -1 : tryStarts[block];
+  }
+
+  /**
+   * The lowest end label index of all try/catch blocks that start before the given index and end at or after it, or
+   * {@link Integer#MAX_VALUE} if there are none
+   */
+  public int coveringTryCatchBlockEnd(int index) { return coveringTryEndMins[index]; }
+
+  /**
+   * The try/catch blocks that cover any of the inclusive range without being wholly inside it with their handler, as
+   * indexes for {@link #tryStart(int)}, {@link #tryEnd(int)}, and {@link #tryHandler(int)} in order of start. Each one
+   * is found with the range trees, so blocks wholly before or inside the range aren't visited.
+   */
+  public int[] tryCatchBlocksCrossing(int startIndex, int endIndex) {
+    int[] ret = NO_BLOCKS;
+    int size = 0;
+    // Blocks starting before the range cross it if they end in or after it
+    int inside = firstTryCatchBlockAtOrAfter(startIndex);
+    for (int i = tryEndMaxes.firstAbove(0, startIndex); i != -1 && i < inside;
+        i = tryEndMaxes.firstAbove(i + 1, startIndex)) {
+      if (size == ret.length) ret = Arrays.copyOf(ret, Math.max(4, size * 2));
+      ret[size++] = i;
+    }
+    // Blocks starting in the range cross it if they end after it or their handler is outside it
+    int after = firstTryCatchBlockAtOrAfter(endIndex + 1);
+    for (int i = firstTryCatchBlockNotContainedFrom(inside, startIndex, endIndex); i != -1 && i < after;
+        i = firstTryCatchBlockNotContainedFrom(i + 1, startIndex, endIndex)) {
+      if (size == ret.length) ret = Arrays.copyOf(ret, Math.max(4, size * 2));
+      ret[size++] = i;
+    }
+    return size == ret.length ? ret : Arrays.copyOf(ret, size);
+  }
+
+  /** The start label index of the try/catch block, by start order */
+  public int tryStart(int block) { return tryStarts[block]; }
+
+  /** The end label index of the try/catch block, by start order */
+  public int tryEnd(int block) { return tryEnds[block]; }
+
+  /** The handler label index of the try/catch block, by start order */
+  public int tryHandler(int block) { return tryHandlers[block]; }
+
+  /** Whether the index is targeted by a jump, switch, or try/catch block */
+  public boolean isTarget(int index) { return sourceMins.firstBelow(index, Integer.MAX_VALUE) == index; }
+
+  /** Whether the instruction at the index is a jump, switch, or return */
+  public boolean isJump(int index) { return targetMaxes.firstAbove(index, -1) == index; }
+
+  /** The first block, by start order, at or after the given one that ends after or has a handler outside the range */
+  protected int firstTryCatchBlockNotContainedFrom(int block, int startIndex, int endIndex) {
+    return firstOf(tryEndMaxes.firstAbove(block, endIndex), tryHandlerMins.firstBelow(block, startIndex),
+        tryHandlerMaxes.firstAbove(block, endIndex));
+  }
+
+  protected int firstTryCatchBlockAtOrAfter(int index) {
+    int lo = 0;
+    int hi = tryStarts.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (tryStarts[mid] < index) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
+  }
+
+  protected static int firstInRange(int startIndex, int endIndex, int first, int second) {
+    int index = firstOf(first, second);
+    return index >= startIndex && index <= endIndex ? index : -1;
+  }
+
+  protected static int firstOf(int... indexes) {
+    int ret = -1;
+    for (int index : indexes) if (index != -1 && (ret == -1 || index < ret)) ret = index;
+    return ret;
+  }
+
+  protected static int[] filled(int size, int value) {
+    int[] ret = new int[size];
+    Arrays.fill(ret, value);
+    return ret;
+  }
+
+  /** All labels the given instruction can jump to, empty if it's not a jump or switch */
+  static List<LabelNode> jumpTargets(AbstractInsnNode node) {
+    if (node instanceof JumpInsnNode) return Collections.singletonList(((JumpInsnNode) node).label);
+    if (node instanceof TableSwitchInsnNode) {
+      List<LabelNode> ret = new ArrayList<>(((TableSwitchInsnNode) node).labels);
+      ret.add(((TableSwitchInsnNode) node).dflt);
+      return ret;
+    }
+    if (node instanceof LookupSwitchInsnNode) {
+      List<LabelNode> ret = new ArrayList<>(((LookupSwitchInsnNode) node).labels);
+      ret.add(((LookupSwitchInsnNode) node).dflt);
+      return ret;
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Segment tree that finds the first index from a point on whose value is below (or above) a bound, or the lowest
+   * value in a range
+   */
+  protected static class RangeTree {
+    protected final boolean max;
+    protected final int leafCount;
+    // Values are negated for max trees so everything below is a min search
+    protected final int[] tree;
+
+    protected RangeTree(int[] values, boolean max) {
+      this.max = max;
+      int leafCount = 1;
+      while (leafCount < values.length) leafCount <<= 1;
+      this.leafCount = leafCount;
+      tree = new int[leafCount * 2];
+      Arrays.fill(tree, Integer.MAX_VALUE);
+      for (int i = 0; i < values.length; i++) tree[leafCount + i] = max ? -values[i] : values[i];
+      for (int i = leafCount - 1; i > 0; i--) tree[i] = Math.min(tree[i * 2], tree[i * 2 + 1]);
+    }
+
+    /** The first index at or after the given one with a value below the bound, or -1. Only for min trees. */
+    protected int firstBelow(int from, int bound) {
+      if (max) throw new IllegalStateException("Not a min tree");
+      return first(1, 0, leafCount - 1, from, bound);
+    }
+
+    /** The first index at or after the given one with a value above the bound, or -1. Only for max trees. */
+    protected int firstAbove(int from, int bound) {
+      if (!max) throw new IllegalStateException("Not a max tree");
+      return first(1, 0, leafCount - 1, from, -bound);
+    }
+
+    /** The lowest value from one index to the other inclusive, or {@link Integer#MAX_VALUE}. Only for min trees. */
+    protected int min(int from, int to) {
+      if (max) throw new IllegalStateException("Not a min tree");
+      return min(1, 0, leafCount - 1, from, to);
+    }
+
+    protected int min(int node, int lo, int hi, int from, int to) {
+      if (hi < from || lo > to) return Integer.MAX_VALUE;
+      if (lo >= from && hi <= to) return tree[node];
+      int mid = (lo + hi) >>> 1;
+      return Math.min(min(node * 2, lo, mid, from, to), min(node * 2 + 1, mid + 1, hi, from, to));
+    }
+
+    protected int first(int node, int lo, int hi, int from, int bound) {
+      if (hi < from || tree[node] >= bound) return -1;
+      if (lo == hi) return lo;
+      int mid = (lo + hi) >>> 1;
+      int ret = first(node * 2, lo, mid, from, bound);
+      return ret != -1 ? ret : first(node * 2 + 1, mid + 1, hi, from, bound);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package msplit;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.*;
+
+import static msplit.Util.*;
+
+/**
+ * Which locals are live before each instruction of a method, i.e. may be read before they are written again on some
+ * path from there. Computed once with a backward data flow pass over the instructions repeated until nothing changes.
+ * Jumps, switches, and falling through are normal successors, and the handler of every try/catch block covering an
+ * instruction is also considered a successor. Locals are by their first slot, same as {@link Splitter.SplitPoint}.
+ */
+public class Liveness {
+  /** Live locals before each instruction. Has one extra empty entry for the end. Equal neighbors share an instance. */
+  protected final BitSet[] liveIn;
+
+  /** Same as {@link #Liveness(MethodNode, Deadline)} with no deadline */
+  public Liveness(MethodNode method) { this(method, Deadline.NONE); }
+
+  /**
+   * @param method The method to compute liveness for
+   * @param deadline When to give up, checked before each pass and during them
+   * @throws Deadline.ExceededException If the deadline passes before liveness is computed
+   */
+  public Liveness(MethodNode method, Deadline deadline) {
+    AbstractInsnNode[] insns = method.instructions.toArray();
+    Map<LabelNode, Integer> labelIndexes = new IdentityHashMap<>();
+    for (int i = 0; i < insns.length; i++) {
+      if (insns[i] instanceof LabelNode) labelIndexes.put((LabelNode) insns[i], i);
+    }
+    int[][] successors = new int[insns.length][];
+    for (int i = 0; i < insns.length; i++) successors[i] = successors(insns, i, labelIndexes);
+    // Every instruction a try/catch block covers has its handler as a successor. Instead of going over every handler
+    // at every instruction, which is quadratic for deeply nested blocks, each block's handler is added to a running
+    // set when going back past its last instruction and removed after its first.
+    TryBlocks blocks = new TryBlocks(method, labelIndexes);
+    liveIn = new BitSet[insns.length + 1];
+    for (int i = 0; i < liveIn.length; i++) liveIn[i] = new BitSet();
+    // Going backwards means straight line code is done in one pass, only loops need more
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = insns.length - 1; i >= 0; i--) {
+        deadline.check(i);
+        blocks.enter(i, liveIn);
+        BitSet live = new BitSet();
+        for (int successor : successors[i]) live.or(liveIn[successor]);
+        live.or(blocks.handlersLive);
+        applyInsn(insns[i], live);
+        if (!live.equals(liveIn[i])) {
+          liveIn[i] = live;
+          changed = true;
+        }
+        blocks.leave(i);
+      }
+    }
+    // Share equal sets, most instructions don't touch locals
+    for (int i = insns.length - 1; i >= 0; i--) if (liveIn[i].equals(liveIn[i + 1])) liveIn[i] = liveIn[i + 1];
+  }
+
+  /**
+   * Whether the local at the given slot is live before the instruction at the given index. Index can be the
+   * instruction count for the end where nothing is live.
+   */
+  public boolean isLive(int index, int var) { return liveIn[index].get(var); }
+
+  /** Change the set of live locals after the instruction to the set before it */
+  protected static void applyInsn(AbstractInsnNode insn, BitSet live) {
+    if (insn instanceof IincInsnNode) {
+      live.set(((IincInsnNode) insn).var);
+    } else if (insn instanceof VarInsnNode) {
+      if (isStoreOp(insn.getOpcode())) live.clear(((VarInsnNode) insn).var);
+      else live.set(((VarInsnNode) insn).var);
+    }
+  }
+
+  protected static int[] successors(AbstractInsnNode[] insns, int index, Map<LabelNode, Integer> labelIndexes) {
+    AbstractInsnNode insn = insns[index];
+    List<LabelNode> targets = JumpIndex.jumpTargets(insn);
+    boolean fallsThrough;
+    switch (insn.getOpcode()) {
+      case Opcodes.GOTO:
+      case Opcodes.TABLESWITCH:
+      case Opcodes.LOOKUPSWITCH:
+      case Opcodes.IRETURN:
+      case Opcodes.LRETURN:
+      case Opcodes.FRETURN:
+      case Opcodes.DRETURN:
+      case Opcodes.ARETURN:
+      case Opcodes.RETURN:
+      case Opcodes.ATHROW:
+      case Opcodes.RET:
+        fallsThrough = false;
+        break;
+      default:
+        fallsThrough = index + 1 < insns.length;
+    }
+    int[] ret = new int[targets.size() + (fallsThrough ? 1 : 0)];
+    for (int i = 0; i < targets.size(); i++) ret[i] = labelIndexes.get(targets.get(i));
+    if (fallsThrough) ret[ret.length - 1] = index + 1;
+    return ret;
+  }
+
+  /**
+   * The locals live at the handlers of the try/catch blocks covering an instruction, kept up to date going backwards
+   * over the instructions. Each local has a count of how many of the covering handlers it's live at.
+   */
+  protected static class TryBlocks {
+    /** Block indexes by the last instruction index they cover */
+    protected final Map<Integer, List<Integer>> blocksByLast = new HashMap<>();
+    /** Block indexes by the first instruction index they cover */
+    protected final Map<Integer, List<Integer>> blocksByFirst = new HashMap<>();
+    protected final int[] handlerIndexes;
+    /** The handler live locals each block was entered with, to remove the same ones on leaving */
+    protected final BitSet[] enteredWith;
+    protected final Map<Integer, Integer> liveCounts = new HashMap<>();
+    /** The locals live at any handler of a block covering the current instruction */
+    protected final BitSet handlersLive = new BitSet();
+
+    protected TryBlocks(MethodNode method, Map<LabelNode, Integer> labelIndexes) {
+      handlerIndexes = new int[method.tryCatchBlocks.size()];
+      enteredWith = new BitSet[handlerIndexes.length];
+      for (int b = 0; b < handlerIndexes.length; b++) {
+        TryCatchBlockNode block = method.tryCatchBlocks.get(b);
+        handlerIndexes[b] = labelIndexes.get(block.handler);
+        int first = labelIndexes.get(block.start);
+        int last = labelIndexes.get(block.end) - 1;
+        if (first > last) continue;
+        blocksByLast.computeIfAbsent(last, k -> new ArrayList<>()).add(b);
+        blocksByFirst.computeIfAbsent(first, k -> new ArrayList<>()).add(b);
+      }
+    }
+
+    /** Add the handlers of the blocks whose last instruction is at the index */
+    protected void enter(int index, BitSet[] liveIn) {
+      List<Integer> blocks = blocksByLast.get(index);
+      if (blocks == null) return;
+      for (int b : blocks) {
+        enteredWith[b] = liveIn[handlerIndexes[b]];
+        for (int var = enteredWith[b].nextSetBit(0); var >= 0; var = enteredWith[b].nextSetBit(var + 1)) {
+          if (liveCounts.merge(var, 1, Integer::sum) == 1) handlersLive.set(var);
+        }
+      }
+    }
+
+    /** Remove the handlers of the blocks whose first instruction is at the index */
+    protected void leave(int index) {
+      List<Integer> blocks = blocksByFirst.get(index);
+      if (blocks == null) return;
+      for (int b : blocks) {
+        for (int var = enteredWith[b].nextSetBit(0); var >= 0; var = enteredWith[b].nextSetBit(var + 1)) {
+          if (liveCounts.merge(var, -1, Integer::sum) == 0) handlersLive.clear(var);
+        }
+        enteredWith[b] = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package msplit;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.ProtectionDomain;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Java agent that splits methods with more than a maximum number of bytes of code as classes are loaded. Use with
+ * {@code -javaagent:msplit.jar[=options]} with ASM on the boot or system class path. The options are comma separated
+ * {@code key=value} pairs:
+ * <ul>
+ *   <li>{@code maxBytes} - The maximum number of bytes of code a method can have, defaults to
+ *   {@link SplitMethod#MAX_CODE_SIZE}. Use {@link SplitMethod#HUGE_METHOD_LIMIT} to have them JIT compiled.</li>
+ *   <li>{@code cacheDir} - A directory to store the split classes in so they don't have to be split again after a
+ *   restart. Not set by default.</li>
+ *   <li>{@code maxCacheDirBytes} - The most bytes of split classes the cache directory can hold before the least
+ *   recently used are deleted, defaults to {@link Transformer#DEFAULT_MAX_CACHE_DIR_BYTES}.</li>
+ *   <li>{@code maxMemoryBytes} - The most bytes of split classes kept in memory for class loaders that load the same
+ *   class again, defaults to {@link Transformer#DEFAULT_MAX_MEMORY_BYTES}. Use 0 to not keep any.</li>
+ * </ul>
+ * Classes are only parsed if {@link SplittingClassVisitor#maxCodeLength(ClassReader)} finds a method that is too
+ * large, so the cost for all other classes is just reading the method code lengths.
+ */
+public class SplitAgent {
+  private SplitAgent() { }
+
+  public static void premain(String agentArgs, Instrumentation inst) {
+    int maxBytes = SplitMethod.MAX_CODE_SIZE;
+    Path cacheDir = null;
+    long maxCacheDirBytes = Transformer.DEFAULT_MAX_CACHE_DIR_BYTES;
+    long maxMemoryBytes = Transformer.DEFAULT_MAX_MEMORY_BYTES;
+    if (agentArgs != null && !agentArgs.isEmpty()) {
+      for (String option : agentArgs.split(",")) {
+        int equals = option.indexOf('=');
+        String key = equals == -1 ? option : option.substring(0, equals);
+        String value = equals == -1 ? "" : option.substring(equals + 1);
+        switch (key) {
+          case "maxBytes":
+            maxBytes = Integer.parseInt(value);
+            break;
+          case "cacheDir":
+            cacheDir = Paths.get(value);
+            break;
+          case "maxCacheDirBytes":
+            maxCacheDirBytes = Long.parseLong(value);
+            break;
+          case "maxMemoryBytes":
+            maxMemoryBytes = Long.parseLong(value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown msplit agent option: " + key);
+        }
+      }
+    }
+    inst.addTransformer(new Transformer(Opcodes.ASM6, maxBytes, cacheDir, maxCacheDirBytes, maxMemoryBytes));
+  }
+
+  /** Same as {@link #premain(String, Instrumentation)}, only applies to classes loaded after */
+  public static void agentmain(String agentArgs, Instrumentation inst) { premain(agentArgs, inst); }
+
+  /**
+   * Transformer that splits the methods of a class that are too large. The results are keyed by a hash of the class
+   * bytes, the max bytes, and {@link SplitCache#KEY_VERSION}, and the most recently used are kept in memory up to a
+   * maximum size for when the same class is loaded by more than one class loader. If a cache directory is given, they
+   * are also stored there, and when it grows over its maximum size the least recently used are deleted the same way
+   * as for {@link SplitCache}. Redefined classes are never transformed since methods can't be added to them.
+   */
+  public static class Transformer implements ClassFileTransformer {
+    /** The most bytes of split classes kept in the cache directory by default */
+    public static final long DEFAULT_MAX_CACHE_DIR_BYTES = 256L * 1024 * 1024;
+    /** The most bytes of split classes kept in memory by default */
+    public static final long DEFAULT_MAX_MEMORY_BYTES = 16L * 1024 * 1024;
+
+    protected final int api;
+    protected final int maxBytes;
+    protected final Path cacheDir;
+    protected final long maxCacheDirBytes;
+    protected final long maxMemoryBytes;
+    /** Split classes by key, least recently used first */
+    protected final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    protected long memoryBytes;
+    /** Same as {@link SplitCache#dirBytes} for the cache directory */
+    protected long cacheDirBytes = -1;
+
+    /** Same as the other constructor with the default max sizes */
+    public Transformer(int api, int maxBytes, Path cacheDir) {
+      this(api, maxBytes, cacheDir, DEFAULT_MAX_CACHE_DIR_BYTES, DEFAULT_MAX_MEMORY_BYTES);
+    }
+
+    /**
+     * @param api Same as for {@link org.objectweb.asm.ClassVisitor#ClassVisitor(int)}
+     * @param maxBytes The maximum number of bytes of code each method can have
+     * @param cacheDir The directory to store split classes in, or null to not store them
+     * @param maxCacheDirBytes The most bytes the cache directory can hold before the least recently used are deleted
+     * @param maxMemoryBytes The most bytes of split classes to keep in memory
+     */
+    public Transformer(int api, int maxBytes, Path cacheDir, long maxCacheDirBytes, long maxMemoryBytes) {
+      this.api = api;
+      this.maxBytes = maxBytes;
+      this.cacheDir = cacheDir;
+      this.maxCacheDirBytes = maxCacheDirBytes;
+      this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+        ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+      if (classBeingRedefined != null) return null;
+      try {
+        ClassReader reader = new ClassReader(classfileBuffer);
+        if (SplittingClassVisitor.maxCodeLength(reader) <= maxBytes) return null;
+        String key = key(classfileBuffer);
+        byte[] ret = loadFromMemory(key);
+        if (ret == null) {
+          ret = loadFromCacheDir(key);
+          if (ret == null) {
+            ret = split(reader);
+            storeInCacheDir(key, ret);
+          }
+          storeInMemory(key, ret);
+        }
+        return ret;
+      } catch (Exception e) {
+        // Exceptions are otherwise ignored by the JVM, and the class still fails to load the same as without us
+        System.err.println("msplit: Unable to split " + className + ": " + e);
+        return null;
+      }
+    }
+
+    /** Split every method of the class that is too large */
+    protected byte[] split(ClassReader reader) {
+      // Frames and maxs are emitted by the split, so nothing has to be computed (which would need to load classes)
+      ClassWriter writer = new ClassWriter(0);
+      reader.accept(new SplittingClassVisitor(api, writer, maxBytes, reader), ClassReader.EXPAND_FRAMES);
+      return writer.toByteArray();
+    }
+
+    protected synchronized byte[] loadFromMemory(String key) { return memory.get(key); }
+
+    /** Keep the bytes in memory, then drop the least recently used until under the max size */
+    protected synchronized void storeInMemory(String key, byte[] bytes) {
+      if (bytes.length > maxMemoryBytes) return;
+      byte[] prev = memory.put(key, bytes);
+      memoryBytes += bytes.length - (prev == null ? 0 : prev.length);
+      for (Iterator<byte[]> iter = memory.values().iterator(); memoryBytes > maxMemoryBytes; ) {
+        memoryBytes -= iter.next().length;
+        iter.remove();
+      }
+    }
+
+    protected byte[] loadFromCacheDir(String key) throws IOException {
+      if (cacheDir == null) return null;
+      Path file = cacheDir.resolve(key + ".class");
+      try {
+        byte[] bytes = Files.readAllBytes(file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        return bytes;
+      } catch (NoSuchFileException e) {
+        // Either never stored or evicted
+        return null;
+      }
+    }
+
+    /** Store the bytes in the cache directory, then evict if needed */
+    protected void storeInCacheDir(String key, byte[] bytes) throws IOException {
+      if (cacheDir == null) return;
+      SplitCache.writeAtomically(cacheDir.resolve(key + ".class"), bytes);
+      evictIfNeeded(bytes.length);
+    }
+
+    /** Same as {@link SplitCache#evictIfNeeded(long)} for the cache directory */
+    protected synchronized void evictIfNeeded(long storedBytes) throws IOException {
+      if (cacheDirBytes >= 0) {
+        cacheDirBytes += storedBytes;
+        if (cacheDirBytes <= maxCacheDirBytes) return;
+      }
+      cacheDirBytes = SplitCache.evict(cacheDir, maxCacheDirBytes);
+    }
+
+    /** The hex SHA-256 of the key version, max bytes, and class bytes */
+    protected String key(byte[] classfileBuffer) {
+      MessageDigest digest = SplitCache.sha256();
+      digest.update(ByteBuffer.allocate(8).putInt(SplitCache.KEY_VERSION).putInt(maxBytes).array());
+      digest.update(classfileBuffer);
+      return SplitCache.hex(digest.digest());
+    }
+  }
+}
@@ -0,0 +1,402 @@
+package msplit;
+
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cache in front of a {@link SplitMethod} that stores the resulting methods in a directory so the same method split
+ * the same way is never analyzed again. Entries are keyed by a hash of everything in the method that is written (the
+ * instructions, try/catch blocks, frames, debug info, annotations, and attributes), the owner, and the split
+ * parameters, salted with {@link #KEY_VERSION}. Each entry is a class file holding the resulting methods, written to a
+ * temp file and atomically moved into place so separate processes can share the directory. When the directory grows
+ * over a maximum size, the least recently used entries are deleted down to {@link #EVICT_TO_RATIO} of it, going by last
+ * modified time which is updated on every hit. The directory is only listed when the bytes stored since it was last
+ * listed could put it over, so entries stored by other processes are only seen then.
+ * <p>
+ * Results that can't be written in a class file (i.e. a method over {@link SplitMethod#MAX_CODE_SIZE}) are never
+ * cached, nor are failures.
+ */
+public class SplitCache {
+  /**
+   * Part of every key, changed whenever a change to msplit can change the resulting methods or how they're stored, so
+   * a shared directory never serves the results of an older version
+   */
+  public static final int KEY_VERSION = 2;
+  /** The part of the max size that eviction deletes down to, so the next one is a while away */
+  public static final double EVICT_TO_RATIO = 0.9;
+
+  protected final SplitMethod splitMethod;
+  protected final Path dir;
+  protected final long maxDirBytes;
+  protected final AtomicInteger hitCount = new AtomicInteger();
+  protected final AtomicInteger missCount = new AtomicInteger();
+  /** The bytes in the directory as of the last listing plus those stored since, or -1 before it's listed */
+  protected long dirBytes = -1;
+
+  /**
+   * @param splitMethod The split method to use on a miss, its options are part of the key
+   * @param dir The directory to store the entries in, created if it doesn't exist
+   * @param maxDirBytes The most bytes the entries can take before the least recently used ones are deleted
+   */
+  public SplitCache(SplitMethod splitMethod, Path dir, long maxDirBytes) {
+    this.splitMethod = splitMethod;
+    this.dir = dir;
+    this.maxDirBytes = maxDirBytes;
+  }
+
+  /** The number of calls so far that were answered from the cache */
+  public int getHitCount() { return hitCount.get(); }
+
+  /** The number of calls so far that had to split */
+  public int getMissCount() { return missCount.get(); }
+
+  /** Cached form of {@link SplitMethod#split(String, MethodNode)} */
+  public SplitMethod.Result split(String owner, MethodNode method) throws IOException {
+    return split(key(owner, method, "split"), () -> splitMethod.split(owner, method));
+  }
+
+  /** Cached form of {@link SplitMethod#split(String, MethodNode, int, int, int)} */
+  public SplitMethod.Result split(String owner, MethodNode method, int minSize, int maxSize, int firstAtLeast)
+      throws IOException {
+    return split(key(owner, method, "split", minSize, maxSize, firstAtLeast),
+        () -> splitMethod.split(owner, method, minSize, maxSize, firstAtLeast));
+  }
+
+  protected SplitMethod.Result split(String key, Supplier<SplitMethod.Result> splitter) throws IOException {
+    List<MethodNode> methods = load(key);
+    if (methods != null) return methods.isEmpty() ? null : new SplitMethod.Result(methods.get(0), methods.get(1));
+    // No result is stored as no methods
+    SplitMethod.Result result = splitter.get();
+    if (result == null) store(key, Collections.emptyList());
+    else store(key, Arrays.asList(result.trimmedMethod, result.splitOffMethod));
+    return result;
+  }
+
+  /** Cached form of {@link SplitMethod#splitUntilFits(String, MethodNode, int, int)} */
+  public SplitMethod.FitResult splitUntilFits(String owner, MethodNode method, int maxBytes, int maxSplitOffBytes)
+      throws IOException {
+    // Nothing to cache if it already fits
+    if (CodeSize.of(method) <= maxBytes) return new SplitMethod.FitResult(method, Collections.emptyList());
+    String key = key(owner, method, "splitUntilFits", maxBytes, maxSplitOffBytes);
+    List<MethodNode> methods = load(key);
+    if (methods != null) return new SplitMethod.FitResult(methods.get(0), methods.subList(1, methods.size()));
+    SplitMethod.FitResult result = splitMethod.splitUntilFits(owner, method, maxBytes, maxSplitOffBytes);
+    List<MethodNode> toStore = new ArrayList<>();
+    toStore.add(result.trimmedMethod);
+    toStore.addAll(result.splitOffMethods);
+    store(key, toStore);
+    return result;
+  }
+
+  /** The methods stored for the key in order, or null if not there */
+  protected List<MethodNode> load(String key) throws IOException {
+    Path file = dir.resolve(key + ".class");
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(file);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (NoSuchFileException e) {
+      // Either never stored or evicted
+      missCount.incrementAndGet();
+      return null;
+    }
+    hitCount.incrementAndGet();
+    ClassNode cls = new ClassNode();
+    new ClassReader(bytes).accept(cls, ClassReader.EXPAND_FRAMES);
+    return cls.methods;
+  }
+
+  /** Store the methods for the key, then evict if needed */
+  protected void store(String key, List<MethodNode> methods) throws IOException {
+    ClassNode cls = new ClassNode();
+    cls.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "msplit/Cached", null, "java/lang/Object", null);
+    cls.methods.addAll(methods);
+    // Frames and maxs are already set
+    ClassWriter writer = new ClassWriter(0);
+    byte[] bytes;
+    try {
+      cls.accept(writer);
+      bytes = writer.toByteArray();
+    } catch (MethodTooLargeException e) {
+      return;
+    }
+    writeAtomically(dir.resolve(key + ".class"), bytes);
+    evictIfNeeded(bytes.length);
+  }
+
+  /**
+   * Write the bytes to a temp file next to the given one then atomically move it into place, so other processes never
+   * see a partial file. The directory is created if it doesn't exist.
+   */
+  protected static void writeAtomically(Path file, byte[] bytes) throws IOException {
+    Path dir = file.getParent();
+    Files.createDirectories(dir);
+    Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+    try {
+      Files.write(temp, bytes);
+      Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /** Evict if the bytes stored, added to those known to be in the directory, could put it over the max size */
+  protected synchronized void evictIfNeeded(long storedBytes) throws IOException {
+    if (dirBytes >= 0) {
+      dirBytes += storedBytes;
+      if (dirBytes <= maxDirBytes) return;
+    }
+    dirBytes = evict();
+  }
+
+  /**
+   * If the directory is over the max size, delete the least recently used entries until it's at most
+   * {@link #EVICT_TO_RATIO} of it. Returns the bytes left in the directory.
+   */
+  protected long evict() throws IOException { return evict(dir, maxDirBytes); }
+
+  /** Same as {@link #evict()} for any directory of class file entries, shared with {@link SplitAgent.Transformer} */
+  protected static long evict(Path dir, long maxDirBytes) throws IOException {
+    List<Path> files;
+    try (Stream<Path> stream = Files.list(dir)) {
+      files = stream.filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList());
+    }
+    Map<Path, FileTime> times = new HashMap<>();
+    long size = 0;
+    for (Iterator<Path> iter = files.iterator(); iter.hasNext(); ) {
+      Path file = iter.next();
+      try {
+        times.put(file, Files.getLastModifiedTime(file));
+        size += Files.size(file);
+      } catch (NoSuchFileException e) {
+        // Another process evicted it
+        iter.remove();
+      }
+    }
+    if (size <= maxDirBytes) return size;
+    long evictTo = (long) (maxDirBytes * EVICT_TO_RATIO);
+    files.sort(Comparator.comparing(times::get));
+    for (Path file : files) {
+      if (size <= evictTo) break;
+      try {
+        long fileSize = Files.size(file);
+        if (Files.deleteIfExists(file)) size -= fileSize;
+      } catch (NoSuchFileException e) {
+        // Another process evicted it
+      }
+    }
+    return size;
+  }
+
+  /**
+   * The hex SHA-256 of the key version, method, owner, and split parameters, plus the options (see
+   * {@link SplitMethod.Options#toString()}), whether the owner is an interface, and the method's profile counts of the
+   * split method
+   */
+  protected String key(String owner, MethodNode method, String operation, int... params) throws IOException {
+    MessageDigest digest = sha256();
+    try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest))) {
+      out.writeInt(KEY_VERSION);
+      out.writeUTF(operation);
+      for (int param : params) out.writeInt(param);
+      out.writeUTF(splitMethod.options.toString());
+      out.writeUTF(owner);
+      out.writeBoolean(splitMethod.isInterface(owner));
+      writeMethod(out, method);
+      // Only this method's part of the profile can change how it's split
+      if (splitMethod.profile != null) {
+        SortedMap<Integer, Long> counts = splitMethod.profile.countsOf(owner, method.name, method.desc);
+        for (Map.Entry<Integer, Long> count : counts.entrySet()) {
+          out.writeInt(count.getKey());
+          out.writeLong(count.getValue());
+        }
+      }
+    }
+    return hex(digest.digest());
+  }
+
+  /** A new SHA-256 digest, which every JVM has */
+  protected static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** The bytes as lowercase hex, e.g. for a digest used as a file name */
+  protected static String hex(byte[] bytes) {
+    StringBuilder ret = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) ret.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    return ret.toString();
+  }
+
+  /** Write everything in the method that affects the split. Labels are written as their instruction index. */
+  protected static void writeMethod(DataOutputStream out, MethodNode method) throws IOException {
+    AbstractInsnNode[] insns = method.instructions.toArray();
+    Map<LabelNode, Integer> labelIndexes = new IdentityHashMap<>();
+    for (int i = 0; i < insns.length; i++) {
+      if (insns[i] instanceof LabelNode) labelIndexes.put((LabelNode) insns[i], i);
+    }
+    out.writeInt(method.access);
+    out.writeUTF(method.name);
+    out.writeUTF(method.desc);
+    writeValue(out, method.signature, labelIndexes);
+    writeValue(out, method.exceptions, labelIndexes);
+    // Everything else the trimmed method copies from the original
+    writeValue(out, Arrays.asList(method.parameters, method.annotationDefault, method.attrs,
+        method.visibleAnnotations, method.invisibleAnnotations,
+        method.visibleTypeAnnotations, method.invisibleTypeAnnotations,
+        method.visibleAnnotableParameterCount, method.invisibleAnnotableParameterCount,
+        method.visibleParameterAnnotations, method.invisibleParameterAnnotations,
+        method.visibleLocalVariableAnnotations, method.invisibleLocalVariableAnnotations,
+        method.maxStack, method.maxLocals), labelIndexes);
+    out.writeInt(insns.length);
+    for (AbstractInsnNode insn : insns) {
+      out.writeInt(insn.getType());
+      out.writeInt(insn.getOpcode());
+      writeValue(out, Arrays.asList(insn.visibleTypeAnnotations, insn.invisibleTypeAnnotations), labelIndexes);
+      switch (insn.getType()) {
+        case AbstractInsnNode.INT_INSN:
+          out.writeInt(((IntInsnNode) insn).operand);
+          break;
+        case AbstractInsnNode.VAR_INSN:
+          out.writeInt(((VarInsnNode) insn).var);
+          break;
+        case AbstractInsnNode.TYPE_INSN:
+          out.writeUTF(((TypeInsnNode) insn).desc);
+          break;
+        case AbstractInsnNode.FIELD_INSN:
+          FieldInsnNode field = (FieldInsnNode) insn;
+          writeValue(out, Arrays.asList(field.owner, field.name, field.desc), labelIndexes);
+          break;
+        case AbstractInsnNode.METHOD_INSN:
+          MethodInsnNode methodInsn = (MethodInsnNode) insn;
+          writeValue(out, Arrays.asList(methodInsn.owner, methodInsn.name, methodInsn.desc, methodInsn.itf),
+              labelIndexes);
+          break;
+        case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+          InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+          writeValue(out, Arrays.asList(indy.name, indy.desc, indy.bsm, indy.bsmArgs), labelIndexes);
+          break;
+        case AbstractInsnNode.JUMP_INSN:
+          writeValue(out, ((JumpInsnNode) insn).label, labelIndexes);
+          break;
+        case AbstractInsnNode.LDC_INSN:
+          writeValue(out, ((LdcInsnNode) insn).cst, labelIndexes);
+          break;
+        case AbstractInsnNode.IINC_INSN:
+          out.writeInt(((IincInsnNode) insn).var);
+          out.writeInt(((IincInsnNode) insn).incr);
+          break;
+        case AbstractInsnNode.TABLESWITCH_INSN:
+          TableSwitchInsnNode table = (TableSwitchInsnNode) insn;
+          writeValue(out, Arrays.asList(table.min, table.max, table.dflt, table.labels), labelIndexes);
+          break;
+        case AbstractInsnNode.LOOKUPSWITCH_INSN:
+          LookupSwitchInsnNode lookup = (LookupSwitchInsnNode) insn;
+          writeValue(out, Arrays.asList(lookup.dflt, lookup.keys, lookup.labels), labelIndexes);
+          break;
+        case AbstractInsnNode.MULTIANEWARRAY_INSN:
+          out.writeUTF(((MultiANewArrayInsnNode) insn).desc);
+          out.writeInt(((MultiANewArrayInsnNode) insn).dims);
+          break;
+        case AbstractInsnNode.FRAME:
+          FrameNode frame = (FrameNode) insn;
+          writeValue(out, Arrays.asList(frame.type, frame.local, frame.stack), labelIndexes);
+          break;
+        case AbstractInsnNode.LINE:
+          writeValue(out, Arrays.asList(((LineNumberNode) insn).line, ((LineNumberNode) insn).start), labelIndexes);
+          break;
+      }
+    }
+    out.writeInt(method.tryCatchBlocks.size());
+    for (TryCatchBlockNode block : method.tryCatchBlocks) {
+      writeValue(out, Arrays.asList(block.start, block.end, block.handler, block.type,
+          block.visibleTypeAnnotations, block.invisibleTypeAnnotations), labelIndexes);
+    }
+    if (method.localVariables != null) {
+      out.writeInt(method.localVariables.size());
+      for (LocalVariableNode local : method.localVariables) {
+        writeValue(out, Arrays.asList(local.name, local.desc, local.signature, local.start, local.end, local.index),
+            labelIndexes);
+      }
+    }
+  }
+
+  /**
+   * Write a value that is a label, list, array, annotation, parameter, attribute, or anything with a stable string
+   * form
+   */
+  protected static void writeValue(DataOutputStream out, Object value, Map<LabelNode, Integer> labelIndexes)
+      throws IOException {
+    if (value instanceof AnnotationNode) {
+      AnnotationNode annotation = (AnnotationNode) value;
+      out.writeUTF("@");
+      out.writeUTF(annotation.desc);
+      if (annotation instanceof TypeAnnotationNode) {
+        TypeAnnotationNode typeAnnotation = (TypeAnnotationNode) annotation;
+        writeValue(out, Arrays.asList(typeAnnotation.typeRef, typeAnnotation.typePath), labelIndexes);
+      }
+      if (annotation instanceof LocalVariableAnnotationNode) {
+        LocalVariableAnnotationNode localAnnotation = (LocalVariableAnnotationNode) annotation;
+        writeValue(out, Arrays.asList(localAnnotation.start, localAnnotation.end, localAnnotation.index),
+            labelIndexes);
+      }
+      // Names and values alternate, values can be nested annotations, enum pairs, or lists
+      writeValue(out, annotation.values, labelIndexes);
+    } else if (value instanceof ParameterNode) {
+      out.writeUTF("P");
+      writeValue(out, ((ParameterNode) value).name, labelIndexes);
+      out.writeInt(((ParameterNode) value).access);
+    } else if (value instanceof Attribute) {
+      // The content is only reachable by writing it out
+      ClassWriter writer = new ClassWriter(0);
+      writer.visit(Opcodes.V1_8, 0, "msplit/Attr", null, "java/lang/Object", null);
+      writer.visitAttribute((Attribute) value);
+      out.writeUTF("A");
+      out.write(writer.toByteArray());
+    } else if (value instanceof LabelNode) {
+      out.writeUTF("L");
+      out.writeInt(labelIndexes.get(value));
+    } else if (value instanceof List) {
+      out.writeUTF("[");
+      out.writeInt(((List<?>) value).size());
+      for (Object item : (List<?>) value) writeValue(out, item, labelIndexes);
+    } else if (value instanceof Object[]) {
+      writeValue(out, Arrays.asList((Object[]) value), labelIndexes);
+    } else if (value == null) {
+      out.writeUTF("null");
+    } else {
+      // Include the class so e.g. int 1 and long 1 differ
+      out.writeUTF(value.getClass().getName());
+      out.writeUTF(value.toString());
+    }
+  }
+
+  protected static class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) { }
+
+    @Override
+    public void write(byte[] b, int off, int len) { }
+  }
+}
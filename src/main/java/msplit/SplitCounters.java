@@ -0,0 +1,82 @@
+package msplit;
+
+import java.io.PrintStream;
+import java.lang.invoke.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts calls to split off methods at runtime when splitting with counters (see
+ * {@link SplitMethod.Options#countCalls}). Each call site of a split off method is preceded by an invokedynamic
+ * bootstrapped here that is bound to a {@link LongAdder} for the site, so once linked a count is just an increment.
+ * This class has to be visible to the split classes at runtime, and the classes have to be version 51 (Java 7) or
+ * later. It doesn't use ASM, so ASM isn't needed at runtime.
+ */
+public class SplitCounters {
+  private SplitCounters() { }
+
+  protected static final ConcurrentMap<String, Site> SITES = new ConcurrentHashMap<>();
+
+  protected static final MethodHandle INCREMENT;
+
+  static {
+    try {
+      INCREMENT = MethodHandles.lookup().findVirtual(LongAdder.class, "increment", MethodType.methodType(void.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Bootstrap for the invokedynamic before each call of a split off method. The site is the owner's internal name + "."
+   * + the split off method's name and descriptor.
+   */
+  public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType type, String site,
+      int boxedValuesPerCall) {
+    Site counter = SITES.computeIfAbsent(site, k -> new Site(site, boxedValuesPerCall));
+    return new ConstantCallSite(INCREMENT.bindTo(counter.calls).asType(type));
+  }
+
+  /** Every site that has been linked, most called first */
+  public static List<Site> sites() {
+    List<Site> ret = new ArrayList<>(SITES.values());
+    ret.sort(Comparator.comparingLong(Site::calls).reversed().thenComparing(site -> site.name));
+    return ret;
+  }
+
+  /** Print each site with its calls and boxed values, most called first */
+  public static void dump(PrintStream out) {
+    for (Site site : sites()) {
+      out.println(site.name + " calls=" + site.calls() + " boxedValues=" + site.boxedValues());
+    }
+  }
+
+  /** Set every count back to 0 */
+  public static void reset() {
+    for (Site site : SITES.values()) site.calls.reset();
+  }
+
+  /** A call site of a split off method */
+  public static class Site {
+    /** The owner's internal name + "." + the split off method's name and descriptor */
+    public final String name;
+    /** The values going through an array each call, see {@link CostModel.Boundary#boxedValues} */
+    public final int boxedValuesPerCall;
+    protected final LongAdder calls = new LongAdder();
+
+    protected Site(String name, int boxedValuesPerCall) {
+      this.name = name;
+      this.boxedValuesPerCall = boxedValuesPerCall;
+    }
+
+    /** How many times the split off method was called */
+    public long calls() { return calls.sum(); }
+
+    /** How many values went through an array for the calls */
+    public long boxedValues() { return calls() * boxedValuesPerCall; }
+  }
+}
@@ -1,22 +1,68 @@
 package msplit;
 
 
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.*;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import static msplit.Util.*;
 
 /** Splits a method into two */
 public class SplitMethod {
 
+  /** The most bytes of code the JVM allows in a method */
+  public static final int MAX_CODE_SIZE = 65535;
+  /** HotSpot's default -XX:HugeMethodLimit, methods with more bytes of code are never JIT compiled */
+  public static final int HUGE_METHOD_LIMIT = 8000;
+  /** HotSpot's default -XX:FreqInlineSize on x64, the most bytes of code a hot method can have to be inlined */
+  public static final int FREQ_INLINE_SIZE = 325;
+  /** The most parameter slots a static method can have, longs and doubles take two */
+  public static final int MAX_PARAM_SLOTS = 255;
+  /** Bootstrap of the invokedynamic that counts calls of split off methods, see {@link SplitCounters} */
+  protected static final Handle COUNTER_BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC,
+      Type.getInternalName(SplitCounters.class), "bootstrap", "(Ljava/lang/invoke/MethodHandles$Lookup;" +
+      "Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;I)Ljava/lang/invoke/CallSite;", false);
+  /** How many start indexes each thread of the pool searches before the best so far is checked for an early exit */
+  protected static final int PARALLEL_INDEXES_PER_THREAD = 64;
+
   protected final int api;
+  /** Everything other than the API that changes how methods are split, see {@link Options} */
+  protected final Options options;
+  protected final Set<ReturnConvention> returnConventions;
+  protected final CostModel costModel;
+  /** Where candidate split points are searched for concurrently, or null to search serially */
+  protected final ForkJoinPool pool;
+  /** How many times the code of the methods being split ran, or null if not known */
+  protected final ExecutionProfile profile;
+  /** Whether each call of a split off method is counted with {@link SplitCounters} */
+  protected final boolean countCalls;
+
+  /**
+   * Same as {@link #SplitMethod(int, Options)} with {@link Options#DEFAULT}
+   *
+   * @param api Same as for {@link org.objectweb.asm.MethodVisitor#MethodVisitor(int)} or any other ASM class
+   */
+  public SplitMethod(int api) { this(api, Options.DEFAULT); }
 
-  /** @param api Same as for {@link org.objectweb.asm.MethodVisitor#MethodVisitor(int)} or any other ASM class */
-  public SplitMethod(int api) { this.api = api; }
+  /**
+   * @param api Same as for {@link org.objectweb.asm.MethodVisitor#MethodVisitor(int)} or any other ASM class
+   * @param options How methods are split, see {@link Options}
+   */
+  public SplitMethod(int api, Options options) {
+    this.api = api;
+    this.options = options;
+    returnConventions = options.returnConventions;
+    costModel = options.costModel;
+    pool = options.pool;
+    profile = options.profile;
+    countCalls = options.countCalls;
+  }
 
   /**
    * Calls {@link #split(String, MethodNode, int, int, int)} with minSize as 20% + 1 of the original, maxSize as
@@ -33,31 +79,350 @@ public class SplitMethod {
 
   /**
    * Splits the given method into two. This uses a {@link Splitter} to consistently create
-   * {@link msplit.Splitter.SplitPoint}s until one reaches firstAtLeast or the largest otherwise, and then calls
+   * {@link msplit.Splitter.SplitPoint}s and keeps the one the {@link CostModel} scores highest, stopping early at one
+   * that reaches firstAtLeast or that the cost model considers good enough. Then it calls
    * {@link #fromSplitPoint(String, MethodNode, Splitter.SplitPoint)}.
    *
    * @param owner The internal name of the owning class. Needed when splitting to call the split off method.
    * @param method The method to split, never modified
    * @param minSize The minimum number of instructions the split off method must have
    * @param maxSize The maximum number of instructions the split off method can have
-   * @param firstAtLeast The number of instructions that, when first reached, will immediately be used without
-   *                     continuing. Since split points are streamed, this allows splitting without waiting to
-   *                     find the largest overall. If this is &lt= 0, it will not apply and all split points will be
-   *                     checked to find the largest before doing the split.
+   * @param firstAtLeast The number of instructions that, when first reached by the best so far, will immediately be
+   *                     used without continuing. Since split points are streamed, this allows splitting without
+   *                     waiting to find the best overall. If this is &lt= 0, it will not apply and all split points
+   *                     will be checked to find the best before doing the split.
    * @return The resulting split method or null if there were no split points found
    */
   public Result split(String owner, MethodNode method, int minSize, int maxSize, int firstAtLeast) {
-    // Get the largest split point
-    Splitter.SplitPoint largest = null;
-    for (Splitter.SplitPoint point : new Splitter(api, owner, method, minSize, maxSize)) {
-      if (largest == null || point.length > largest.length) {
-        largest = point;
-        // Early exit?
-        if (firstAtLeast > 0 && largest.length >= firstAtLeast) break;
+    return split(owner, method, Splitter.SizeUnit.INSNS, minSize, maxSize, firstAtLeast);
+  }
+
+  /**
+   * Same as {@link #split(String, MethodNode, int, int, int)} except the sizes are in the given unit. For
+   * {@link Splitter.SizeUnit#BYTES}, the sizes are of the instructions as laid out in the original method.
+   */
+  public Result split(String owner, MethodNode method, Splitter.SizeUnit sizeUnit,
+      int minSize, int maxSize, int firstAtLeast) {
+    return split(owner, method, sizeUnit, minSize, maxSize, firstAtLeast, Budget.UNLIMITED);
+  }
+
+  /**
+   * Same as {@link #split(String, MethodNode, Splitter.SizeUnit, int, int, int)} except the search stops when the
+   * budget runs out, using the best split point found so far. See
+   * {@link #bestSplitPoint(String, MethodNode, Splitter.SizeUnit, int, int, int, Budget)}.
+   */
+  public Result split(String owner, MethodNode method, Splitter.SizeUnit sizeUnit,
+      int minSize, int maxSize, int firstAtLeast, Budget budget) {
+    Splitter.SplitPoint best = bestSplitPoint(owner, method, sizeUnit, minSize, maxSize, firstAtLeast, budget);
+    if (best == null) return null;
+    return fromSplitPoint(owner, method, best);
+  }
+
+  /**
+   * The split point {@link #split(String, MethodNode, Splitter.SizeUnit, int, int, int, Budget)} uses, without
+   * splitting. If the cost model weighs loops cut (see {@link CostModel#weighsLoopsCut()}), the ranges that run a whole
+   * loop (see {@link Splitter.Iter#wholeLoopRanges()}) are tried first. Then
+   * with an unlimited budget, every start index is tried in order. Otherwise the start indexes most likely to give
+   * large split points are tried first (see {@link Splitter.Iter#startIndexesByPriority()}) and the best so far is
+   * returned once either limit of the budget is reached. The time starts on entry and covers the analysis of
+   * the method too, which gives up part way through if the time runs out (see {@link Deadline}), so nothing is found.
+   *
+   * @return The best split point found or null if none were found within the budget
+   */
+  public Splitter.SplitPoint bestSplitPoint(String owner, MethodNode method, Splitter.SizeUnit sizeUnit,
+      int minSize, int maxSize, int firstAtLeast, Budget budget) {
+    Deadline deadline = budget.deadline();
+    Splitter.SplitPoint best = null;
+    double bestScore = 0;
+    try {
+      Splitter.Iter iter = new Splitter(api, owner, method, sizeUnit, minSize, maxSize).newIter(deadline);
+      ExecutionProfile.Counts counts = profile == null ? null : profile.countsFor(owner, method);
+      ControlFlowGraph cfg = loopsCfg(iter);
+      List<Splitter.InsnTraverseInfo> loopRanges = cfg == null ? Collections.emptyList() : iter.wholeLoopRanges();
+      int[] startIndexes = budget.isUnlimited() ? iter.startIndexes() : iter.startIndexesByPriority();
+      int count = loopRanges.size() + startIndexes.length;
+      if (budget.maxCandidates > 0) count = Math.min(budget.maxCandidates, count);
+      // Candidates are built a chunk of start indexes at a time, concurrently if there is a pool, then taken in order
+      // so the best and any early exit are the same as one at a time
+      int chunkSize = pool == null ? 1 : pool.getParallelism() * PARALLEL_INDEXES_PER_THREAD;
+      search:
+      for (int from = 0; from < count && !deadline.isPassed(); from += chunkSize) {
+        List<CostModel.Boundary> boundaries = iter.forEachIndex(from, Math.min(count, from + chunkSize), pool, i -> {
+          // Out of time part way through a chunk, skip the rest
+          if (deadline.isPassed()) return null;
+          Splitter.SplitPoint point = i < loopRanges.size() ? iter.splitPointFromInfo(loopRanges.get(i)) :
+              iter.longestForIndex(startIndexes[i - loopRanges.size()]);
+          return point == null ? null :
+              boundaryOf(point, iter.sizeOf(point.start, point.start + point.length - 1), counts, cfg);
+        });
+        for (CostModel.Boundary boundary : boundaries) {
+          if (boundary == null) continue;
+          double score = costModel.score(boundary);
+          if (best == null || score > bestScore) {
+            best = boundary.splitPoint;
+            bestScore = score;
+            // Early exit?
+            if ((firstAtLeast > 0 && boundary.size >= firstAtLeast) || costModel.isGoodEnough(boundary, score)) {
+              break search;
+            }
+          }
+        }
       }
+    } catch (Deadline.ExceededException e) {
+      // Out of time in an analysis, which are all built before the first candidate is taken, so none were found
     }
-    if (largest == null) return null;
-    return fromSplitPoint(owner, method, largest);
+    return best;
+  }
+
+  /**
+   * Splits the given method into two only if needed so that both have at most maxBytes of code. This is exact (see
+   * {@link CodeSize}) including the code added to call the split off method and to pass things in and out of it, so
+   * only as much is split off as is needed to fit. Use {@link #splitUntilFits(String, MethodNode, int)} if a single
+   * split may not be enough.
+   *
+   * @param owner The internal name of the owning class. Needed when splitting to call the split off method.
+   * @param method The method to split, never modified
+   * @param maxBytes The maximum number of bytes of code both resulting methods can have
+   * @return The resulting split method, the original method with no split off method if it already fits, or null if
+   *         there are no split points that make both fit
+   */
+  public Result splitToFit(String owner, MethodNode method, int maxBytes) {
+    int size = CodeSize.of(method);
+    if (size <= maxBytes) return new Result(method, null);
+    // At least what we're over by must be split off, but no more than fits on its own
+    Splitter.Iter iter = new Splitter(api, owner, method, Splitter.SizeUnit.BYTES, size - maxBytes, maxBytes).newIter();
+    List<Splitter.InsnTraverseInfo> ranges = longestRanges(iter, method);
+    // Try the smallest first so only as much is split off as is needed, the coldest first if there is a profile
+    Comparator<Splitter.InsnTraverseInfo> smallestFirst = Comparator.comparingInt(iter::sizeOf);
+    ExecutionProfile.Counts counts = profile == null ? null : profile.countsFor(owner, method);
+    if (counts == null) {
+      ranges.sort(smallestFirst);
+    } else {
+      ranges.sort(Comparator.comparingDouble((Splitter.InsnTraverseInfo info) ->
+          counts.heatOf(info.startIndex, info.endIndex)).thenComparing(smallestFirst));
+    }
+    for (Splitter.InsnTraverseInfo info : ranges) {
+      Splitter.SplitPoint point = iter.splitPointFromInfo(info);
+      if (point == null) continue;
+      MethodNode splitOff = createSplitOffMethod(method, point);
+      if (CodeSize.of(splitOff) > maxBytes) continue;
+      // Cheap check of the trimmed size before creating it
+      if (size - iter.sizeOf(info) + splitOffCallSize(owner, splitOff, point) > maxBytes) continue;
+      MethodNode trimmed = createTrimmedMethod(owner, method, splitOff, point);
+      if (CodeSize.of(trimmed) <= maxBytes) return new Result(trimmed, splitOff);
+    }
+    return null;
+  }
+
+  /**
+   * Split the given method as many times as needed so that it and every method split off of it have at most maxBytes
+   * of code. Unlike {@link #split(String, MethodNode, int, int, int)}, this cuts multiple non-overlapping regions off
+   * per analysis pass, preferring the ones the cost model scores highest, and only analyzes again if what is left is
+   * still too large. The original method is never modified.
+   *
+   * @param owner The internal name of the owning class. Needed when splitting to call the split off methods.
+   * @param method The method to split, never modified
+   * @param maxBytes The maximum number of bytes of code each resulting method can have
+   * @return The result, which is just the original method and no split off methods if it already fits
+   * @throws UnableToFitException If the method cannot be split to fit
+   */
+  public FitResult splitUntilFits(String owner, MethodNode method, int maxBytes) {
+    return splitUntilFits(owner, method, maxBytes, maxBytes);
+  }
+
+  /**
+   * Same as {@link #splitUntilFits(String, MethodNode, int)} except the split off methods can have a different
+   * maximum than the trimmed method. A lower maximum for split off methods will usually require more of them.
+   */
+  public FitResult splitUntilFits(String owner, MethodNode method, int maxBytes, int maxSplitOffBytes) {
+    List<MethodNode> splitOffMethods = new ArrayList<>();
+    MethodNode trimmed = method;
+    int trimmedSize = CodeSize.of(trimmed);
+    // The profile is of the original, so the counts are carried over to each trimmed method
+    ExecutionProfile.Counts counts = null;
+    if (profile != null && trimmedSize > maxBytes) counts = profile.countsFor(owner, method);
+    while (trimmedSize > maxBytes) {
+      List<Splitter.SplitPoint> splitPoints = new ArrayList<>();
+      List<MethodNode> splitOffs = new ArrayList<>();
+      chooseSplitPoints(owner, trimmed, maxBytes, maxSplitOffBytes, method.name, splitOffMethods.size(),
+          counts, splitPoints, splitOffs);
+      if (splitPoints.isEmpty()) {
+        throw new UnableToFitException("Unable to split " + method.name + method.desc + " to fit in " +
+            maxBytes + " bytes, " + trimmedSize + " bytes left with no split points");
+      }
+      Map<AbstractInsnNode, Integer> origIndexes = counts == null ? null : new IdentityHashMap<>();
+      MethodNode next = createTrimmedMethod(owner, trimmed, splitOffs, splitPoints, origIndexes);
+      int nextSize = CodeSize.of(next);
+      if (nextSize >= trimmedSize) {
+        throw new UnableToFitException("Unable to split " + method.name + method.desc + " to fit in " +
+            maxBytes + " bytes, splitting did not reduce the size");
+      }
+      splitOffMethods.addAll(splitOffs);
+      if (counts != null) counts = counts.remapped(next, origIndexes);
+      trimmed = next;
+      trimmedSize = nextSize;
+    }
+    return new FitResult(trimmed, splitOffMethods);
+  }
+
+  /**
+   * Calls {@link #splitForJit(String, MethodNode, int, int)} with {@link #HUGE_METHOD_LIMIT} and no inline target.
+   */
+  public JitResult splitForJit(String owner, MethodNode method) {
+    return splitForJit(owner, method, HUGE_METHOD_LIMIT, 0);
+  }
+
+  /**
+   * Split the given method so that HotSpot will JIT compile it. By default HotSpot never compiles methods with more
+   * than {@link #HUGE_METHOD_LIMIT} bytes of code, so they are always interpreted. This uses
+   * {@link #splitUntilFits(String, MethodNode, int, int)} so that every resulting method is at most hugeMethodLimit
+   * bytes. If inlineTarget is given, split off methods are also made at most that many bytes so they can be inlined
+   * back into the trimmed method (e.g. {@link #FREQ_INLINE_SIZE}).
+   * <p>
+   * Unlike {@link #splitUntilFits(String, MethodNode, int)}, this does its best instead of throwing. If split off
+   * methods can't be small enough for the inline target, they are only made to fit the huge method limit. If the
+   * method can't be made to fit the huge method limit, it's only made to fit {@link #MAX_CODE_SIZE} if it's larger.
+   * The result reports which was achieved. Only {@link UnableToFitException} is fallen back from, any other failure is
+   * thrown as is. The original method is never modified.
+   *
+   * @param owner The internal name of the owning class. Needed when splitting to call the split off methods.
+   * @param method The method to split, never modified
+   * @param hugeMethodLimit The most bytes of code a method can have to be compiled, same as -XX:HugeMethodLimit
+   * @param inlineTarget If &gt; 0, the most bytes of code the split off methods should have
+   * @return The result, never null
+   * @throws UnableToFitException If the method is larger than {@link #MAX_CODE_SIZE} and cannot be split to fit
+   */
+  public JitResult splitForJit(String owner, MethodNode method, int hugeMethodLimit, int inlineTarget) {
+    int originalSize = CodeSize.of(method);
+    if (inlineTarget > 0 && inlineTarget < hugeMethodLimit) {
+      try {
+        FitResult result = splitUntilFits(owner, method, hugeMethodLimit, inlineTarget);
+        return new JitResult(result, originalSize, hugeMethodLimit, inlineTarget);
+      } catch (UnableToFitException ignored) {
+        // Try again without the inline target
+      }
+    }
+    try {
+      FitResult result = splitUntilFits(owner, method, hugeMethodLimit);
+      return new JitResult(result, originalSize, hugeMethodLimit, inlineTarget);
+    } catch (UnableToFitException e) {
+      // Still has to load even if it won't be compiled, this throws if it can't
+      FitResult result = splitUntilFits(owner, method, MAX_CODE_SIZE);
+      return new JitResult(result, originalSize, hugeMethodLimit, inlineTarget);
+    }
+  }
+
+  /**
+   * Choose non-overlapping split points for a single pass of
+   * {@link #splitUntilFits(String, MethodNode, int, int)}. Only instruction ranges are computed for every start index,
+   * split off methods are only created for the ranges that are chosen. The ranges are chosen by the cost model's score
+   * of their split points, best first, until enough is removed for the method to fit. Both lists are populated in
+   * instruction order. The ranges are the longest at each start index plus, if the cost model weighs loops cut, those
+   * that run a whole loop, see {@link Splitter.Iter#wholeLoopRanges()}.
+   */
+  protected void chooseSplitPoints(String owner, MethodNode method, int maxBytes, int maxSplitOffBytes,
+      String baseName, int firstNameIndex, ExecutionProfile.Counts counts,
+      List<Splitter.SplitPoint> splitPoints, List<MethodNode> splitOffs) {
+    Splitter.Iter iter =
+        new Splitter(api, owner, method, Splitter.SizeUnit.BYTES, 1, maxSplitOffBytes).newIter();
+    // Get the largest range for every start index that could be split off on its own, and those that run a whole loop
+    List<Splitter.InsnTraverseInfo> unscored = longestRanges(iter, method);
+    ControlFlowGraph cfg = loopsCfg(iter);
+    if (cfg != null) {
+      Set<List<Integer>> unscoredBounds = new HashSet<>();
+      for (Splitter.InsnTraverseInfo info : unscored) {
+        unscoredBounds.add(Arrays.asList(info.startIndex, info.endIndex));
+      }
+      for (Splitter.InsnTraverseInfo info : iter.wholeLoopRanges()) {
+        if (unscoredBounds.add(Arrays.asList(info.startIndex, info.endIndex))) unscored.add(info);
+      }
+    }
+    // Score each by its split point, which is only kept for the ones chosen, skipping those without one
+    List<Double> scores = iter.forEachIndex(0, unscored.size(), pool, i -> {
+      Splitter.InsnTraverseInfo info = unscored.get(i);
+      Splitter.SplitPoint point = iter.splitPointFromInfo(info);
+      return point == null ? null : costModel.score(boundaryOf(point, iter.sizeOf(info), counts, cfg));
+    });
+    List<Integer> byScore = new ArrayList<>();
+    for (int i = 0; i < scores.size(); i++) if (scores.get(i) != null) byScore.add(i);
+    byScore.sort((o1, o2) -> Double.compare(scores.get(o2), scores.get(o1)));
+    List<Splitter.InsnTraverseInfo> ranges = new ArrayList<>(byScore.size());
+    for (int i : byScore) ranges.add(unscored.get(i));
+    // Take them, best first, until the method fits
+    TreeMap<Integer, Splitter.SplitPoint> chosen = new TreeMap<>();
+    Map<Splitter.SplitPoint, MethodNode> chosenSplitOffs = new HashMap<>();
+    int remainingSize = iter.codeSize.size();
+    for (Splitter.InsnTraverseInfo info : ranges) {
+      if (remainingSize <= maxBytes) break;
+      // Skip if it overlaps one already chosen
+      Map.Entry<Integer, Splitter.SplitPoint> before = chosen.floorEntry(info.startIndex);
+      if (before != null && before.getValue().start + before.getValue().length > info.startIndex) continue;
+      Map.Entry<Integer, Splitter.SplitPoint> after = chosen.ceilingEntry(info.startIndex);
+      if (after != null && after.getKey() <= info.endIndex) continue;
+      // Build the split point and method, shrinking the range until the split off method fits
+      Splitter.SplitPoint splitPoint = null;
+      MethodNode splitOff = null;
+      while (info != null) {
+        splitPoint = iter.splitPointFromInfo(info);
+        if (splitPoint == null) break;
+        // Creating the split off method costs far more than the call, e.g. with thousands of read locals, so don't
+        // bother if the call alone isn't smaller than the range
+        MethodNode callee = new MethodNode(api, 0, baseName, splitOffDesc(method, splitPoint), null, null);
+        if (splitOffCallSize(owner, callee, splitPoint) >= iter.sizeOf(info)) {
+          splitPoint = null;
+          break;
+        }
+        splitOff = createSplitOffMethod(method, splitPoint, baseName + "$split");
+        int overBy = CodeSize.of(splitOff) - maxSplitOffBytes;
+        if (overBy <= 0) break;
+        int maxEndIndex = iter.codeSize.lastEndIndexWithin(info.startIndex, iter.sizeOf(info) - overBy);
+        info = maxEndIndex < info.startIndex ? null : iter.longestRangeForIndex(info.startIndex, maxEndIndex);
+      }
+      if (info == null || splitPoint == null) continue;
+      // Only worth it if the call is smaller than what it replaces
+      int savedSize = iter.sizeOf(info) - splitOffCallSize(owner, splitOff, splitPoint);
+      if (savedSize <= 0) continue;
+      chosen.put(info.startIndex, splitPoint);
+      chosenSplitOffs.put(splitPoint, splitOff);
+      remainingSize -= savedSize;
+    }
+    // Name them in instruction order
+    for (Splitter.SplitPoint splitPoint : chosen.values()) {
+      MethodNode splitOff = chosenSplitOffs.get(splitPoint);
+      splitOff.name += "$" + (firstNameIndex + splitOffs.size());
+      splitPoints.add(splitPoint);
+      splitOffs.add(splitOff);
+    }
+  }
+
+  /** The control flow graph of the method for the loops a range cuts, or null if the cost model doesn't weigh them */
+  protected ControlFlowGraph loopsCfg(Splitter.Iter iter) { return costModel.weighsLoopsCut() ? iter.cfg() : null; }
+
+  /**
+   * The longest range at each start index that has one, in index order. This is searched concurrently if there is a
+   * pool. Sorts of the result are stable, so they are the same either way.
+   */
+  protected List<Splitter.InsnTraverseInfo> longestRanges(Splitter.Iter iter, MethodNode method) {
+    int insnCount = method.instructions.size();
+    List<Splitter.InsnTraverseInfo> ranges = new ArrayList<>();
+    for (Splitter.InsnTraverseInfo info : iter.forEachIndex(0, insnCount, pool,
+        i -> iter.longestRangeForIndex(i, insnCount - 1))) {
+      if (info != null) ranges.add(info);
+    }
+    return ranges;
+  }
+
+  /** The most bytes the code calling the split off method from the trimmed method can take */
+  protected int splitOffCallSize(String owner, MethodNode splitOff, Splitter.SplitPoint splitPoint) {
+    MethodNode scratch = new MethodNode(api);
+    // Loading a local is never smaller than its zero value, so consider them all stored
+    addSplitOffCall(owner, scratch, splitOff, splitPoint, splitPoint.localsRead.keySet());
+    if (splitPoint.caughtLocal == -1) return CodeSize.of(scratch);
+    LabelNode[] rethrowStarts = new LabelNode[splitPoint.caughtCoverageCount];
+    for (int i = 0; i < rethrowStarts.length; i++) rethrowStarts[i] = new LabelNode();
+    addCaughtRethrow(scratch, splitPoint, rethrowStarts, new LabelNode());
+    // The switch between rethrows can be padded more where it really goes
+    return CodeSize.of(scratch) + (rethrowStarts.length > 2 ? 3 : 0);
   }
 
   /**
@@ -70,107 +435,577 @@ public class SplitMethod {
     return new Result(trimmed, splitOff);
   }
 
+  /** The descriptor of the method split off at the given split point, without having to create it */
+  protected String splitOffDesc(MethodNode orig, Splitter.SplitPoint splitPoint) {
+    Type returnType =
+        splitPoint.tail ? Type.getReturnType(orig.desc) : returnConventionOf(splitPoint).returnType(splitPoint);
+    return Type.getMethodDescriptor(returnType, splitOffArgs(splitPoint).toArray(new Type[0]));
+  }
+
   protected MethodNode createSplitOffMethod(MethodNode orig, Splitter.SplitPoint splitPoint) {
-    // The new method is a static synthetic method named method.name + "$split" that returns an object array
-    // Key is previous local index, value is new local index
-    Map<Integer, Integer> localsMap = new HashMap<>();
-    // The new method's parameters are all stack items + all read locals
-    List<Type> args = new ArrayList<>(splitPoint.neededFromStackAtStart);
-    splitPoint.localsRead.forEach((index, type) -> {
-      args.add(type);
-      localsMap.put(index, args.size() - 1);
-    });
+    return createSplitOffMethod(orig, splitPoint, orig.name + "$split");
+  }
+
+  protected MethodNode createSplitOffMethod(MethodNode orig, Splitter.SplitPoint splitPoint, String name) {
+    // The new method is a static synthetic method that returns the stack items and written locals left over based on
+    // the return convention, or what the original returns for a tail. The new method's parameters are all stack
+    // items + all read locals, or the read locals packed in arrays if there are too many.
+    ReturnConvention returnConvention = returnConventionOf(splitPoint);
+    List<Type> args = splitOffArgs(splitPoint);
+    // The locals keep their original layout, just moved after the params. This way different types that share a
+    // local index in the original can't overlap something else in the new method.
+    int localOffset = 0;
+    for (Type arg : args) localOffset += arg.getSize();
     // Create the new method
-    String name = orig.name.replace("<", "__").replace(">", "__") + "$split";
     MethodNode newMethod = new MethodNode(api,
-        Opcodes.ACC_STATIC + Opcodes.ACC_PRIVATE + Opcodes.ACC_SYNTHETIC, name,
-        Type.getMethodDescriptor(Type.getType(Object[].class), args.toArray(new Type[0])), null, null);
-    // Add the written locals to the map that are not already there
-    int newLocalIndex = args.size();
-    for (Integer key : splitPoint.localsWritten.keySet()) {
-      if (!localsMap.containsKey(key)) {
-        localsMap.put(key, newLocalIndex);
-        newLocalIndex++;
-      }
-    }
-    // First set of instructions is pushing the new stack from the params
-    for (int i = 0; i < splitPoint.neededFromStackAtStart.size(); i++) {
-      Type item = splitPoint.neededFromStackAtStart.get(i);
-      newMethod.visitVarInsn(loadOpFromType(item), i);
-    }
-    // Next set of instructions comes verbatim from the original, but we have to change the local indexes
-    Set<Label> seenLabels = new HashSet<>();
+        Opcodes.ACC_STATIC + Opcodes.ACC_PRIVATE + Opcodes.ACC_SYNTHETIC, name.replace("<", "__").replace(">", "__"),
+        splitOffDesc(orig, splitPoint), null, null);
+    // First set of instructions is storing the read local params in their locals
+    int paramIndex = 0;
+    for (Type item : splitPoint.neededFromStackAtStart) paramIndex += item.getSize();
+    int nextLocalIndex = localOffset;
+    boolean packed = packsReadLocals(splitPoint);
+    // When packed, the long array param comes before the object array param and each has only the ones it needs
+    int primsParamIndex = paramIndex;
+    int refsParamIndex = paramIndex + (args.contains(LONG_ARRAY_TYPE) ? 1 : 0);
+    int primIndex = 0;
+    int refIndex = 0;
+    for (Map.Entry<Integer, Type> local : splitPoint.localsRead.entrySet()) {
+      if (!packed) {
+        newMethod.visitVarInsn(loadOpFromType(local.getValue()), paramIndex);
+        paramIndex += local.getValue().getSize();
+      } else if (isPrimitive(local.getValue())) {
+        newMethod.visitVarInsn(Opcodes.ALOAD, primsParamIndex);
+        intConst(primIndex++).accept(newMethod);
+        newMethod.visitInsn(Opcodes.LALOAD);
+        fromLongBits(local.getValue(), newMethod);
+      } else {
+        newMethod.visitVarInsn(Opcodes.ALOAD, refsParamIndex);
+        intConst(refIndex++).accept(newMethod);
+        newMethod.visitInsn(Opcodes.AALOAD);
+        if (!local.getValue().equals(OBJECT_TYPE)) {
+          newMethod.visitTypeInsn(Opcodes.CHECKCAST, local.getValue().getInternalName());
+        }
+      }
+      newMethod.visitVarInsn(storeOpFromType(local.getValue()), localOffset + local.getKey());
+      nextLocalIndex = Math.max(nextLocalIndex, localOffset + local.getKey() + local.getValue().getSize());
+    }
+    for (Map.Entry<Integer, Type> local : splitPoint.localsWritten.entrySet()) {
+      nextLocalIndex = Math.max(nextLocalIndex, localOffset + local.getKey() + local.getValue().getSize());
+    }
+    // Next set of instructions is pushing the new stack from the params
+    paramIndex = 0;
+    for (Type item : splitPoint.neededFromStackAtStart) {
+      newMethod.visitVarInsn(loadOpFromType(item), paramIndex);
+      paramIndex += item.getSize();
+    }
+    // Next set of instructions comes verbatim from the original, but we have to change the local indexes. They are
+    // cloned with new labels so nothing is shared with the original.
+    Map<LabelNode, LabelNode> labels = clonedLabels(orig);
+    Set<LabelNode> seenLabels = new HashSet<>();
+    Set<LabelNode> handlers = new HashSet<>();
+    for (TryCatchBlockNode tryCatch : orig.tryCatchBlocks) handlers.add(tryCatch.handler);
+    List<TryCatchBlockNode> caught = caughtTryCatchBlocks(orig, splitPoint);
+    LabelNode bodyStart = new LabelNode();
+    LabelNode bodyEnd = new LabelNode();
+    if (!caught.isEmpty()) newMethod.instructions.add(bodyStart);
     for (int i = 0; i < splitPoint.length; i++) {
       AbstractInsnNode insn = orig.instructions.get(i + splitPoint.start);
-      // Skip frames
-      if (insn instanceof FrameNode) continue;
+      // Frames have the locals moved and the untouched part of the stack removed
+      if (insn instanceof FrameNode) {
+        newMethod.instructions.add(splitOffFrame((FrameNode) insn, splitPoint, localOffset, labels,
+            isAfterHandler(orig.instructions.get(i + splitPoint.start), handlers)));
+        continue;
+      }
       // Store the label
-      if (insn instanceof LabelNode) seenLabels.add(((LabelNode) insn).getLabel());
+      if (insn instanceof LabelNode) seenLabels.add((LabelNode) insn);
+      // Skip line numbers whose labels aren't in here
+      if (insn instanceof LineNumberNode && !seenLabels.contains(((LineNumberNode) insn).start)) continue;
+      insn = insn.clone(labels);
       // Change the local if needed
-      if (insn instanceof VarInsnNode) {
-        insn = insn.clone(Collections.emptyMap());
-        ((VarInsnNode) insn).var = localsMap.get(((VarInsnNode) insn).var);
-      } else if (insn instanceof IincInsnNode) {
-        insn = insn.clone(Collections.emptyMap());
-        ((VarInsnNode) insn).var = localsMap.get(((VarInsnNode) insn).var);
-      }
-      insn.accept(newMethod);
-    }
-    // Final set of instructions is an object array of stack to set and then locals written
-    // Create the object array
-    int retArrSize = splitPoint.putOnStackAtEnd.size() + splitPoint.localsWritten.size();
-    intConst(retArrSize).accept(newMethod);
-    newMethod.visitTypeInsn(Opcodes.ANEWARRAY, OBJECT_TYPE.getInternalName());
-    // So, we're going to store the arr in the next avail local
-    int retArrLocalIndex = newLocalIndex;
-    newMethod.visitVarInsn(Opcodes.ASTORE, retArrLocalIndex);
-    // Now go over each stack item and load the arr, swap w/ the stack, add the index, swap with the stack, and store
-    for (int i = splitPoint.putOnStackAtEnd.size() - 1; i >= 0; i--) {
-      Type item = splitPoint.putOnStackAtEnd.get(i);
-      // Box the item on the stack if necessary
-      boxStackIfNecessary(item, newMethod);
-      // Load the array
-      newMethod.visitVarInsn(Opcodes.ALOAD, retArrLocalIndex);
-      // Swap to put stack back on top
-      newMethod.visitInsn(Opcodes.SWAP);
-      // Add the index
-      intConst(i).accept(newMethod);
-      // Swap to put the stack value back on top
-      newMethod.visitInsn(Opcodes.SWAP);
-      // Now that we have arr, index, value, we can store in the array
-      newMethod.visitInsn(Opcodes.AASTORE);
-    }
-    // Do the same with written locals
-    int currIndex = splitPoint.putOnStackAtEnd.size();
-    for (Integer index : splitPoint.localsWritten.keySet()) {
-      Type item = splitPoint.localsWritten.get(index);
-      // Load the array
-      newMethod.visitVarInsn(Opcodes.ALOAD, retArrLocalIndex);
-      // Add the arr index
-      intConst(currIndex).accept(newMethod);
-      currIndex++;
-      // Load the var
-      newMethod.visitVarInsn(loadOpFromType(item), localsMap.get(index));
-      // Box it if necessary
-      boxStackIfNecessary(item, newMethod);
-      // Store in array
-      newMethod.visitInsn(Opcodes.AASTORE);
-    }
-    // Load the array out and return it
-    newMethod.visitVarInsn(Opcodes.ALOAD, retArrLocalIndex);
-    newMethod.visitInsn(Opcodes.ARETURN);
-    // Any try catch blocks that start in here
+      if (insn instanceof VarInsnNode) ((VarInsnNode) insn).var += localOffset;
+      else if (insn instanceof IincInsnNode) ((IincInsnNode) insn).var += localOffset;
+      newMethod.instructions.add(insn);
+    }
+    if (!caught.isEmpty()) newMethod.instructions.add(bodyEnd);
+    // Jumps to the end of the split point need the frame that follows it in the original
+    if (!splitPoint.tail) {
+      for (AbstractInsnNode insn = orig.instructions.get(splitPoint.start + splitPoint.length - 1).getNext();
+          insn != null && insn.getOpcode() == -1; insn = insn.getNext()) {
+        if (insn instanceof FrameNode) {
+          newMethod.instructions.add(splitOffFrame((FrameNode) insn, splitPoint, localOffset, labels, false));
+          break;
+        }
+      }
+    }
+    // Final set of instructions returns what's left on the stack and the written locals. A tail already returns.
+    if (!splitPoint.tail) {
+      // Nothing was caught if it got here
+      if (splitPoint.caughtLocal != -1) {
+        newMethod.visitInsn(Opcodes.ACONST_NULL);
+        newMethod.visitVarInsn(Opcodes.ASTORE, localOffset + splitPoint.caughtLocal);
+        if (splitPoint.caughtCoverageCount > 1) {
+          newMethod.visitInsn(Opcodes.ICONST_0);
+          newMethod.visitVarInsn(Opcodes.ISTORE, localOffset + splitPoint.caughtLocal + 1);
+        }
+      }
+      addSplitOffReturn(newMethod, splitPoint, returnConvention, localOffset, nextLocalIndex);
+    }
+    // Each part covered by the blocks caught in here has a handler that returns what it caught instead, see
+    // SplitPoint.caughtLocal. Its frame has the locals of every handler of the blocks covering that part. Those with
+    // the same frame do the same, so they share one, which keeps deeply nested blocks from adding one each. With more
+    // than one part, each first stores its index then goes to the shared one.
+    Map<TryCatchBlockNode, Integer> coverages = caughtCoverages(orig, splitPoint, caught);
+    List<FrameNode> coverageFrames = new ArrayList<>();
+    for (TryCatchBlockNode tryCatch : caught) {
+      FrameNode frame = caughtReturnFrame(splitPoint, tryCatch.handler, localOffset, labels);
+      int coverage = coverages.get(tryCatch);
+      if (coverage == coverageFrames.size()) coverageFrames.add(frame);
+      else coverageFrames.set(coverage, mergedCaughtFrame(coverageFrames.get(coverage), frame));
+    }
+    List<LabelNode> coverageHandlers = new ArrayList<>();
+    Map<List<Object>, LabelNode> caughtHandlersByFrame = new HashMap<>();
+    for (int i = 0; i < coverageFrames.size(); i++) {
+      FrameNode frame = coverageFrames.get(i);
+      LabelNode sharedHandler = caughtHandlersByFrame.get(frame.local);
+      if (sharedHandler == null) {
+        sharedHandler = new LabelNode();
+        caughtHandlersByFrame.put(frame.local, sharedHandler);
+        addCaughtReturn(newMethod, splitPoint, returnConvention, frame, sharedHandler, localOffset, nextLocalIndex);
+      }
+      LabelNode handler = sharedHandler;
+      if (splitPoint.caughtCoverageCount > 1) {
+        handler = new LabelNode();
+        newMethod.instructions.add(handler);
+        newMethod.instructions.add(frame);
+        intConst(i).accept(newMethod);
+        newMethod.visitVarInsn(Opcodes.ISTORE, localOffset + splitPoint.caughtLocal + 1);
+        newMethod.instructions.add(new JumpInsnNode(Opcodes.GOTO, sharedHandler));
+      }
+      coverageHandlers.add(handler);
+    }
+    // Any try catch blocks that start in here, and the part in here of those caught. They're kept in the original order
+    // since that's the order a thrown exception is matched in.
+    int endIndex = splitPoint.start + splitPoint.length - 1;
     for (TryCatchBlockNode tryCatch : orig.tryCatchBlocks) {
-      if (seenLabels.contains(tryCatch.start.getLabel())) tryCatch.accept(newMethod);
+      Integer coverage = coverages.get(tryCatch);
+      if (coverage != null) {
+        LabelNode handler = coverageHandlers.get(coverage);
+        LabelNode start = orig.instructions.indexOf(tryCatch.start) >= splitPoint.start ?
+            labels.get(tryCatch.start) : bodyStart;
+        LabelNode end = orig.instructions.indexOf(tryCatch.end) <= endIndex ? labels.get(tryCatch.end) : bodyEnd;
+        if (hasInsnBetween(start, end)) {
+          newMethod.tryCatchBlocks.add(tryCatchBlockPart(tryCatch, start, end, handler));
+        }
+      } else if (seenLabels.contains(tryCatch.start)) {
+        newMethod.tryCatchBlocks.add(clonedTryCatchBlock(tryCatch, labels));
+      }
     }
-    // Reset the labels
-    newMethod.instructions.resetLabels();
+    removeDeadLocalsFromFrames(newMethod);
+    setMaxs(orig, newMethod);
     return newMethod;
   }
 
+  /**
+   * Create the frame for the split off method from a frame of the original inside the split point. The locals are
+   * moved after the params which are considered TOP since they are never used after the start. The untouched part of
+   * the stack is removed unless the frame is for a catch handler whose stack only ever has the exception.
+   */
+  protected static FrameNode splitOffFrame(FrameNode frame, Splitter.SplitPoint splitPoint, int localOffset,
+      Map<LabelNode, LabelNode> labels, boolean handler) {
+    List<Object> local = new ArrayList<>(Collections.nCopies(localOffset, Opcodes.TOP));
+    for (Object item : frame.local) local.add(clonedFrameItem(item, labels));
+    List<Object> stack = new ArrayList<>();
+    int untouchedSize = handler ? 0 : splitPoint.untouchedStackSize;
+    int size = 0;
+    for (Object item : frame.stack) {
+      if (size >= untouchedSize) stack.add(clonedFrameItem(item, labels));
+      size += item == Opcodes.LONG || item == Opcodes.DOUBLE ? 2 : 1;
+    }
+    return new FrameNode(Opcodes.F_NEW, local.size(), local.toArray(), stack.size(), stack.toArray());
+  }
+
+  /**
+   * Whether the instruction is preceded by a catch handler's label with only labels, line numbers, or frames between
+   */
+  protected static boolean isAfterHandler(AbstractInsnNode insn, Set<LabelNode> handlers) {
+    for (AbstractInsnNode prev = insn.getPrevious(); prev != null && prev.getOpcode() == -1;
+        prev = prev.getPrevious()) {
+      if (handlers.contains(prev)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * The try/catch blocks of the original that the split off method catches for, see
+   * {@link Splitter.SplitPoint#caughtLocal}, in the original order. These are the ones that cover any of the split
+   * point without being wholly inside it with their handler. Empty if it has no caught local.
+   */
+  protected static List<TryCatchBlockNode> caughtTryCatchBlocks(MethodNode orig, Splitter.SplitPoint splitPoint) {
+    List<TryCatchBlockNode> ret = new ArrayList<>();
+    if (splitPoint.caughtLocal == -1) return ret;
+    int endIndex = splitPoint.start + splitPoint.length - 1;
+    for (TryCatchBlockNode tryCatch : orig.tryCatchBlocks) {
+      int start = orig.instructions.indexOf(tryCatch.start);
+      int end = orig.instructions.indexOf(tryCatch.end);
+      int handler = orig.instructions.indexOf(tryCatch.handler);
+      if (start > endIndex || end <= splitPoint.start) continue;
+      if (start < splitPoint.start || end > endIndex || handler < splitPoint.start || handler > endIndex) {
+        ret.add(tryCatch);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * The index of the part of the split point each of the given try/catch blocks caught for covers, going by the order
+   * they first appear. It's what the split off method returns for the block, see
+   * {@link Splitter.SplitPoint#caughtCoverageCount}.
+   */
+  protected static Map<TryCatchBlockNode, Integer> caughtCoverages(MethodNode orig, Splitter.SplitPoint splitPoint,
+      List<TryCatchBlockNode> caught) {
+    Map<TryCatchBlockNode, Integer> ret = new HashMap<>();
+    Map<List<Integer>, Integer> indexes = new HashMap<>();
+    for (TryCatchBlockNode tryCatch : caught) {
+      List<Integer> coverage = Arrays.asList(Math.max(orig.instructions.indexOf(tryCatch.start), splitPoint.start),
+          Math.min(orig.instructions.indexOf(tryCatch.end), splitPoint.start + splitPoint.length));
+      Integer index = indexes.get(coverage);
+      if (index == null) {
+        index = indexes.size();
+        indexes.put(coverage, index);
+      }
+      ret.put(tryCatch, index);
+    }
+    return ret;
+  }
+
+  /**
+   * The frame of the handler the split off method returns from for a try/catch block it catches for, see
+   * {@link #addCaughtReturn(MethodNode, Splitter.SplitPoint, ReturnConvention, FrameNode, LabelNode, int, int)}. It's
+   * the original handler's frame with only the read locals, since they're the only ones set from the start. The
+   * original's holds for everything its blocks cover, including what's in the split off method.
+   */
+  protected static FrameNode caughtReturnFrame(Splitter.SplitPoint splitPoint, LabelNode origHandler, int localOffset,
+      Map<LabelNode, LabelNode> labels) {
+    FrameNode origFrame = null;
+    for (AbstractInsnNode insn = origHandler; insn != null && insn.getOpcode() == -1; insn = insn.getNext()) {
+      if (insn instanceof FrameNode) {
+        origFrame = (FrameNode) insn;
+        break;
+      }
+    }
+    if (origFrame == null) throw new IllegalStateException("No frame for catch handler");
+    FrameNode frame = splitOffFrame(origFrame, splitPoint, localOffset, labels, true);
+    List<Object> local = new ArrayList<>();
+    int slot = 0;
+    for (Object item : frame.local) {
+      boolean wide = item == Opcodes.LONG || item == Opcodes.DOUBLE;
+      if (slot < localOffset || splitPoint.localsRead.containsKey(slot - localOffset)) {
+        local.add(item);
+      } else {
+        local.add(Opcodes.TOP);
+        if (wide) local.add(Opcodes.TOP);
+      }
+      slot += wide ? 2 : 1;
+    }
+    frame.local = local;
+    // Only stored as a throwable, so handlers of blocks catching different types can share it
+    frame.stack = Collections.singletonList(THROWABLE_TYPE.getInternalName());
+    return frame;
+  }
+
+  /**
+   * The frame with each local as either of the given frames from
+   * {@link #caughtReturnFrame(Splitter.SplitPoint, LabelNode, int, Map)} has it if not TOP in both, for the handler of
+   * a part covered by both their blocks. Each holds for everything in that part, so either's item does.
+   */
+  protected static FrameNode mergedCaughtFrame(FrameNode first, FrameNode second) {
+    List<Object> firstSlots = frameSlots(first.local);
+    List<Object> secondSlots = frameSlots(second.local);
+    List<Object> local = new ArrayList<>();
+    for (int slot = 0; slot < Math.max(firstSlots.size(), secondSlots.size()); ) {
+      Object item = slot < firstSlots.size() ? firstSlots.get(slot) : Opcodes.TOP;
+      if (item == Opcodes.TOP && slot < secondSlots.size()) item = secondSlots.get(slot);
+      local.add(item);
+      slot += item == Opcodes.LONG || item == Opcodes.DOUBLE ? 2 : 1;
+    }
+    return new FrameNode(Opcodes.F_NEW, local.size(), local.toArray(), first.stack.size(), first.stack.toArray());
+  }
+
+  /** The frame items with a TOP after each long or double, so there's one for each slot */
+  protected static List<Object> frameSlots(List<Object> items) {
+    List<Object> ret = new ArrayList<>();
+    for (Object item : items) {
+      ret.add(item);
+      if (item == Opcodes.LONG || item == Opcodes.DOUBLE) ret.add(Opcodes.TOP);
+    }
+    return ret;
+  }
+
+  /**
+   * Add a handler with the given frame (see {@link #caughtReturnFrame(Splitter.SplitPoint, LabelNode, int, Map)}) to
+   * the split off method for try/catch blocks it catches for. It returns like the end of the split off method does with
+   * the caught exception in the caught local. Written locals the handlers read are always read locals too (see
+   * {@link Splitter.SplitPoint#caughtLocal}), so the rest are returned as zero along with the stack items. With more
+   * than one part of the split point covered, the index of the part has already been stored when it's jumped to.
+   */
+  protected void addCaughtReturn(MethodNode newMethod, Splitter.SplitPoint splitPoint,
+      ReturnConvention returnConvention, FrameNode frame, LabelNode handler, int localOffset, int nextLocalIndex) {
+    if (splitPoint.caughtCoverageCount > 1) {
+      List<Object> local = new ArrayList<>(frame.local);
+      int slots = 0;
+      for (Object item : local) slots += item == Opcodes.LONG || item == Opcodes.DOUBLE ? 2 : 1;
+      for (; slots <= localOffset + splitPoint.caughtLocal; slots++) local.add(Opcodes.TOP);
+      local.add(Opcodes.INTEGER);
+      frame = new FrameNode(Opcodes.F_NEW, local.size(), local.toArray(), frame.stack.size(), frame.stack.toArray());
+    }
+    newMethod.instructions.add(handler);
+    newMethod.instructions.add(frame);
+    newMethod.visitVarInsn(Opcodes.ASTORE, localOffset + splitPoint.caughtLocal);
+    for (Map.Entry<Integer, Type> written : splitPoint.localsWritten.entrySet()) {
+      int var = localOffset + written.getKey();
+      if (written.getKey() == splitPoint.caughtLocal || written.getValue().equals(frameLocalType(frame, var))) {
+        continue;
+      }
+      zeroVal(written.getValue()).accept(newMethod);
+      newMethod.visitVarInsn(storeOpFromType(written.getValue()), var);
+    }
+    for (Type item : splitPoint.putOnStackAtEnd) zeroVal(item).accept(newMethod);
+    addSplitOffReturn(newMethod, splitPoint, returnConvention, localOffset, nextLocalIndex);
+  }
+
+  /** The type of the local in the frame the same as {@link FrameTable#typeFromItem(Object)}, or null if not known */
+  protected static Type frameLocalType(FrameNode frame, int var) {
+    int slot = 0;
+    for (Object item : frame.local) {
+      if (slot == var) {
+        if (item == Opcodes.INTEGER) return Type.INT_TYPE;
+        else if (item == Opcodes.FLOAT) return Type.FLOAT_TYPE;
+        else if (item == Opcodes.LONG) return Type.LONG_TYPE;
+        else if (item == Opcodes.DOUBLE) return Type.DOUBLE_TYPE;
+        else if (item == Opcodes.NULL) return OBJECT_TYPE;
+        else if (item instanceof String) return Type.getObjectType((String) item);
+        return null;
+      }
+      slot += item == Opcodes.LONG || item == Opcodes.DOUBLE ? 2 : 1;
+    }
+    return null;
+  }
+
+  /** Whether there's an instruction that isn't a label, line number, or frame between the labels */
+  protected static boolean hasInsnBetween(LabelNode start, LabelNode end) {
+    for (AbstractInsnNode insn = start; insn != null && insn != end; insn = insn.getNext()) {
+      if (insn.getOpcode() != -1) return true;
+    }
+    return false;
+  }
+
+  protected static Object clonedFrameItem(Object item, Map<LabelNode, LabelNode> labels) {
+    return item instanceof LabelNode ? labels.get(item) : item;
+  }
+
+  /**
+   * Replace the locals in every frame of the method that are not live there with TOP, and drop trailing TOPs. The
+   * original's frames may have locals that are still in scope but not set in the new method, e.g. a local only set in
+   * a split point that isn't used after it. Live ones are always set in the new method the same as in the original.
+   */
+  protected static void removeDeadLocalsFromFrames(MethodNode method) {
+    Liveness liveness = null;
+    AbstractInsnNode[] insns = method.instructions.toArray();
+    for (int i = 0; i < insns.length; i++) {
+      if (!(insns[i] instanceof FrameNode)) continue;
+      if (liveness == null) liveness = new Liveness(method);
+      FrameNode frame = (FrameNode) insns[i];
+      List<Object> local = new ArrayList<>();
+      int slot = 0;
+      for (Object item : frame.local) {
+        boolean wide = item == Opcodes.LONG || item == Opcodes.DOUBLE;
+        if (item == Opcodes.TOP || liveness.isLive(i, slot)) {
+          local.add(item);
+        } else {
+          local.add(Opcodes.TOP);
+          if (wide) local.add(Opcodes.TOP);
+        }
+        slot += wide ? 2 : 1;
+      }
+      while (!local.isEmpty() && local.get(local.size() - 1) == Opcodes.TOP) local.remove(local.size() - 1);
+      frame.local = local;
+    }
+  }
+
+  /**
+   * Set the max stack and locals of the new method. The stack is computed from the instructions but is never less than
+   * the original's since parts whose stack isn't known without frames (e.g. reached only by a later jump) come from
+   * it. The locals are computed from the params, the instructions, and the frames.
+   */
+  protected void setMaxs(MethodNode orig, MethodNode method) {
+    // The owner is only used for uninitialized this which doesn't affect the size
+    FrameTable frames = new FrameTable(api, "java/lang/Object", method);
+    int maxStack = orig.maxStack;
+    for (int i = 0; i <= frames.size(); i++) {
+      Object[] stack = frames.stackAt(i);
+      if (stack != null) maxStack = Math.max(maxStack, stack.length);
+    }
+    int maxLocals = Type.getArgumentsAndReturnSizes(method.desc) >> 2;
+    if ((method.access & Opcodes.ACC_STATIC) != 0) maxLocals--;
+    for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+      if (insn instanceof VarInsnNode) {
+        int op = insn.getOpcode();
+        boolean wide = op == Opcodes.LLOAD || op == Opcodes.DLOAD || op == Opcodes.LSTORE || op == Opcodes.DSTORE;
+        maxLocals = Math.max(maxLocals, ((VarInsnNode) insn).var + (wide ? 2 : 1));
+      } else if (insn instanceof IincInsnNode) {
+        maxLocals = Math.max(maxLocals, ((IincInsnNode) insn).var + 1);
+      } else if (insn instanceof FrameNode) {
+        int slots = 0;
+        for (Object item : ((FrameNode) insn).local) slots += item == Opcodes.LONG || item == Opcodes.DOUBLE ? 2 : 1;
+        maxLocals = Math.max(maxLocals, slots);
+      }
+    }
+    method.maxStack = maxStack;
+    method.maxLocals = maxLocals;
+  }
+
+  /**
+   * Add the code to the end of the split off method that returns the stack items and written locals the trimmed method
+   * needs using the given convention. The stack items are the only thing on the stack.
+   */
+  protected void addSplitOffReturn(MethodNode newMethod, Splitter.SplitPoint splitPoint,
+      ReturnConvention returnConvention, int localOffset, int nextLocalIndex) {
+    List<Type> outputs = ReturnConvention.outputsOf(splitPoint);
+    int stackCount = splitPoint.putOnStackAtEnd.size();
+    // The local index of each output, only for the written locals after the stack items
+    List<Integer> outputLocals = new ArrayList<>(Collections.nCopies(stackCount, -1));
+    for (Integer index : splitPoint.localsWritten.keySet()) outputLocals.add(localOffset + index);
+    switch (returnConvention) {
+      case VOID:
+        newMethod.visitInsn(Opcodes.RETURN);
+        break;
+      case DIRECT:
+        // A single stack item is already there, otherwise load the local
+        if (stackCount == 0) newMethod.visitVarInsn(loadOpFromType(outputs.get(0)), outputLocals.get(0));
+        newMethod.visitInsn(outputs.get(0).getOpcode(Opcodes.IRETURN));
+        break;
+      case PACKED_LONG:
+        // Get the raw bits of both on the stack, first below second
+        if (stackCount == 2) {
+          if (outputs.get(0) == Type.FLOAT_TYPE) {
+            newMethod.visitInsn(Opcodes.SWAP);
+            toRawBitsIfNecessary(outputs.get(0), newMethod);
+            newMethod.visitInsn(Opcodes.SWAP);
+          }
+        } else {
+          if (stackCount == 0) newMethod.visitVarInsn(loadOpFromType(outputs.get(0)), outputLocals.get(0));
+          toRawBitsIfNecessary(outputs.get(0), newMethod);
+          newMethod.visitVarInsn(loadOpFromType(outputs.get(1)), outputLocals.get(1));
+        }
+        toRawBitsIfNecessary(outputs.get(1), newMethod);
+        // Shift the second to the high bits, move it below the first, and OR it with the first's unsigned low bits
+        newMethod.visitInsn(Opcodes.I2L);
+        intConst(32).accept(newMethod);
+        newMethod.visitInsn(Opcodes.LSHL);
+        newMethod.visitInsn(Opcodes.DUP2_X1);
+        newMethod.visitInsn(Opcodes.POP2);
+        newMethod.visitInsn(Opcodes.I2L);
+        newMethod.visitLdcInsn(0xFFFFFFFFL);
+        newMethod.visitInsn(Opcodes.LAND);
+        newMethod.visitInsn(Opcodes.LOR);
+        newMethod.visitInsn(Opcodes.LRETURN);
+        break;
+      case LONG_ARRAY:
+        // Same as the object array below, but with everything as long bits and no swapping since they take two slots
+        intConst(outputs.size()).accept(newMethod);
+        newMethod.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_LONG);
+        newMethod.visitVarInsn(Opcodes.ASTORE, nextLocalIndex);
+        for (int i = stackCount - 1; i >= 0; i--) {
+          toLongBits(outputs.get(i), newMethod);
+          // Get from value to arr, index, value
+          newMethod.visitVarInsn(Opcodes.ALOAD, nextLocalIndex);
+          newMethod.visitInsn(Opcodes.DUP_X2);
+          newMethod.visitInsn(Opcodes.POP);
+          intConst(i).accept(newMethod);
+          newMethod.visitInsn(Opcodes.DUP_X2);
+          newMethod.visitInsn(Opcodes.POP);
+          newMethod.visitInsn(Opcodes.LASTORE);
+        }
+        for (int i = stackCount; i < outputs.size(); i++) {
+          newMethod.visitVarInsn(Opcodes.ALOAD, nextLocalIndex);
+          intConst(i).accept(newMethod);
+          newMethod.visitVarInsn(loadOpFromType(outputs.get(i)), outputLocals.get(i));
+          toLongBits(outputs.get(i), newMethod);
+          newMethod.visitInsn(Opcodes.LASTORE);
+        }
+        newMethod.visitVarInsn(Opcodes.ALOAD, nextLocalIndex);
+        newMethod.visitInsn(Opcodes.ARETURN);
+        break;
+      case OBJECT_ARRAY:
+        // Create the object array
+        int retArrSize = splitPoint.putOnStackAtEnd.size() + splitPoint.localsWritten.size();
+        intConst(retArrSize).accept(newMethod);
+        newMethod.visitTypeInsn(Opcodes.ANEWARRAY, OBJECT_TYPE.getInternalName());
+        // So, we're going to store the arr in the next avail local
+        int retArrLocalIndex = nextLocalIndex;
+        newMethod.visitVarInsn(Opcodes.ASTORE, retArrLocalIndex);
+        // Now go over each stack item and load the arr, swap w/ the stack, add the index, swap with the stack, store
+        for (int i = splitPoint.putOnStackAtEnd.size() - 1; i >= 0; i--) {
+          Type item = splitPoint.putOnStackAtEnd.get(i);
+          // Box the item on the stack if necessary
+          boxStackIfNecessary(item, newMethod);
+          // Load the array
+          newMethod.visitVarInsn(Opcodes.ALOAD, retArrLocalIndex);
+          // Swap to put stack back on top
+          newMethod.visitInsn(Opcodes.SWAP);
+          // Add the index
+          intConst(i).accept(newMethod);
+          // Swap to put the stack value back on top
+          newMethod.visitInsn(Opcodes.SWAP);
+          // Now that we have arr, index, value, we can store in the array
+          newMethod.visitInsn(Opcodes.AASTORE);
+        }
+        // Do the same with written locals
+        int currIndex = splitPoint.putOnStackAtEnd.size();
+        for (Integer index : splitPoint.localsWritten.keySet()) {
+          Type item = splitPoint.localsWritten.get(index);
+          // Load the array
+          newMethod.visitVarInsn(Opcodes.ALOAD, retArrLocalIndex);
+          // Add the arr index
+          intConst(currIndex).accept(newMethod);
+          currIndex++;
+          // Load the var
+          newMethod.visitVarInsn(loadOpFromType(item), localOffset + index);
+          // Box it if necessary
+          boxStackIfNecessary(item, newMethod);
+          // Store in array
+          newMethod.visitInsn(Opcodes.AASTORE);
+        }
+        // Load the array out and return it
+        newMethod.visitVarInsn(Opcodes.ALOAD, retArrLocalIndex);
+        newMethod.visitInsn(Opcodes.ARETURN);
+        break;
+    }
+  }
+
   protected MethodNode createTrimmedMethod(String owner, MethodNode orig,
       MethodNode splitOff, Splitter.SplitPoint splitPoint) {
-    // The trimmed method is the same as the original, yet the split area is replaced with a call to the split off
+    return createTrimmedMethod(owner, orig, Collections.singletonList(splitOff),
+        Collections.singletonList(splitPoint));
+  }
+
+  /**
+   * Create the trimmed method with each split point replaced by a call to its split off method. Split points must be
+   * in instruction order and not overlap.
+   */
+  protected MethodNode createTrimmedMethod(String owner, MethodNode orig,
+      List<MethodNode> splitOffs, List<Splitter.SplitPoint> splitPoints) {
+    return createTrimmedMethod(owner, orig, splitOffs, splitPoints, null);
+  }
+
+  /**
+   * Same as {@link #createTrimmedMethod(String, MethodNode, List, List)} and, if origIndexes is not null, puts the
+   * index in the original of each instruction cloned from it
+   */
+  protected MethodNode createTrimmedMethod(String owner, MethodNode orig, List<MethodNode> splitOffs,
+      List<Splitter.SplitPoint> splitPoints, Map<AbstractInsnNode, Integer> origIndexes) {
+    // The trimmed method is the same as the original, yet each split area is replaced with a call to the split off
     // portion. Before calling the split-off, we have to add locals to the stack part. Then afterwards, we have to
     // replace the stack and written locals.
     // Effectively clone the orig
@@ -181,7 +1016,12 @@ public class SplitMethod {
     newMethod.instructions.clear();
     // Remove all try catch blocks and keep track of seen labels, we'll re-add them at the end
     newMethod.tryCatchBlocks.clear();
-    Set<Label> seenLabels = new HashSet<>();
+    // Same with local variables since they may refer to labels that were split off
+    newMethod.localVariables = new ArrayList<>();
+    newMethod.visibleLocalVariableAnnotations = null;
+    newMethod.invisibleLocalVariableAnnotations = null;
+    Map<LabelNode, LabelNode> labels = clonedLabels(orig);
+    Set<LabelNode> seenLabels = new HashSet<>();
     // Also keep track of the locals that have been stored, need to know
     Set<Integer> seenStoredLocals = new HashSet<>();
     int paramOffset = 0;
@@ -191,99 +1031,644 @@ public class SplitMethod {
       paramOffset = 1;
     }
     // We also consider parameters as seen
-    int paramCount = Type.getArgumentTypes(orig.desc).length;
-    for (int i = 0; i < paramCount; i++) seenStoredLocals.add(i + paramOffset);
-    // Add the insns before split
-    for (int i = 0; i < splitPoint.start; i++) {
+    for (Type paramType : Type.getArgumentTypes(orig.desc)) {
+      seenStoredLocals.add(paramOffset);
+      paramOffset += paramType.getSize();
+    }
+    // Labels before the call of each split point, and for each that catches the call start, the start of each rethrow,
+    // and the end of the last one
+    Map<Splitter.SplitPoint, LabelNode> callStarts = new HashMap<>();
+    Map<Splitter.SplitPoint, LabelNode[]> rethrows = new HashMap<>();
+    // Add the insns, replacing each split point with a call
+    int splitPointIndex = 0;
+    for (int i = 0; i < orig.instructions.size(); i++) {
+      if (splitPointIndex < splitPoints.size() && splitPoints.get(splitPointIndex).start == i) {
+        Splitter.SplitPoint splitPoint = splitPoints.get(splitPointIndex);
+        // Frames before the first real insn of the split point are still the state at the call
+        for (int j = i; j < i + splitPoint.length && orig.instructions.get(j).getOpcode() == -1; j++) {
+          AbstractInsnNode insn = orig.instructions.get(j);
+          if (insn instanceof FrameNode) addClone(newMethod, insn, j, labels, origIndexes);
+        }
+        LabelNode callStart = new LabelNode();
+        newMethod.instructions.add(callStart);
+        callStarts.put(splitPoint, callStart);
+        addSplitOffCall(owner, newMethod, splitOffs.get(splitPointIndex), splitPoint, seenStoredLocals);
+        if (splitPoint.caughtLocal != -1) {
+          LabelNode[] rethrow = new LabelNode[splitPoint.caughtCoverageCount + 2];
+          rethrow[0] = callStart;
+          for (int j = 1; j < rethrow.length; j++) rethrow[j] = new LabelNode();
+          addCaughtRethrow(newMethod, splitPoint, Arrays.copyOfRange(rethrow, 1, rethrow.length - 1),
+              rethrow[rethrow.length - 1]);
+          rethrows.put(splitPoint, rethrow);
+        }
+        // The written locals are stored now
+        seenStoredLocals.addAll(splitPoint.localsWritten.keySet());
+        i += splitPoint.length - 1;
+        splitPointIndex++;
+        continue;
+      }
       AbstractInsnNode insn = orig.instructions.get(i);
-      // Skip frames
-      if (insn instanceof FrameNode) continue;
+      // Frames are kept since everything outside the split points is unchanged. This lets the trimmed method be
+      // analyzed again for another pass.
       // Record label
-      if (insn instanceof LabelNode) seenLabels.add(((LabelNode) insn).getLabel());
+      if (insn instanceof LabelNode) seenLabels.add((LabelNode) insn);
+      // Skip line numbers whose labels were split off
+      if (insn instanceof LineNumberNode && !seenLabels.contains(((LineNumberNode) insn).start)) continue;
       // Check a local store has happened
       if (insn instanceof VarInsnNode && isStoreOp(insn.getOpcode())) seenStoredLocals.add(((VarInsnNode) insn).var);
-      insn.accept(newMethod);
+      addClone(newMethod, insn, i, labels, origIndexes);
+    }
+    // Add any try catch blocks that started in here. Those a split off method catches for are cut around its call and
+    // cover the rethrow for the part they cover instead.
+    Map<Splitter.SplitPoint, Map<TryCatchBlockNode, Integer>> coverages = new HashMap<>();
+    for (Splitter.SplitPoint splitPoint : rethrows.keySet()) {
+      coverages.put(splitPoint, caughtCoverages(orig, splitPoint, caughtTryCatchBlocks(orig, splitPoint)));
+    }
+    for (TryCatchBlockNode tryCatch : orig.tryCatchBlocks) {
+      List<Splitter.SplitPoint> catching = new ArrayList<>();
+      for (Splitter.SplitPoint splitPoint : splitPoints) {
+        if (rethrows.containsKey(splitPoint) && coverages.get(splitPoint).containsKey(tryCatch)) {
+          catching.add(splitPoint);
+        }
+      }
+      LabelNode handler = labels.get(tryCatch.handler);
+      LabelNode partStart = seenLabels.contains(tryCatch.start) ? labels.get(tryCatch.start) : null;
+      int endIndex = orig.instructions.indexOf(tryCatch.end);
+      if (catching.isEmpty() && partStart != null && seenLabels.contains(tryCatch.end)) {
+        newMethod.tryCatchBlocks.add(clonedTryCatchBlock(tryCatch, labels));
+        continue;
+      }
+      // An end that was split off is at the start of a split point that doesn't catch for it, so it ends at the call
+      LabelNode end = labels.get(tryCatch.end);
+      if (!seenLabels.contains(tryCatch.end)) {
+        for (Splitter.SplitPoint splitPoint : splitPoints) {
+          if (splitPoint.start <= endIndex && splitPoint.start + splitPoint.length > endIndex) {
+            end = callStarts.get(splitPoint);
+          }
+        }
+      }
+      for (Splitter.SplitPoint splitPoint : catching) {
+        LabelNode[] rethrow = rethrows.get(splitPoint);
+        if (partStart != null && hasInsnBetween(partStart, rethrow[0])) {
+          newMethod.tryCatchBlocks.add(tryCatchBlockPart(tryCatch, partStart, rethrow[0], handler));
+        }
+        int coverage = coverages.get(splitPoint).get(tryCatch);
+        newMethod.tryCatchBlocks.add(
+            tryCatchBlockPart(tryCatch, rethrow[coverage + 1], rethrow[coverage + 2], handler));
+        // It goes on after the call unless it ended in the split point
+        partStart = endIndex >= splitPoint.start + splitPoint.length ? rethrow[rethrow.length - 1] : null;
+      }
+      if (partStart != null && hasInsnBetween(partStart, end)) {
+        newMethod.tryCatchBlocks.add(tryCatchBlockPart(tryCatch, partStart, end, handler));
+      }
+    }
+    // Add back the local variables whose labels are all still here
+    if (orig.localVariables != null) {
+      for (LocalVariableNode local : orig.localVariables) {
+        if (seenLabels.contains(local.start) && seenLabels.contains(local.end)) {
+          newMethod.localVariables.add(new LocalVariableNode(local.name, local.desc, local.signature,
+              labels.get(local.start), labels.get(local.end), local.index));
+        }
+      }
+    }
+    // The rethrows are jumped to as well if there's more than one
+    List<LabelNode> afterRethrows = new ArrayList<>();
+    for (LabelNode[] rethrow : rethrows.values()) {
+      afterRethrows.add(rethrow[rethrow.length - 1]);
+      if (rethrow.length > 3) afterRethrows.addAll(Arrays.asList(rethrow).subList(1, rethrow.length - 1));
+    }
+    addFramesAfterRethrows(owner, newMethod, afterRethrows);
+    removeDeadLocalsFromFrames(newMethod);
+    setMaxs(orig, newMethod);
+    return newMethod;
+  }
+
+  /**
+   * Add the code after a call whose split off method catches that rethrows what it caught, if anything, see
+   * {@link Splitter.SplitPoint#caughtLocal}. There's a rethrow for each part of the split point covered, switched to by
+   * the returned index if more than one. The blocks it caught for cover from the start of their part's rethrow to the
+   * start of the next one, or to callEnd for the last, which are added before each throw.
+   */
+  protected void addCaughtRethrow(MethodNode newMethod, Splitter.SplitPoint splitPoint, LabelNode[] rethrowStarts,
+      LabelNode callEnd) {
+    newMethod.visitVarInsn(Opcodes.ALOAD, splitPoint.caughtLocal);
+    newMethod.instructions.add(new JumpInsnNode(Opcodes.IFNULL, callEnd));
+    // Two only need one jump, which is much smaller than a switch
+    if (rethrowStarts.length == 2) {
+      newMethod.visitVarInsn(Opcodes.ILOAD, splitPoint.caughtLocal + 1);
+      newMethod.instructions.add(new JumpInsnNode(Opcodes.IFNE, rethrowStarts[1]));
+    } else if (rethrowStarts.length > 2) {
+      newMethod.visitVarInsn(Opcodes.ILOAD, splitPoint.caughtLocal + 1);
+      newMethod.instructions.add(new TableSwitchInsnNode(0, rethrowStarts.length - 1,
+          rethrowStarts[rethrowStarts.length - 1], rethrowStarts));
+    }
+    for (LabelNode rethrowStart : rethrowStarts) {
+      newMethod.instructions.add(rethrowStart);
+      newMethod.visitVarInsn(Opcodes.ALOAD, splitPoint.caughtLocal);
+      newMethod.visitInsn(Opcodes.ATHROW);
+    }
+    newMethod.instructions.add(callEnd);
+  }
+
+  /**
+   * Add a frame at each of the given labels after a rethrow (see
+   * {@link #addCaughtRethrow(MethodNode, Splitter.SplitPoint, LabelNode[], LabelNode)}) unless there's already one.
+   * It's the state after the call, the same for each rethrow and for when nothing was rethrown.
+   */
+  protected void addFramesAfterRethrows(String owner, MethodNode method, List<LabelNode> afterRethrows) {
+    if (afterRethrows.isEmpty()) return;
+    FrameTable frames = new FrameTable(api, owner, method);
+    Map<Label, LabelNode> labelNodes = new HashMap<>();
+    for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+      if (insn instanceof LabelNode) labelNodes.put(((LabelNode) insn).getLabel(), (LabelNode) insn);
+    }
+    Map<LabelNode, FrameNode> added = new HashMap<>();
+    for (LabelNode label : afterRethrows) {
+      boolean hasFrame = false;
+      for (AbstractInsnNode insn = label; insn != null && insn.getOpcode() == -1; insn = insn.getNext()) {
+        if (insn instanceof FrameNode) hasFrame = true;
+      }
+      if (hasFrame) continue;
+      int index = method.instructions.indexOf(label);
+      Object[] local = frameItems(frames.locals[index], labelNodes);
+      Object[] stack = frameItems(frames.stackAt(index), labelNodes);
+      added.put(label, new FrameNode(Opcodes.F_NEW, local.length, local, stack.length, stack));
+    }
+    added.forEach(method.instructions::insert);
+  }
+
+  /** Stack or local items as {@link FrameTable} has them in the form of a frame */
+  protected static Object[] frameItems(Object[] items, Map<Label, LabelNode> labelNodes) {
+    List<Object> ret = new ArrayList<>();
+    for (int i = 0; i < items.length; i++) {
+      Object item = items[i];
+      if (item instanceof Label) item = labelNodes.containsKey(item) ? labelNodes.get(item) : Opcodes.TOP;
+      ret.add(item);
+      // Long and double take two items but only one in a frame
+      if (item == Opcodes.LONG || item == Opcodes.DOUBLE) i++;
+    }
+    return ret.toArray();
+  }
+
+  /**
+   * Add a clone of the instruction at the index of the original to the new method, recording the index for it if
+   * origIndexes isn't null
+   */
+  protected static void addClone(MethodNode newMethod, AbstractInsnNode insn, int index,
+      Map<LabelNode, LabelNode> labels, Map<AbstractInsnNode, Integer> origIndexes) {
+    AbstractInsnNode clone = insn.clone(labels);
+    newMethod.instructions.add(clone);
+    if (origIndexes != null) origIndexes.put(clone, index);
+  }
+
+  /** New labels for every label in the method, for use with {@link AbstractInsnNode#clone(Map)} */
+  protected static Map<LabelNode, LabelNode> clonedLabels(MethodNode method) {
+    Map<LabelNode, LabelNode> ret = new HashMap<>();
+    for (AbstractInsnNode insn : method.instructions.toArray()) {
+      if (insn instanceof LabelNode) ret.put((LabelNode) insn, new LabelNode());
+    }
+    return ret;
+  }
+
+  protected static TryCatchBlockNode clonedTryCatchBlock(TryCatchBlockNode tryCatch, Map<LabelNode, LabelNode> labels) {
+    return tryCatchBlockPart(tryCatch, labels.get(tryCatch.start), labels.get(tryCatch.end),
+        labels.get(tryCatch.handler));
+  }
+
+  /** A try/catch block like the given one but with the given labels */
+  protected static TryCatchBlockNode tryCatchBlockPart(TryCatchBlockNode tryCatch, LabelNode start, LabelNode end,
+      LabelNode handler) {
+    TryCatchBlockNode ret = new TryCatchBlockNode(start, end, handler, tryCatch.type);
+    ret.visibleTypeAnnotations = tryCatch.visibleTypeAnnotations;
+    ret.invisibleTypeAnnotations = tryCatch.invisibleTypeAnnotations;
+    return ret;
+  }
+
+  /**
+   * Whether the owner is an interface, so the split off methods are called as interface methods. This is false unless
+   * overridden, e.g. by {@link SplittingClassVisitor}. Split off methods can only be in interfaces of class version 52
+   * (Java 8) or later.
+   */
+  protected boolean isInterface(String owner) { return false; }
+
+  /**
+   * Add the code to the trimmed method that calls the split off method in place of the split point. Read locals not in
+   * storedLocals are passed as their zero value.
+   */
+  protected void addSplitOffCall(String owner, MethodNode newMethod, MethodNode splitOff,
+      Splitter.SplitPoint splitPoint, Set<Integer> storedLocals) {
+    if (packsReadLocals(splitPoint)) {
+      // Too many to pass as params, so put the primitives in a long array and the objects in an object array
+      addPackedReadLocals(newMethod, splitPoint, storedLocals, true);
+      addPackedReadLocals(newMethod, splitPoint, storedLocals, false);
+    } else {
+      // Push all the read locals on the stack
+      splitPoint.localsRead.forEach((index, type) -> {
+        // We've seen a store for this, so just load it, otherwise use a zero val
+        // TODO: safe? if not, maybe just put at the top of the method a bunch of defaulted locals?
+        if (storedLocals.contains(index)) newMethod.visitVarInsn(loadOpFromType(type), index);
+        else zeroVal(type).accept(newMethod);
+      });
+    }
+    // Count the call if asked, this takes nothing from the stack so it can go right before
+    if (countCalls) {
+      newMethod.visitInvokeDynamicInsn("count", "()V", COUNTER_BOOTSTRAP, owner + "." + splitOff.name + splitOff.desc,
+          boundaryOf(splitPoint, 0).boxedValues);
     }
-    // Push all the read locals on the stack
-    splitPoint.localsRead.forEach((index, type) -> {
-      // We've seen a store for this, so just load it, otherwise use a zero val
-      // TODO: safe? if not, maybe just put at the top of the method a bunch of defaulted locals?
-      if (seenStoredLocals.contains(index)) newMethod.visitVarInsn(loadOpFromType(type), index);
-      else zeroVal(type).accept(newMethod);
-    });
     // Invoke the split off method
-    newMethod.visitMethodInsn(Opcodes.INVOKESTATIC, owner, splitOff.name, splitOff.desc, false);
-    // Now the object array is on the stack which contains stack pieces + written locals
-    // Take off the locals
-    int localArrIndex = splitPoint.putOnStackAtEnd.size();
-    for (Integer index : splitPoint.localsWritten.keySet()) {
-      // Dupe the array
+    newMethod.visitMethodInsn(Opcodes.INVOKESTATIC, owner, splitOff.name, splitOff.desc, isInterface(owner));
+    // A tail just returns what the split off method returns, which is the same type
+    if (splitPoint.tail) {
+      newMethod.visitInsn(Type.getReturnType(splitOff.desc).getOpcode(Opcodes.IRETURN));
+      return;
+    }
+    ReturnConvention returnConvention = returnConventionOf(splitPoint);
+    List<Type> outputs = ReturnConvention.outputsOf(splitPoint);
+    int stackCount = splitPoint.putOnStackAtEnd.size();
+    switch (returnConvention) {
+      case VOID:
+        break;
+      case DIRECT:
+        // A stack item is already in place, a local has to be stored
+        if (stackCount == 0) {
+          newMethod.visitVarInsn(storeOpFromType(outputs.get(0)), splitPoint.localsWritten.firstKey());
+        }
+        break;
+      case PACKED_LONG:
+        // Take the first out of the low bits and move it below, then the second out of the high bits
+        newMethod.visitInsn(Opcodes.DUP2);
+        newMethod.visitInsn(Opcodes.L2I);
+        fromRawBitsIfNecessary(outputs.get(0), newMethod);
+        newMethod.visitInsn(Opcodes.DUP_X2);
+        newMethod.visitInsn(Opcodes.POP);
+        intConst(32).accept(newMethod);
+        newMethod.visitInsn(Opcodes.LUSHR);
+        newMethod.visitInsn(Opcodes.L2I);
+        fromRawBitsIfNecessary(outputs.get(1), newMethod);
+        // Store the written locals from the top, leaving the stack items
+        if (stackCount < 2) {
+          newMethod.visitVarInsn(storeOpFromType(outputs.get(1)), splitPoint.localsWritten.lastKey());
+        }
+        if (stackCount < 1) {
+          newMethod.visitVarInsn(storeOpFromType(outputs.get(0)), splitPoint.localsWritten.firstKey());
+        }
+        break;
+      case LONG_ARRAY:
+      case OBJECT_ARRAY:
+        // Now the array is on the stack which contains stack pieces + written locals
+        // Take off the locals
+        int localArrIndex = stackCount;
+        for (Integer index : splitPoint.localsWritten.keySet()) {
+          // Dupe the array
+          newMethod.visitInsn(Opcodes.DUP);
+          // Put the index on the stack
+          intConst(localArrIndex).accept(newMethod);
+          localArrIndex++;
+          // Load the written local
+          Type item = splitPoint.localsWritten.get(index);
+          loadFromReturnedArray(returnConvention, item, newMethod);
+          // Store in the local
+          newMethod.visitVarInsn(storeOpFromType(item), index);
+        }
+        // Now just load up the stack
+        for (int i = 0; i < stackCount; i++) {
+          boolean last = i == stackCount - 1;
+          // Since the loop started with the array, we only dupe the array every time but the last
+          if (!last) newMethod.visitInsn(Opcodes.DUP);
+          // Put the index on the stack
+          intConst(i).accept(newMethod);
+          // Load the stack item
+          Type item = splitPoint.putOnStackAtEnd.get(i);
+          loadFromReturnedArray(returnConvention, item, newMethod);
+          // For all but the last stack item, we need to swap with the arr ref above.
+          if (!last) {
+            // Note if the stack item takes two slots, we do a form of dup then pop since there's no swap1x2
+            if (item == Type.LONG_TYPE || item == Type.DOUBLE_TYPE) {
+              newMethod.visitInsn(Opcodes.DUP2_X1);
+              newMethod.visitInsn(Opcodes.POP2);
+            } else {
+              newMethod.visitInsn(Opcodes.SWAP);
+            }
+          }
+        }
+        // If there was nothing to put on the stack, the array is still there
+        if (stackCount == 0) newMethod.visitInsn(Opcodes.POP);
+        break;
+    }
+  }
+
+  /**
+   * Push an array of either the primitive or the object read locals for a split off call, see
+   * {@link #packsReadLocals(Splitter.SplitPoint)}. Nothing is pushed if there are none. Read locals not in
+   * storedLocals are their zero value.
+   */
+  protected static void addPackedReadLocals(MethodNode newMethod, Splitter.SplitPoint splitPoint,
+      Set<Integer> storedLocals, boolean primitives) {
+    List<Map.Entry<Integer, Type>> locals = new ArrayList<>();
+    for (Map.Entry<Integer, Type> local : splitPoint.localsRead.entrySet()) {
+      if (isPrimitive(local.getValue()) == primitives) locals.add(local);
+    }
+    if (locals.isEmpty()) return;
+    intConst(locals.size()).accept(newMethod);
+    if (primitives) newMethod.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_LONG);
+    else newMethod.visitTypeInsn(Opcodes.ANEWARRAY, OBJECT_TYPE.getInternalName());
+    for (int i = 0; i < locals.size(); i++) {
+      int index = locals.get(i).getKey();
+      Type type = locals.get(i).getValue();
       newMethod.visitInsn(Opcodes.DUP);
-      // Put the index on the stack
-      intConst(localArrIndex).accept(newMethod);
-      localArrIndex++;
-      // Load the written local
-      Type item = splitPoint.localsWritten.get(index);
-      newMethod.visitInsn(Opcodes.AALOAD);
-      // Cast to local type
-      if (!item.equals(OBJECT_TYPE)) {
-        newMethod.visitTypeInsn(Opcodes.CHECKCAST, boxedTypeIfNecessary(item).getInternalName());
-      }
-      // Unbox if necessary
-      unboxStackIfNecessary(item, newMethod);
-      // Store in the local
-      newMethod.visitVarInsn(storeOpFromType(item), index);
-    }
-    // Now just load up the stack
-    for (int i = 0; i < splitPoint.putOnStackAtEnd.size(); i++) {
-      boolean last = i == splitPoint.putOnStackAtEnd.size() - 1;
-      // Since the loop started with the array, we only dupe the array every time but the last
-      if (!last) newMethod.visitInsn(Opcodes.DUP);
-      // Put the index on the stack
       intConst(i).accept(newMethod);
-      // Load the stack item
-      Type item = splitPoint.putOnStackAtEnd.get(i);
-      newMethod.visitInsn(Opcodes.AALOAD);
-      // Cast to local type
-      if (!item.equals(OBJECT_TYPE)) {
-        newMethod.visitTypeInsn(Opcodes.CHECKCAST, boxedTypeIfNecessary(item).getInternalName());
-      }
-      // Unbox if necessary
-      unboxStackIfNecessary(item, newMethod);
-      // For all but the last stack item, we need to swap with the arr ref above.
-      if (!last) {
-        // Note if the stack item takes two slots, we do a form of dup then pop since there's no swap1x2
-        if (item == Type.LONG_TYPE || item == Type.DOUBLE_TYPE) {
-          newMethod.visitInsn(Opcodes.DUP_X2);
-          newMethod.visitInsn(Opcodes.POP);
-        } else {
-          newMethod.visitInsn(Opcodes.SWAP);
-        }
+      if (storedLocals.contains(index)) newMethod.visitVarInsn(loadOpFromType(type), index);
+      else zeroVal(type).accept(newMethod);
+      if (primitives) toLongBits(type, newMethod);
+      newMethod.visitInsn(primitives ? Opcodes.LASTORE : Opcodes.AASTORE);
+    }
+  }
+
+  /**
+   * Whether the read locals are passed to the split off method packed in arrays instead of as params. This is only
+   * when passing them as params with the stack items would be more than {@link #MAX_PARAM_SLOTS}. The primitives are
+   * passed as raw bits in a long array and the objects in an object array, so even the largest split point only needs
+   * two params for them.
+   */
+  public static boolean packsReadLocals(Splitter.SplitPoint splitPoint) {
+    int slots = 0;
+    for (Type item : splitPoint.neededFromStackAtStart) slots += item.getSize();
+    for (Type local : splitPoint.localsRead.values()) slots += local.getSize();
+    return slots > MAX_PARAM_SLOTS;
+  }
+
+  /** The param types of the split off method for the given split point */
+  protected static List<Type> splitOffArgs(Splitter.SplitPoint splitPoint) {
+    List<Type> ret = new ArrayList<>(splitPoint.neededFromStackAtStart);
+    if (!packsReadLocals(splitPoint)) {
+      ret.addAll(splitPoint.localsRead.values());
+      return ret;
+    }
+    if (splitPoint.localsRead.values().stream().anyMatch(Util::isPrimitive)) ret.add(LONG_ARRAY_TYPE);
+    if (!splitPoint.localsRead.values().stream().allMatch(Util::isPrimitive)) ret.add(OBJECT_ARRAY_TYPE);
+    return ret;
+  }
+
+  /** Load the item at the array and index on the stack as the given type from an array returned by a split off */
+  protected static void loadFromReturnedArray(ReturnConvention returnConvention, Type item, MethodNode newMethod) {
+    if (returnConvention == ReturnConvention.LONG_ARRAY) {
+      newMethod.visitInsn(Opcodes.LALOAD);
+      fromLongBits(item, newMethod);
+      return;
+    }
+    newMethod.visitInsn(Opcodes.AALOAD);
+    // Cast to local type
+    if (!item.equals(OBJECT_TYPE)) {
+      newMethod.visitTypeInsn(Opcodes.CHECKCAST, boxedTypeIfNecessary(item).getInternalName());
+    }
+    // Unbox if necessary
+    unboxStackIfNecessary(item, newMethod);
+  }
+
+  /** The boundary of the method split off at the given split point for the {@link CostModel} to score */
+  public CostModel.Boundary boundaryOf(Splitter.SplitPoint splitPoint, int size) {
+    return boundaryOf(splitPoint, size, null, null);
+  }
+
+  /**
+   * Same as {@link #boundaryOf(Splitter.SplitPoint, int)} with the heat and calls from the counts if not null and the
+   * loops cut from the control flow graph if not null
+   */
+  public CostModel.Boundary boundaryOf(Splitter.SplitPoint splitPoint, int size, ExecutionProfile.Counts counts,
+      ControlFlowGraph cfg) {
+    int endIndex = splitPoint.start + splitPoint.length - 1;
+    return new CostModel.Boundary(splitPoint, size, splitOffArgs(splitPoint), returnConventionOf(splitPoint),
+        counts == null ? 0 : counts.heatOf(splitPoint.start, endIndex),
+        counts == null ? 0 : counts.entriesPerInvocation(splitPoint.start),
+        cfg == null ? 0 : cfg.loopsCutBy(splitPoint.start, endIndex));
+  }
+
+  /**
+   * The return convention the split off method for the given split point uses. This is the first one in declaration
+   * order of {@link ReturnConvention} that is allowed and applies, or {@link ReturnConvention#OBJECT_ARRAY}.
+   */
+  public ReturnConvention returnConventionOf(Splitter.SplitPoint splitPoint) {
+    for (ReturnConvention returnConvention : returnConventions) {
+      if (returnConvention.appliesTo(splitPoint)) return returnConvention;
+    }
+    return ReturnConvention.OBJECT_ARRAY;
+  }
+
+  /**
+   * How a split off method returns the stack items and written locals the trimmed method needs after calling it. The
+   * first three never allocate, {@link #LONG_ARRAY} allocates a single array per call but never boxes, and
+   * {@link #OBJECT_ARRAY} allocates the array and boxes every primitive.
+   */
+  public enum ReturnConvention {
+    /** Nothing is returned, only when there are no stack items or written locals */
+    VOID,
+    /** The value is returned as is with its own type, only when there is a single stack item or written local */
+    DIRECT,
+    /**
+     * The values are returned in a long with the first in the low 32 bits and the second in the high 32 bits, only
+     * when there are two int or float stack items or written locals. Floats are their raw int bits.
+     */
+    PACKED_LONG,
+    /**
+     * The values are returned in a long array, only when all stack items and written locals are primitives. Ints are
+     * widened and floats and doubles are their raw bits.
+     */
+    LONG_ARRAY,
+    /** The values are returned in an object array with primitives boxed, the fallback that always applies */
+    OBJECT_ARRAY;
+
+    /** Whether this convention can be used for the split point */
+    public boolean appliesTo(Splitter.SplitPoint splitPoint) {
+      List<Type> outputs = outputsOf(splitPoint);
+      switch (this) {
+        case VOID:
+          return outputs.isEmpty();
+        case DIRECT:
+          return outputs.size() == 1;
+        case PACKED_LONG:
+          return outputs.size() == 2 && outputs.stream().allMatch(t -> t == Type.INT_TYPE || t == Type.FLOAT_TYPE);
+        case LONG_ARRAY:
+          return !outputs.isEmpty() && outputs.stream().allMatch(Util::isPrimitive);
+        default:
+          return true;
       }
     }
-    // Now we have restored all locals and all stack...add the rest of the insns after the split
-    for (int i = splitPoint.start + splitPoint.length; i < orig.instructions.size(); i++) {
-      AbstractInsnNode insn = orig.instructions.get(i);
-      // Skip frames
-      if (insn instanceof FrameNode) continue;
-      // Record label
-      if (insn instanceof LabelNode) seenLabels.add(((LabelNode) insn).getLabel());
-      insn.accept(newMethod);
+
+    /** The return type of the split off method */
+    public Type returnType(Splitter.SplitPoint splitPoint) {
+      switch (this) {
+        case VOID:
+          return Type.VOID_TYPE;
+        case DIRECT:
+          return outputsOf(splitPoint).get(0);
+        case PACKED_LONG:
+          return Type.LONG_TYPE;
+        case LONG_ARRAY:
+          return LONG_ARRAY_TYPE;
+        default:
+          return OBJECT_ARRAY_TYPE;
+      }
     }
-    // Add any try catch blocks that started in here
-    for (TryCatchBlockNode tryCatch : orig.tryCatchBlocks) {
-      if (seenLabels.contains(tryCatch.start.getLabel())) tryCatch.accept(newMethod);
+
+    /** The stack items to put on the stack at the end followed by the written locals in index order */
+    public static List<Type> outputsOf(Splitter.SplitPoint splitPoint) {
+      List<Type> ret = new ArrayList<>(splitPoint.putOnStackAtEnd);
+      ret.addAll(splitPoint.localsWritten.values());
+      return ret;
     }
-    // Reset the labels
-    newMethod.instructions.resetLabels();
-    return newMethod;
+  }
+
+  /**
+   * How a {@link SplitMethod} splits methods, built with {@link #builder()}. The {@link #toString()} has every option
+   * that can change the resulting methods, which {@link SplitCache} keys results by, so a new option that can has to be
+   * added to it. The profile is the exception, only the counts of the method being split are part of the key.
+   */
+  public static class Options {
+    /** All return conventions, {@link CostModel#BALANCED}, searching serially, no profile, and no counted calls */
+    public static final Options DEFAULT = builder().build();
+
+    /**
+     * The return conventions split off methods may use, see {@link ReturnConvention}.
+     * {@link ReturnConvention#OBJECT_ARRAY} is always used when no other applies, so an empty set means every split
+     * off method returns an object array.
+     */
+    public final Set<ReturnConvention> returnConventions;
+    /** How {@link #split(String, MethodNode, Splitter.SizeUnit, int, int, int)} chooses between split points */
+    public final CostModel costModel;
+    /**
+     * Where candidate split points are searched for concurrently, or null to search serially on the calling thread.
+     * The result is always the same as searching serially, only faster for large methods.
+     */
+    public final ForkJoinPool pool;
+    /**
+     * How many times the code of the methods being split ran, or null if not known. If given, split points are chosen
+     * to keep the code that ran hot in the trimmed method. {@link CostModel.Boundary#heat} and
+     * {@link CostModel.Boundary#callsPerInvocation} are set from it so cost models can prefer cold regions that aren't
+     * entered on every loop iteration, and {@link #splitToFit(String, MethodNode, int)} and
+     * {@link #splitUntilFits(String, MethodNode, int, int)} try cold regions first.
+     */
+    public final ExecutionProfile profile;
+    /**
+     * Whether each call of a split off method is counted at runtime with {@link SplitCounters}, which has to be visible
+     * to the split classes. This uses invokedynamic, so the classes have to be version 51 (Java 7) or later.
+     */
+    public final boolean countCalls;
+
+    protected Options(Builder builder) {
+      returnConventions = builder.returnConventions.isEmpty() ?
+          EnumSet.noneOf(ReturnConvention.class) : EnumSet.copyOf(builder.returnConventions);
+      costModel = builder.costModel;
+      pool = builder.pool;
+      profile = builder.profile;
+      countCalls = builder.countCalls;
+    }
+
+    /** A builder starting from the defaults, see {@link #DEFAULT} */
+    public static Builder builder() { return new Builder(); }
+
+    /** A builder starting from these options */
+    public Builder toBuilder() {
+      return builder().returnConventions(returnConventions).costModel(costModel).pool(pool).profile(profile).
+          countCalls(countCalls);
+    }
+
+    /** The options that can change the resulting methods, i.e. all but the pool and the profile */
+    @Override
+    public String toString() {
+      return "Options(returnConventions=" + returnConventions + ", costModel=" + costModel + ", countCalls=" +
+          countCalls + ")";
+    }
+
+    /** Builds {@link Options}, see each field there */
+    public static class Builder {
+      protected Set<ReturnConvention> returnConventions = EnumSet.allOf(ReturnConvention.class);
+      protected CostModel costModel = CostModel.BALANCED;
+      protected ForkJoinPool pool;
+      protected ExecutionProfile profile;
+      protected boolean countCalls;
+
+      protected Builder() { }
+
+      public Builder returnConventions(Set<ReturnConvention> returnConventions) {
+        this.returnConventions = returnConventions;
+        return this;
+      }
+
+      public Builder costModel(CostModel costModel) {
+        this.costModel = costModel;
+        return this;
+      }
+
+      public Builder pool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+      }
+
+      public Builder profile(ExecutionProfile profile) {
+        this.profile = profile;
+        return this;
+      }
+
+      public Builder countCalls(boolean countCalls) {
+        this.countCalls = countCalls;
+        return this;
+      }
+
+      public Options build() { return new Options(this); }
+    }
+  }
+
+  /**
+   * How long {@link #bestSplitPoint(String, MethodNode, Splitter.SizeUnit, int, int, int, Budget)} can search, by time,
+   * by how many candidates it tries, or both. The search stops at whichever is reached first. The time also covers
+   * the analysis of the method, see {@link Deadline}.
+   */
+  public static class Budget {
+    /** No limit, every candidate is tried */
+    public static final Budget UNLIMITED = new Budget(0, 0);
+
+    /** If &gt; 0, the most nanoseconds to analyze and search for */
+    public final long maxNanos;
+    /** If &gt; 0, the most start indexes to try, each of which is a candidate split point */
+    public final int maxCandidates;
+
+    public Budget(long maxNanos, int maxCandidates) {
+      this.maxNanos = maxNanos;
+      this.maxCandidates = maxCandidates;
+    }
+
+    /** A budget of only time */
+    public static Budget ofTime(long duration, TimeUnit unit) { return new Budget(unit.toNanos(duration), 0); }
+
+    /** A budget of only candidates */
+    public static Budget ofCandidates(int maxCandidates) { return new Budget(0, maxCandidates); }
+
+    public boolean isUnlimited() { return maxNanos <= 0 && maxCandidates <= 0; }
+
+    /** A deadline of the time from now, which never passes if there's no limit on the time */
+    public Deadline deadline() { return Deadline.in(maxNanos); }
+  }
+
+  /**
+   * Thrown by {@link #splitUntilFits(String, MethodNode, int, int)} when the method can't be split to fit, as opposed
+   * to any other failure. It's an {@link IllegalStateException} so callers that catch that still catch it.
+   */
+  @SuppressWarnings("serial")
+  public static class UnableToFitException extends IllegalStateException {
+    public UnableToFitException(String message) { super(message); }
   }
 
   /** Result of a split method */
   public static class Result {
-    /** A copy of the original method, but changed to invoke {@link #splitOffMethod} */
+    /**
+     * A copy of the original method, but changed to invoke {@link #splitOffMethod}. The original method itself if
+     * there is no split off method.
+     */
     public final MethodNode trimmedMethod;
-    /** The new method that was split off the original and is called by {@link #splitOffMethod} */
+    /**
+     * The new method that was split off the original and is called by {@link #splitOffMethod}. Null only when
+     * {@link #splitToFit(String, MethodNode, int)} is given a method that already fits.
+     */
     public final MethodNode splitOffMethod;
 
     public Result(MethodNode trimmedMethod, MethodNode splitOffMethod) {
@@ -291,4 +1676,61 @@ public class SplitMethod {
       this.splitOffMethod = splitOffMethod;
     }
   }
+
+  /** Result of {@link #splitUntilFits(String, MethodNode, int)} */
+  public static class FitResult {
+    /**
+     * A copy of the original method, but changed to invoke the split off methods. This is the original method itself
+     * if it already fit.
+     */
+    public final MethodNode trimmedMethod;
+    /** The new methods that were split off the original and are called by {@link #trimmedMethod} */
+    public final List<MethodNode> splitOffMethods;
+
+    public FitResult(MethodNode trimmedMethod, List<MethodNode> splitOffMethods) {
+      this.trimmedMethod = trimmedMethod;
+      this.splitOffMethods = splitOffMethods;
+    }
+  }
+
+  /** Result of {@link #splitForJit(String, MethodNode, int, int)} */
+  public static class JitResult extends FitResult {
+    /** The number of bytes of code the original method had */
+    public final int originalSize;
+    /** The huge method limit that was given */
+    public final int hugeMethodLimit;
+    /** The inline target that was given, or 0 if none */
+    public final int inlineTarget;
+
+    public JitResult(FitResult result, int originalSize, int hugeMethodLimit, int inlineTarget) {
+      super(result.trimmedMethod, result.splitOffMethods);
+      this.originalSize = originalSize;
+      this.hugeMethodLimit = hugeMethodLimit;
+      this.inlineTarget = inlineTarget;
+    }
+
+    /** Whether the original method was too large to be compiled */
+    public boolean wasOverLimit() { return originalSize > hugeMethodLimit; }
+
+    /** Whether the trimmed method and all split off methods can be compiled */
+    public boolean isUnderLimit() { return methodsOverLimit().isEmpty(); }
+
+    /** Whether the original method was too large to be compiled and now every resulting method can be */
+    public boolean wasBroughtUnderLimit() { return wasOverLimit() && isUnderLimit(); }
+
+    /** Whether an inline target was given and every split off method is small enough for it */
+    public boolean isUnderInlineTarget() {
+      if (inlineTarget <= 0) return false;
+      for (MethodNode splitOff : splitOffMethods) if (CodeSize.of(splitOff) > inlineTarget) return false;
+      return true;
+    }
+
+    /** The resulting methods that are still too large to be compiled, empty if none */
+    public List<MethodNode> methodsOverLimit() {
+      List<MethodNode> ret = new ArrayList<>();
+      if (CodeSize.of(trimmedMethod) > hugeMethodLimit) ret.add(trimmedMethod);
+      for (MethodNode splitOff : splitOffMethods) if (CodeSize.of(splitOff) > hugeMethodLimit) ret.add(splitOff);
+      return ret;
+    }
+  }
 }
@@ -1,12 +1,13 @@
 package msplit;
 
-import org.objectweb.asm.Label;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
-import org.objectweb.asm.commons.AnalyzerAdapter;
 import org.objectweb.asm.tree.*;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
 
 import static msplit.Util.*;
 
@@ -15,10 +16,13 @@ public class Splitter implements Iterable<Splitter.SplitPoint> {
   protected final int api;
   protected final String owner;
   protected final MethodNode method;
+  protected final SizeUnit sizeUnit;
   protected final int minSize;
   protected final int maxSize;
 
   /**
+   * Same as {@link #Splitter(int, String, MethodNode, SizeUnit, int, int)} with sizes in {@link SizeUnit#INSNS}.
+   *
    * @param api Same as for {@link org.objectweb.asm.MethodVisitor#MethodVisitor(int)} or any other ASM class
    * @param owner Internal name of the method's owner
    * @param method The method to find split points for
@@ -26,25 +30,60 @@ public class Splitter implements Iterable<Splitter.SplitPoint> {
    * @param maxSize The maximum number of instructions that split points cannot exceeed
    */
   public Splitter(int api, String owner, MethodNode method, int minSize, int maxSize) {
+    this(api, owner, method, SizeUnit.INSNS, minSize, maxSize);
+  }
+
+  /**
+   * @param api Same as for {@link org.objectweb.asm.MethodVisitor#MethodVisitor(int)} or any other ASM class
+   * @param owner Internal name of the method's owner
+   * @param method The method to find split points for
+   * @param sizeUnit What minSize and maxSize are measured in
+   * @param minSize The minimum size required for the split point to be valid
+   * @param maxSize The maximum size that split points cannot exceeed
+   */
+  public Splitter(int api, String owner, MethodNode method, SizeUnit sizeUnit, int minSize, int maxSize) {
     this.api = api;
     this.owner = owner;
     this.method = method;
+    this.sizeUnit = sizeUnit;
     this.minSize = minSize;
     this.maxSize = maxSize;
   }
 
   @Override
-  public Iterator<SplitPoint> iterator() { return new Iter(); }
+  public Iterator<SplitPoint> iterator() { return newIter(); }
+
+  /**
+   * A new iterator with access to the analysis of the method it's built on, for choosing between split points without
+   * iterating them all in order
+   */
+  protected Iter newIter() { return newIter(Deadline.NONE); }
+
+  /**
+   * Same as {@link #newIter()} except the analysis of the method gives up with {@link Deadline.ExceededException} once
+   * the deadline passes, both when the iterator is built and when the analyses it builds on first use are
+   */
+  protected Iter newIter(Deadline deadline) { return new Iter(deadline); }
+
+  /** What the sizes of split points are measured in */
+  public enum SizeUnit {
+    /** Instruction nodes, including labels, line numbers, and frames */
+    INSNS,
+    /** Bytes of code as the instructions are laid out in the original method, see {@link CodeSize} */
+    BYTES
+  }
 
   // Types are always int, float, long, double, or ref (no other primitives)
   /** A split point in a method that can be split off into another method */
   public static class SplitPoint {
     /**
-     * The locals read in this split area, keyed by index. Value type is always int, float, long, double, or object.
+     * The locals live at the start of this split area that are read in it, keyed by index. Value type is always int,
+     * float, long, double, or object.
      */
     public final SortedMap<Integer, Type> localsRead;
     /**
-     * The locals written in this split area, keyed by index. Value type is always int, float, long, double, or object.
+     * The locals written in this split area that are live after it, keyed by index. Value type is always int, float,
+     * long, double, or object.
      */
     public final SortedMap<Integer, Type> localsWritten;
     /**
@@ -65,39 +104,123 @@ public class Splitter implements Iterable<Splitter.SplitPoint> {
      * The number of instructions this split area has.
      */
     public final int length;
+    /**
+     * Whether this split area runs to the end of the method and only leaves it by returning or throwing. If so, the
+     * split off method returns what the original method returns and nothing is written or put on the stack at the end.
+     */
+    public final boolean tail;
+    /**
+     * The number of stack slots at the start that this split area never touches, i.e. that are below
+     * {@link #neededFromStackAtStart}. Needed to translate the original's frames inside this split area.
+     */
+    public final int untouchedStackSize;
+    /**
+     * The local an exception caught for a try/catch block that covers only part of this split area, or whose handler
+     * is outside of it, is returned in, or -1 if there are none. The split off method catches what the block would
+     * and returns it in this local, which is also in {@link #localsWritten}, along with the locals the handler reads.
+     * The trimmed method rethrows it where the block covers so the handler sees them as they were when thrown.
+     */
+    public final int caughtLocal;
+    /**
+     * The number of different parts of this split area that the try/catch blocks caught for cover, see
+     * {@link #caughtLocal}. If more than one, the index of the part the block that caught covers, going by the order
+     * they first appear in the method's try/catch blocks, is also returned in the int local after the caught local.
+     * The trimmed method rethrows in a different place for each part, covered only by the blocks that cover that part,
+     * so a block that didn't cover where it was thrown can't catch it.
+     */
+    public final int caughtCoverageCount;
 
     public SplitPoint(SortedMap<Integer, Type> localsRead, SortedMap<Integer, Type>localsWritten,
-        List<Type> neededFromStackAtStart, List<Type> putOnStackAtEnd, int start, int length) {
+        List<Type> neededFromStackAtStart, List<Type> putOnStackAtEnd, int start, int length, boolean tail,
+        int untouchedStackSize, int caughtLocal, int caughtCoverageCount) {
       this.localsRead = localsRead;
       this.localsWritten = localsWritten;
       this.neededFromStackAtStart = neededFromStackAtStart;
       this.putOnStackAtEnd = putOnStackAtEnd;
       this.start = start;
       this.length = length;
+      this.tail = tail;
+      this.untouchedStackSize = untouchedStackSize;
+      this.caughtLocal = caughtLocal;
+      this.caughtCoverageCount = caughtCoverageCount;
     }
   }
 
-  protected int compareInsnIndexes(AbstractInsnNode o1, AbstractInsnNode o2) {
-    return Integer.compare(method.instructions.indexOf(o1), method.instructions.indexOf(o2));
-  }
-
   protected class Iter implements Iterator<SplitPoint> {
     protected final AbstractInsnNode[] insns;
-    protected final List<TryCatchBlockNode> tryCatchBlocks;
+    protected final FrameTable frames;
+    protected final JumpIndex jumps;
+    protected final CodeSize codeSize;
+    /** Built on first use, see {@link #liveness()} */
+    protected volatile Liveness liveness;
+    /** Built on first use, see {@link #cfg()} */
+    protected volatile ControlFlowGraph cfg;
+    /** When the analyses give up, see {@link #newIter(Deadline)} */
+    protected final Deadline deadline;
+    /** A local no instruction or frame uses, for {@link SplitPoint#caughtLocal} */
+    protected final int unusedLocal;
     protected int currIndex = -1;
     protected boolean peeked;
     protected SplitPoint peekedValue;
 
-    protected Iter() {
+    protected Iter(Deadline deadline) {
+      this.deadline = deadline;
       insns = method.instructions.toArray();
-      tryCatchBlocks = new ArrayList<>(method.tryCatchBlocks);
-      // Must be sorted by earliest starting index then earliest end index then earliest handler
-      tryCatchBlocks.sort((o1, o2) -> {
-        int cmp = compareInsnIndexes(o1.start, o2.start);
-        if (cmp == 0) compareInsnIndexes(o1.end, o2.end);
-        if (cmp == 0) compareInsnIndexes(o1.handler, o2.handler);
-        return cmp;
-      });
+      frames = new FrameTable(api, owner, method, deadline);
+      deadline.check();
+      jumps = new JumpIndex(method);
+      deadline.check();
+      codeSize = new CodeSize(method);
+      unusedLocal = firstUnusedLocal();
+    }
+
+    /**
+     * Which locals are live where, built the first time a split point is. Ranges alone don't need it. Safe to call from
+     * the tasks of {@link #forEachIndex(int, int, ForkJoinPool, IntFunction)}.
+     */
+    protected Liveness liveness() {
+      Liveness ret = liveness;
+      if (ret == null) {
+        synchronized (this) {
+          ret = liveness;
+          if (ret == null) liveness = ret = new Liveness(method, deadline);
+        }
+      }
+      return ret;
+    }
+
+    /**
+     * The control flow graph, built the first time it's asked for since only scoring split points by the loops they cut
+     * needs it. Safe to call from the tasks of {@link #forEachIndex(int, int, ForkJoinPool, IntFunction)}.
+     */
+    protected ControlFlowGraph cfg() {
+      ControlFlowGraph ret = cfg;
+      if (ret == null) {
+        synchronized (this) {
+          ret = cfg;
+          if (ret == null) cfg = ret = new ControlFlowGraph(method, deadline);
+        }
+      }
+      return ret;
+    }
+
+    /** The first local after every one the params, instructions, and frames use */
+    protected int firstUnusedLocal() {
+      int ret = Math.max(method.maxLocals, Type.getArgumentsAndReturnSizes(method.desc) >> 2);
+      for (AbstractInsnNode insn : insns) {
+        if (insn instanceof VarInsnNode) {
+          int op = insn.getOpcode();
+          boolean wide = op == Opcodes.LLOAD || op == Opcodes.DLOAD || op == Opcodes.LSTORE || op == Opcodes.DSTORE;
+          ret = Math.max(ret, ((VarInsnNode) insn).var + (wide ? 2 : 1));
+        } else if (insn instanceof IincInsnNode) {
+          ret = Math.max(ret, ((IincInsnNode) insn).var + 1);
+        } else if (insn instanceof FrameNode && ((FrameNode) insn).local != null) {
+          int slots = 0;
+          for (Object item : ((FrameNode) insn).local) slots += item == Opcodes.LONG || item == Opcodes.DOUBLE ? 2 : 1;
+          ret = Math.max(ret, slots);
+        }
+      }
+      return ret;
     }
 
     @Override
@@ -125,273 +248,359 @@ public class Splitter implements Iterable<Splitter.SplitPoint> {
 
     protected SplitPoint nextOrNull() {
       // Try for each index
-      while (++currIndex + minSize <= insns.length) {
-        SplitPoint longest = longestForCurrIndex();
+      while (++currIndex < insns.length && sizeOf(currIndex, insns.length - 1) >= minSize) {
+        SplitPoint longest = longestForIndex(currIndex);
         if (longest != null) return longest;
       }
       return null;
     }
 
-    protected SplitPoint longestForCurrIndex() {
+    protected SplitPoint longestForIndex(int index) {
+      InsnTraverseInfo info = longestRangeForIndex(index, insns.length - 1);
+      // Now that we have our largest range from the start index, we can go over each updating the local refs and stack
+      return info == null ? null : splitPointFromInfo(info);
+    }
+
+    /**
+     * Get the largest valid range starting at the given index and ending no later than maxEndIndex, or null if there
+     * is not one at least minSize. The range is also no larger than maxSize. This is cheap compared to
+     * {@link #splitPointFromInfo(InsnTraverseInfo)}, so callers choosing between many ranges should only build split
+     * points for the ones they choose. A tail range (see {@link SplitPoint#tail}) is always the longest, so it is used
+     * when valid.
+     */
+    protected InsnTraverseInfo longestRangeForIndex(int index, int maxEndIndex) {
       // As a special case, if the previous insn was a line number, that was good enough
-      if (currIndex - 1 >- 0 && insns[currIndex - 1] instanceof LineNumberNode) return null;
+      if (index - 1 >- 0 && insns[index - 1] instanceof LineNumberNode) return null;
+      if (maxEndIndex == insns.length - 1) {
+        InsnTraverseInfo tail = tailRangeForIndex(index);
+        if (tail != null) return tail;
+      }
       // Build the info object
       InsnTraverseInfo info = new InsnTraverseInfo();
-      info.startIndex = currIndex;
-      info.endIndex = Math.min(currIndex + maxSize - 1, insns.length - 1);
-      // Reduce the end by special calls
-      constrainEndByInvokeSpecial(info);
-      // Reduce the end based on try/catch blocks the start is in or that jump to
-      constrainEndByTryCatchBlocks(info);
-      // Reduce the end based on any jumps within
-      constrainEndByInternalJumps(info);
-      // Reduce the end based on any jumps into
-      constrainEndByExternalJumps(info);
+      info.startIndex = index;
+      info.endIndex = Math.min(lastEndIndexWithin(index, maxSize), maxEndIndex);
+      // Each constraint can only shrink the end, but shrinking can make a previous constraint apply again, so we
+      // keep going until the end stops changing
+      int prevEndIndex;
+      do {
+        prevEndIndex = info.endIndex;
+        // Reduce the end by special calls
+        constrainEndByInvokeSpecial(info);
+        // Reduce the end based on any jumps within
+        constrainEndByInternalJumps(info);
+        // Reduce the end based on any jumps into
+        constrainEndByExternalJumps(info);
+        // Reduce the end so it continues on to the rest of the method
+        constrainEndByFallThrough(info);
+      } while (info.endIndex != prevEndIndex && sizeOf(info) >= minSize);
       // Make sure we didn't reduce the end too far
-      if (info.getSize() < minSize) return null;
-      // Now that we have our largest range from the start index, we can go over each updating the local refs and stack
-      // For the stack, we are going to use the
-      return splitPointFromInfo(info);
+      return sizeOf(info) < minSize ? null : info;
     }
 
-    protected void constrainEndByInvokeSpecial(InsnTraverseInfo info) {
-      // Can't have an invoke special of <init>
-      for (int i = info.startIndex; i <= info.endIndex; i++) {
-        AbstractInsnNode node = insns[i];
-        if (node.getOpcode() == Opcodes.INVOKESPECIAL && ((MethodInsnNode) node).name.equals("<init>")) {
-          info.endIndex = Math.max(info.startIndex, i - 1);
-          return;
-        }
-      }
+    /**
+     * Get the range from the given index to the end of the method if it is valid as a tail, or null if not. Unlike
+     * other ranges, this is never shrunk since the end can't change. It has to be within the min and max size, and
+     * can't be left other than by returning or throwing.
+     */
+    protected InsnTraverseInfo tailRangeForIndex(int index) {
+      int endIndex = insns.length - 1;
+      int size = sizeOf(index, endIndex);
+      if (size < minSize || size > maxSize) return null;
+      // Same as the constraints on other ranges, except jumps can't go past the end and returns are fine
+      if (frames.firstInitOfObjectCreatedBefore(index) != -1) return null;
+      if (jumps.coveringTryCatchBlockEnd(index) != Integer.MAX_VALUE) return null;
+      if (jumps.firstTryCatchBlockNotContained(index, endIndex) != -1) return null;
+      if (jumps.firstJumpBack(index, endIndex) != -1) return null;
+      if (jumps.firstJumpIn(index, endIndex) != -1) return null;
+      if (frames.fallsThrough(endIndex)) return null;
+      InsnTraverseInfo info = new InsnTraverseInfo();
+      info.startIndex = index;
+      info.endIndex = endIndex;
+      info.tail = true;
+      return info;
     }
 
-    protected void constrainEndByTryCatchBlocks(InsnTraverseInfo info) {
-      // Go over all the try/catch blocks, sorted by earliest
-      for (TryCatchBlockNode block : tryCatchBlocks) {
-        int handleIndex = method.instructions.indexOf(block.handler);
-        int startIndex = method.instructions.indexOf(block.start);
-        int endIndex = method.instructions.indexOf(block.end) - 1;
-        boolean catchWithinDisallowed;
-
-        if (info.startIndex <= startIndex && info.endIndex >= endIndex) {
-          // The try block is entirely inside the range...
-          catchWithinDisallowed = false;
-          // Since it's entirely within, we need the catch handler within too
-          if (handleIndex < info.startIndex || handleIndex > info.endIndex) {
-            // Well, it's not within, so that means we can't include this try block at all
-            info.endIndex = Math.min(info.endIndex, startIndex - 1);
-          }
-        } else if (info.startIndex > startIndex && info.endIndex > endIndex) {
-          // The try block started before this range, but ends inside of it...
-          // The end has to be changed to the block's end so it doesn't go over the boundary
-          info.endIndex = Math.min(info.endIndex, endIndex);
-          // The catch can't jump in here
-          catchWithinDisallowed = true;
-        } else if (info.startIndex <= startIndex && info.endIndex < endIndex) {
-          // The try block started in this range, but ends outside of it...
-          // Can't have the block then, reduce it to before the start
-          info.endIndex = Math.min(info.endIndex, startIndex - 1);
-          // Since we don't have the block, we can't jump in here either
-          catchWithinDisallowed = true;
-        } else {
-          // The try block is completely outside, just restrict the catch from jumping in
-          catchWithinDisallowed = true;
-        }
-        // If the catch is within and not allowed to be, we have to change the end to before it
-        if (catchWithinDisallowed && info.startIndex <= handleIndex && info.endIndex >= handleIndex) {
-          info.endIndex = Math.min(info.endIndex, handleIndex - 1);
-        }
+    /**
+     * For each loop, innermost first, the largest valid range within its
+     * {@link ControlFlowGraph#wholeLoopRange(ControlFlowGraph.Loop)} if that still contains the whole loop. The longest
+     * range at the loop's entry runs on past its exit into whatever follows, which can make it too large or its boundary
+     * costlier, so these give the search the region that is just the loop.
+     */
+    protected List<InsnTraverseInfo> wholeLoopRanges() {
+      List<InsnTraverseInfo> ret = new ArrayList<>();
+      ControlFlowGraph cfg = cfg();
+      for (ControlFlowGraph.Loop loop : cfg.loops()) {
+        int[] range = cfg.wholeLoopRange(loop);
+        InsnTraverseInfo info = longestRangeForIndex(range[0], range[1]);
+        if (info != null && info.endIndex >= loop.lastIndex()) ret.add(info);
       }
+      return ret;
     }
 
-    protected void constrainEndByInternalJumps(InsnTraverseInfo info) {
-      for (int i = info.startIndex; i <= info.endIndex; i++) {
-        AbstractInsnNode node = insns[i];
-        int earliestIndex;
-        int furthestIndex;
-        if (node instanceof JumpInsnNode) {
-          earliestIndex = method.instructions.indexOf(((JumpInsnNode) node).label);
-          furthestIndex = earliestIndex;
-        } else if (node instanceof TableSwitchInsnNode) {
-          earliestIndex = method.instructions.indexOf(((TableSwitchInsnNode) node).dflt);
-          furthestIndex = earliestIndex;
-          for (LabelNode label : ((TableSwitchInsnNode) node).labels) {
-            int index = method.instructions.indexOf(label);
-            earliestIndex = Math.min(earliestIndex, index);
-            furthestIndex = Math.max(furthestIndex, index);
-          }
-        } else if (node instanceof LookupSwitchInsnNode) {
-          earliestIndex = method.instructions.indexOf(((LookupSwitchInsnNode) node).dflt);
-          furthestIndex = earliestIndex;
-          for (LabelNode label : ((LookupSwitchInsnNode) node).labels) {
-            int index = method.instructions.indexOf(label);
-            earliestIndex = Math.min(earliestIndex, index);
-            furthestIndex = Math.max(furthestIndex, index);
-          }
-        } else continue;
-        // Stop here if any indexes are out of range, otherwise, change end
-        if (earliestIndex < info.startIndex || furthestIndex > info.endIndex) {
-          info.endIndex = i - 1;
-          return;
-        }
-        info.endIndex = Math.max(info.endIndex, furthestIndex);
-      }
+    /** Every start index {@link #nextOrNull()} considers, i.e. those that leave at least minSize, in order */
+    protected int[] startIndexes() {
+      int count = 0;
+      while (count < insns.length && sizeOf(count, insns.length - 1) >= minSize) count++;
+      int[] ret = new int[count];
+      for (int i = 0; i < count; i++) ret[i] = i;
+      return ret;
     }
 
-    protected void constrainEndByExternalJumps(InsnTraverseInfo info) {
-      // Basically, if any external jumps jump into our range, that can't be included in the range
-      for (int i = 0; i < insns.length; i++) {
-        if (i >= info.startIndex && i <= info.endIndex) continue;
-        AbstractInsnNode node = insns[i];
-        if (node instanceof JumpInsnNode) {
-          int index = method.instructions.indexOf(((JumpInsnNode) node).label);
-          if (index >= info.startIndex) info.endIndex = Math.min(info.endIndex, index - 1);
-        } else if (node instanceof TableSwitchInsnNode) {
-          int index = method.instructions.indexOf(((TableSwitchInsnNode) node).dflt);
-          if (index >= info.startIndex) info.endIndex = Math.min(info.endIndex, index - 1);
-          for (LabelNode label : ((TableSwitchInsnNode) node).labels) {
-            index = method.instructions.indexOf(label);
-            if (index >= info.startIndex) info.endIndex = Math.min(info.endIndex, index - 1);
-          }
-        } else if (node instanceof LookupSwitchInsnNode) {
-          int index = method.instructions.indexOf(((LookupSwitchInsnNode) node).dflt);
-          if (index >= info.startIndex) info.endIndex = Math.min(info.endIndex, index - 1);
-          for (LabelNode label : ((LookupSwitchInsnNode) node).labels) {
-            index = method.instructions.indexOf(label);
-            if (index >= info.startIndex) info.endIndex = Math.min(info.endIndex, index - 1);
-          }
+    /**
+     * Same as {@link #startIndexes()} but with the ones most likely to give large split points first. The method is cut
+     * into straight-line stretches after every jump and around every jump target, and the start of each stretch comes
+     * first, longest stretch first. A range can't start at a target jumped to from before it, but it can start right
+     * after one, and long stretches without jumps tend to be where the longest ranges start. The rest follow in order.
+     */
+    protected int[] startIndexesByPriority() {
+      int[] indexes = startIndexes();
+      if (indexes.length == 0) return indexes;
+      List<int[]> stretches = new ArrayList<>();
+      int stretchStart = 0;
+      for (int i = 1; i <= insns.length; i++) {
+        if (i == insns.length || jumps.isTarget(i) || jumps.isTarget(i - 1) || jumps.isJump(i - 1)) {
+          if (stretchStart < indexes.length) stretches.add(new int[] { stretchStart, sizeOf(stretchStart, i - 1) });
+          stretchStart = i;
         }
       }
+      // Stable, so equal stretches stay in order
+      stretches.sort((o1, o2) -> Integer.compare(o2[1], o1[1]));
+      int[] ret = new int[indexes.length];
+      BitSet taken = new BitSet(indexes.length);
+      int count = 0;
+      for (int[] stretch : stretches) {
+        ret[count++] = stretch[0];
+        taken.set(stretch[0]);
+      }
+      for (int index : indexes) if (!taken.get(index)) ret[count++] = index;
+      return ret;
     }
 
-    protected SplitPoint splitPointFromInfo(InsnTraverseInfo info) {
-      // We're going to use the analyzer adapter and run it for the up until the end, a step at a time
-      StackAndLocalTrackingAdapter adapter = new StackAndLocalTrackingAdapter(Splitter.this);
-      // Visit all of the insns up our start.
-      // XXX: I checked the source of AnalyzerAdapter to confirm I don't need any of the surrounding stuff
-      for (int i = 0; i < info.startIndex; i++) insns[i].accept(adapter);
-      // Take the stack at the start and copy it off
-      List<Object> stackAtStart = new ArrayList<>(adapter.stack);
-      // Reset some adapter state
-      adapter.lowestStackSize = stackAtStart.size();
-      adapter.localsRead.clear();
-      adapter.localsWritten.clear();
-      // Now go over the remaining range
-      for (int i = info.startIndex; i <= info.endIndex; i++) insns[i].accept(adapter);
-      // Build the split point
-      return new SplitPoint(
-          localMapFromAdapterLocalMap(adapter.localsRead, adapter.uninitializedTypes),
-          localMapFromAdapterLocalMap(adapter.localsWritten, adapter.uninitializedTypes),
-          typesFromAdapterStackRange(stackAtStart, adapter.lowestStackSize, adapter.uninitializedTypes),
-          typesFromAdapterStackRange(adapter.stack, adapter.lowestStackSize, adapter.uninitializedTypes),
-          info.startIndex,
-          info.getSize()
-      );
-    }
-
-    protected SortedMap<Integer, Type> localMapFromAdapterLocalMap(
-        SortedMap<Integer, Object> map, Map<Object, Object> uninitializedTypes) {
-      SortedMap<Integer, Type> ret = new TreeMap<>();
-      map.forEach((k, v) -> ret.put(k, typeFromAdapterStackItem(v, uninitializedTypes)));
+    /**
+     * The function applied to every index from fromIndex up to but not including toIndex, in index order. Nothing here
+     * is changed after construction, so with a pool the indexes are divided among fork-join tasks that run
+     * concurrently. Either way the result is the same.
+     */
+    protected <T> List<T> forEachIndex(int fromIndex, int toIndex, ForkJoinPool pool, IntFunction<T> fn) {
+      Object[] results = new Object[Math.max(0, toIndex - fromIndex)];
+      if (pool == null) for (int i = 0; i < results.length; i++) results[i] = fn.apply(fromIndex + i);
+      else pool.invoke(new IndexTask(results, fromIndex, 0, results.length, fn));
+      @SuppressWarnings("unchecked")
+      List<T> ret = (List<T>) Arrays.asList(results);
       return ret;
     }
 
-    protected List<Type> typesFromAdapterStackRange(
-        List<Object> stack, int start, Map<Object, Object> uninitializedTypes) {
-      List<Type> ret = new ArrayList<>();
-      for (int i = start; i < stack.size(); i++) {
-        Object item = stack.get(i);
-        ret.add(typeFromAdapterStackItem(item, uninitializedTypes));
-        // Jump an extra spot for longs and doubles
-        if (item == Opcodes.LONG || item == Opcodes.DOUBLE) {
-          if (stack.get(++i) != Opcodes.TOP) throw new IllegalStateException("Expected top after long/double");
-        }
-      }
-      return ret;
+    /** The size of the given inclusive range in {@link #sizeUnit} */
+    protected int sizeOf(int startIndex, int endIndex) {
+      if (sizeUnit == SizeUnit.BYTES) return codeSize.sizeOf(startIndex, endIndex);
+      return endIndex - startIndex + 1;
     }
 
-    protected Type typeFromAdapterStackItem(Object item, Map<Object, Object> uninitializedTypes) {
-      if (item == Opcodes.INTEGER) return Type.INT_TYPE;
-      else if (item == Opcodes.FLOAT) return Type.FLOAT_TYPE;
-      else if (item == Opcodes.LONG) return Type.LONG_TYPE;
-      else if (item == Opcodes.DOUBLE) return Type.DOUBLE_TYPE;
-      else if (item == Opcodes.NULL) return OBJECT_TYPE;
-      else if (item == Opcodes.UNINITIALIZED_THIS) return Type.getObjectType(owner);
-      else if (item instanceof Label) return Type.getObjectType((String) uninitializedTypes.get(item));
-      else if (item instanceof String) return Type.getObjectType((String) item);
-      else throw new IllegalStateException("Unrecognized stack item: " + item);
+    protected int sizeOf(InsnTraverseInfo info) {
+      return info.endIndex < info.startIndex ? 0 : sizeOf(info.startIndex, info.endIndex);
     }
-  }
 
-  protected static class StackAndLocalTrackingAdapter extends AnalyzerAdapter {
-    public int lowestStackSize;
-    public final SortedMap<Integer, Object> localsRead = new TreeMap<>();
-    public final SortedMap<Integer, Object> localsWritten = new TreeMap<>();
-
-    protected StackAndLocalTrackingAdapter(Splitter splitter) {
-      super(splitter.api, splitter.owner, splitter.method.access, splitter.method.name, splitter.method.desc, null);
-      stack = new SizeChangeNotifyList<Object>() {
-        @Override
-        protected void onSizeChanged() { lowestStackSize = Math.min(lowestStackSize, size()); }
-      };
+    /** The last end index whose range from startIndex is at most the given size in {@link #sizeUnit} */
+    protected int lastEndIndexWithin(int startIndex, int size) {
+      if (sizeUnit == SizeUnit.BYTES) return codeSize.lastEndIndexWithin(startIndex, size);
+      return Math.min(startIndex + size - 1, insns.length - 1);
     }
 
-    @Override
-    public void visitVarInsn(int opcode, int var) {
-      switch (opcode) {
-        case Opcodes.ILOAD:
-        case Opcodes.LLOAD:
-        case Opcodes.FLOAD:
-        case Opcodes.DLOAD:
-        case Opcodes.ALOAD:
-          localsRead.put(var, locals.get(var));
-          break;
-        case Opcodes.ISTORE:
-        case Opcodes.FSTORE:
-        case Opcodes.ASTORE:
-          localsWritten.put(var, stack.get(stack.size() - 1));
-          break;
-        case Opcodes.LSTORE:
-        case Opcodes.DSTORE:
-          localsWritten.put(var, stack.get(stack.size() - 2));
-          break;
+    protected void constrainEndByInvokeSpecial(InsnTraverseInfo info) {
+      // Can't have an invoke special of <init> on an object created before the range
+      int initIndex = frames.firstInitOfObjectCreatedBefore(info.startIndex);
+      if (initIndex != -1) info.endIndex = Math.min(info.endIndex, initIndex - 1);
+      // Can't leave an object created in the range uninitialized at the end either
+      if (info.endIndex >= info.startIndex) {
+        int newIndex = frames.firstUninitializedCreatedIn(info.startIndex, info.endIndex);
+        if (newIndex != -1) info.endIndex = newIndex - 1;
       }
-      super.visitVarInsn(opcode, var);
     }
 
-    @Override
-    public void visitIincInsn(int var, int increment) {
-      localsRead.put(var, Type.INT_TYPE);
-      localsWritten.put(var, Type.INT_TYPE);
-      super.visitIincInsn(var, increment);
+    protected void constrainEndByInternalJumps(InsnTraverseInfo info) {
+      // Stop before any jump in the range that goes out of the range
+      int jumpOutIndex = jumps.firstJumpOut(info.startIndex, info.endIndex);
+      if (jumpOutIndex != -1) info.endIndex = jumpOutIndex - 1;
+    }
+
+    protected void constrainEndByExternalJumps(InsnTraverseInfo info) {
+      // Basically, if any external jumps or catch handlers jump into our range, that can't be included in the range.
+      // A handler is jumped to from its whole try block, so it's only included with the block. Try blocks without
+      // their handler or only partly in the range are fine, see SplitPoint.caughtLocal.
+      int jumpInIndex = jumps.firstJumpIn(info.startIndex, info.endIndex);
+      if (jumpInIndex != -1) info.endIndex = jumpInIndex - 1;
     }
-  }
 
-  protected static class SizeChangeNotifyList<T> extends AbstractList<T> {
-    protected final ArrayList<T> list = new ArrayList<>();
+    /**
+     * The type of the local before the given index, or null if it's not known, not initialized, or null. A null could
+     * be used as any type in the range or after it, so there's no type to pass it as.
+     */
+    protected Type knownLocalType(int index, int var) {
+      Object item = frames.localAt(index, var);
+      return !frames.isKnownItem(item) || frames.isUninitializedItem(item) || item == Opcodes.NULL ? null :
+          frames.typeFromItem(item);
+    }
 
-    protected void onSizeChanged() { }
+    /** Whether the stack item at the given slot can be passed in or out, see {@link #knownLocalType(int, int)} */
+    protected boolean isPassableStackItem(Object[] stack, int index) {
+      return frames.isKnownStackItem(stack, index) && !frames.isUninitializedItem(stack[index]) &&
+          stack[index] != Opcodes.NULL;
+    }
 
-    @Override
-    public T get(int index) { return list.get(index); }
+    protected void constrainEndByFallThrough(InsnTraverseInfo info) {
+      // The call to the split off method is followed by the rest of the method, so the last insn has to get there
+      while (info.endIndex >= info.startIndex && !frames.fallsThrough(info.endIndex)) info.endIndex--;
+    }
 
-    @Override
-    public int size() { return list.size(); }
+    protected SplitPoint splitPointFromInfo(InsnTraverseInfo info) {
+      // The state at the start is taken after any leading labels, line numbers, and frames since a frame there
+      // replaces whatever state came before it
+      int stateIndex = info.startIndex;
+      while (stateIndex <= info.endIndex && insns[stateIndex].getOpcode() == -1) stateIndex++;
+      // Take the stack at the start from the precomputed frames, can't split if we don't know it
+      Object[] stackAtStart = frames.stackAt(stateIndex);
+      if (stackAtStart == null) return null;
+      // The end always falls through to the rest of the method unless it's a tail, so we need the stack after it
+      Object[] stackAtEnd = info.tail ? new Object[0] : frames.stackAt(info.endIndex + 1);
+      if (stackAtEnd == null) return null;
+      int lowestStackSize = Math.min(stackAtStart.length, frames.lowestStackSize(info.startIndex, info.endIndex));
+      // The stack items are always passed as params, leaving room for the read locals packed into two arrays
+      if (stackAtStart.length - lowestStackSize > SplitMethod.MAX_PARAM_SLOTS - 2) return null;
+      // If we don't know what type a local read or written in the range is or it is not initialized, we can't pass it
+      // along
+      if (frames.firstUnknownLocalAccess(info.startIndex, info.endIndex) != -1) return null;
+      Liveness liveness = liveness();
+      // Read locals only need to come in if they're live at the start, otherwise every read is of a value written in
+      // the range. Live ones include those that may not be written on every path before being read. The type is the one
+      // at the start which may be narrower than the read. Only the first access of each local in the range is visited.
+      SortedMap<Integer, Type> localsRead = new TreeMap<>();
+      for (int local : frames.localsReadIn(info.startIndex, info.endIndex)) {
+        if (!liveness.isLive(info.startIndex, local)) continue;
+        Type typeAtStart = knownLocalType(stateIndex, local);
+        if (typeAtStart == null) return null;
+        localsRead.put(local, typeAtStart);
+      }
+      // Only written locals that are live after the range need to go out. Their type is the one after the range which
+      // may be wider than what was last written. If they're also live at the start, they may not be written on every
+      // path through the range so they also need to come in.
+      SortedMap<Integer, Type> localsWritten = new TreeMap<>();
+      Set<Integer> allWritten = new HashSet<>(frames.localsWrittenIn(info.startIndex, info.endIndex));
+      for (int local : allWritten) {
+        if (!liveness.isLive(info.endIndex + 1, local)) continue;
+        Type typeAtEnd = knownLocalType(info.endIndex + 1, local);
+        if (typeAtEnd == null) return null;
+        localsWritten.put(local, typeAtEnd);
+        if (liveness.isLive(info.startIndex, local)) {
+          Type typeAtStart = knownLocalType(stateIndex, local);
+          if (typeAtStart == null) return null;
+          localsRead.putIfAbsent(local, typeAtStart);
+        }
+      }
+      // Uninitialized, unknown, or null stack items can't be passed in or out either
+      for (int i = lowestStackSize; i < stackAtStart.length; i++) {
+        if (!isPassableStackItem(stackAtStart, i)) return null;
+      }
+      for (int i = lowestStackSize; i < stackAtEnd.length; i++) {
+        if (!isPassableStackItem(stackAtEnd, i)) return null;
+      }
+      // Try/catch blocks only partly in the range, or whose handler isn't, have to be caught in the split off method
+      int caughtLocal = -1;
+      Set<List<Integer>> caughtCoverages = new HashSet<>();
+      int[] crossing = info.tail ? new int[0] : jumps.tryCatchBlocksCrossing(info.startIndex, info.endIndex);
+      if (catchesInSplitOff(info, crossing, allWritten)) {
+        // The trimmed method rethrows with the untouched stack still there, so it's in the frame after
+        for (int i = 0; i < lowestStackSize; i++) {
+          if (frames.isUninitializedItem(stackAtStart[i]) || !frames.isKnownStackItem(stackAtStart, i)) return null;
+        }
+        // Written locals the handlers read have to go out too, with the type the handler has for them. They also have
+        // to come in, even if they aren't live at the start, since they're set from the start of the split off method
+        // wherever a handler could need them.
+        Set<Integer> handlers = new HashSet<>();
+        for (int block : crossing) {
+          caughtCoverages.add(Arrays.asList(Math.max(jumps.tryStart(block), info.startIndex),
+              Math.min(jumps.tryEnd(block), info.endIndex + 1)));
+          int handlerIndex = jumps.tryHandler(block);
+          if (!handlers.add(handlerIndex)) continue;
+          // The split off method's handler has the original's frame, so there has to be one
+          int handlerStateIndex = handlerIndex;
+          boolean handlerFramed = false;
+          while (handlerStateIndex < insns.length - 1 && insns[handlerStateIndex].getOpcode() == -1) {
+            if (insns[handlerStateIndex] instanceof FrameNode) handlerFramed = true;
+            handlerStateIndex++;
+          }
+          if (!handlerFramed) return null;
+          for (int local : allWritten) {
+            if (!liveness.isLive(handlerIndex, local)) continue;
+            Type typeAtHandler = knownLocalType(handlerStateIndex, local);
+            if (typeAtHandler == null) return null;
+            Type prevType = localsWritten.putIfAbsent(local, typeAtHandler);
+            if (prevType != null && !prevType.equals(typeAtHandler)) return null;
+            Type typeAtStart = knownLocalType(stateIndex, local);
+            if (typeAtStart == null) return null;
+            localsRead.putIfAbsent(local, typeAtStart);
+          }
+        }
+        caughtLocal = unusedLocal;
+        localsWritten.put(caughtLocal, THROWABLE_TYPE);
+        if (caughtCoverages.size() > 1) localsWritten.put(caughtLocal + 1, Type.INT_TYPE);
+      }
+      // Build the split point
+      return new SplitPoint(
+          localsRead,
+          localsWritten,
+          frames.typesFromStack(stackAtStart, lowestStackSize),
+          frames.typesFromStack(stackAtEnd, Math.min(lowestStackSize, stackAtEnd.length)),
+          info.startIndex,
+          info.getSize(),
+          info.tail,
+          lowestStackSize,
+          caughtLocal,
+          caughtCoverages.size()
+      );
+    }
 
-    @Override
-    public T set(int index, T element) { return list.set(index, element); }
+    /**
+     * Whether the split off method has to catch for any of the given try/catch blocks crossing the range. A block that
+     * covers the whole range can catch from around the call instead, unless its handler reads a local written in the
+     * range, which wouldn't be set when it's thrown.
+     */
+    protected boolean catchesInSplitOff(InsnTraverseInfo info, int[] crossing, Set<Integer> written) {
+      for (int block : crossing) {
+        if (jumps.tryStart(block) >= info.startIndex || jumps.tryEnd(block) <= info.endIndex) return true;
+        for (int local : written) if (liveness().isLive(jumps.tryHandler(block), local)) return true;
+      }
+      return false;
+    }
+  }
 
-    @Override
-    public void add(int index, T element) {
-      list.add(index, element);
-      onSizeChanged();
+  /** Sets each result to the function applied to its index, forking until few enough are left to do in place */
+  @SuppressWarnings("serial")
+  protected static class IndexTask extends RecursiveAction {
+    /** Indexes per task, enough to outweigh forking since each one is a full range search */
+    protected static final int THRESHOLD = 16;
+
+    protected final Object[] results;
+    protected final int firstIndex;
+    protected final int from;
+    protected final int to;
+    protected final IntFunction<?> fn;
+
+    protected IndexTask(Object[] results, int firstIndex, int from, int to, IntFunction<?> fn) {
+      this.results = results;
+      this.firstIndex = firstIndex;
+      this.from = from;
+      this.to = to;
+      this.fn = fn;
     }
 
     @Override
-    public T remove(int index) {
-      T ret = list.remove(index);
-      onSizeChanged();
-      return ret;
+    protected void compute() {
+      if (to - from <= THRESHOLD) {
+        for (int i = from; i < to; i++) results[i] = fn.apply(firstIndex + i);
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new IndexTask(results, firstIndex, from, mid, fn), new IndexTask(results, firstIndex, mid, to, fn));
     }
   }
 
@@ -399,6 +608,8 @@ public class Splitter implements Iterable<Splitter.SplitPoint> {
     public int startIndex;
     // Can only shrink, never increase in size
     public int endIndex;
+    // Whether this runs to the end of the method, see SplitPoint.tail
+    public boolean tail;
 
     public int getSize() { return endIndex - startIndex + 1; }
   }
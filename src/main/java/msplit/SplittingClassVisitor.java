@@ -0,0 +1,174 @@
+package msplit;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.*;
+
+/**
+ * Class visitor that splits methods with more than a maximum number of bytes of code and passes everything else
+ * straight through to the next visitor. Only the methods being split are buffered into a {@link MethodNode}, the rest
+ * of the class never is. The trimmed method takes the original's place and the split off methods are visited right
+ * after it.
+ * <p>
+ * The methods to split are given up front, usually from {@link #methodsOver(ClassReader, int)} which reads the code
+ * lengths without parsing the class, so no other method is ever buffered to find its size. The reader must be accepted
+ * with {@link ClassReader#EXPAND_FRAMES} if the class has frames.
+ * <p>
+ * Methods of interfaces are only split if the class version is 52 (Java 8) or later, since before that interfaces
+ * can't have the static methods split off into.
+ */
+public class SplittingClassVisitor extends ClassVisitor {
+  protected final SplitMethod splitMethod;
+  protected final int maxBytes;
+  /** Name + descriptor of the methods to split */
+  protected final Set<String> methodsToSplit;
+  protected String owner;
+  protected boolean ownerIsInterface;
+  /** Whether the methods can be split, false for interfaces before class version 52 */
+  protected boolean splittable = true;
+  protected int splitMethodCount;
+  protected int splitOffMethodCount;
+
+  /**
+   * Same as {@link #SplittingClassVisitor(int, ClassVisitor, int, Set)} with the methods to split from
+   * {@link #methodsOver(ClassReader, int)} of the reader that will be accepted with this
+   */
+  public SplittingClassVisitor(int api, ClassVisitor cv, int maxBytes, ClassReader reader) {
+    this(api, cv, maxBytes, methodsOver(reader, maxBytes));
+  }
+
+  /**
+   * @param api Same as for {@link ClassVisitor#ClassVisitor(int)}
+   * @param cv The visitor the class and the resulting methods are passed to
+   * @param maxBytes The maximum number of bytes of code each resulting method can have, see
+   *                 {@link SplitMethod#splitUntilFits(String, MethodNode, int)}
+   * @param methodsToSplit The name + descriptor of each method that may need splitting, others are passed through
+   *                       without being buffered or checked
+   */
+  public SplittingClassVisitor(int api, ClassVisitor cv, int maxBytes, Set<String> methodsToSplit) {
+    super(api, cv);
+    splitMethod = new SplitMethod(api) {
+      @Override
+      protected boolean isInterface(String owner) { return ownerIsInterface; }
+    };
+    this.maxBytes = maxBytes;
+    this.methodsToSplit = Objects.requireNonNull(methodsToSplit, "methodsToSplit");
+  }
+
+  /** The number of methods that were split so far */
+  public int getSplitMethodCount() { return splitMethodCount; }
+
+  /** The number of methods split off of the split methods so far */
+  public int getSplitOffMethodCount() { return splitOffMethodCount; }
+
+  @Override
+  public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+    owner = name;
+    ownerIsInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+    splittable = !ownerIsInterface || (version & 0xFFFF) >= Opcodes.V1_8;
+    super.visit(version, access, name, signature, superName, interfaces);
+  }
+
+  @Override
+  public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+      String[] exceptions) {
+    boolean hasCode = (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0;
+    if (!hasCode || !splittable || !methodsToSplit.contains(name + descriptor)) {
+      return super.visitMethod(access, name, descriptor, signature, exceptions);
+    }
+    return new MethodNode(api, access, name, descriptor, signature, exceptions) {
+      @Override
+      public void visitEnd() {
+        super.visitEnd();
+        visitBufferedMethod(this);
+      }
+    };
+  }
+
+  /** Split the given buffered method if it's too large and pass the result (or the method as is) to the next visitor */
+  protected void visitBufferedMethod(MethodNode method) {
+    if (cv == null) return;
+    if (CodeSize.of(method) <= maxBytes) {
+      method.accept(cv);
+      return;
+    }
+    SplitMethod.FitResult result = splitMethod.splitUntilFits(owner, method, maxBytes);
+    result.trimmedMethod.accept(cv);
+    for (MethodNode splitOff : result.splitOffMethods) splitOff.accept(cv);
+    splitMethodCount++;
+    splitOffMethodCount += result.splitOffMethods.size();
+  }
+
+  /**
+   * The name + descriptor of each method in the class with more than maxBytes of code. This only reads the code length
+   * from each method's Code attribute, nothing is parsed.
+   */
+  public static Set<String> methodsOver(ClassReader reader, int maxBytes) {
+    Set<String> ret = new HashSet<>();
+    for (Map.Entry<String, Integer> entry : codeLengths(reader).entrySet()) {
+      if (entry.getValue() > maxBytes) ret.add(entry.getKey());
+    }
+    return ret;
+  }
+
+  /**
+   * The code length in bytes of each method in the class with code, keyed by name + descriptor. This walks the class
+   * file structure only as far as the start of each Code attribute, so it's much cheaper than accepting a visitor.
+   */
+  public static Map<String, Integer> codeLengths(ClassReader reader) {
+    Map<String, Integer> ret = new LinkedHashMap<>();
+    walkCodeLengths(reader, ret);
+    return ret;
+  }
+
+  /**
+   * The largest code length in bytes of any method in the class, or 0 if none have code. Same as
+   * {@link #codeLengths(ClassReader)} without reading the method names.
+   */
+  public static int maxCodeLength(ClassReader reader) { return walkCodeLengths(reader, null); }
+
+  /** Put each method's code length in the map if not null and return the largest */
+  protected static int walkCodeLengths(ClassReader reader, Map<String, Integer> codeLengths) {
+    char[] buf = new char[reader.getMaxStringLength()];
+    // Skip access, this, super, and interfaces
+    int offset = reader.header + 6;
+    offset += 2 + reader.readUnsignedShort(offset) * 2;
+    // Skip fields
+    int fieldCount = reader.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < fieldCount; i++) offset = skipAttributes(reader, offset + 6);
+    // Methods
+    int max = 0;
+    int methodCount = reader.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < methodCount; i++) {
+      int nameOffset = offset + 2;
+      int attrCount = reader.readUnsignedShort(offset + 6);
+      offset += 8;
+      for (int j = 0; j < attrCount; j++) {
+        // The Code attribute is max stack (2), max locals (2), then code length (4)
+        if ("Code".equals(reader.readUTF8(offset, buf))) {
+          int length = reader.readInt(offset + 10);
+          max = Math.max(max, length);
+          if (codeLengths != null) {
+            codeLengths.put(reader.readUTF8(nameOffset, buf) + reader.readUTF8(nameOffset + 2, buf), length);
+          }
+        }
+        offset += 6 + reader.readInt(offset + 2);
+      }
+    }
+    return max;
+  }
+
+  /** Skip the attribute count and attributes at the offset and return the offset after them */
+  protected static int skipAttributes(ClassReader reader, int offset) {
+    int attrCount = reader.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < attrCount; i++) offset += 6 + reader.readInt(offset + 2);
+    return offset;
+  }
+}
@@ -8,6 +8,14 @@ class Util {
   private Util() { }
 
   static final Type OBJECT_TYPE = Type.getType(Object.class);
+  static final Type OBJECT_ARRAY_TYPE = Type.getType(Object[].class);
+  static final Type LONG_ARRAY_TYPE = Type.getType(long[].class);
+  static final Type THROWABLE_TYPE = Type.getType(Throwable.class);
+
+  /** Whether the type is one of the primitive types stack and local items can be, i.e. int, float, long, or double */
+  static boolean isPrimitive(Type type) {
+    return type == Type.INT_TYPE || type == Type.FLOAT_TYPE || type == Type.LONG_TYPE || type == Type.DOUBLE_TYPE;
+  }
 
   static AbstractInsnNode zeroVal(Type type) {
     if (type == Type.INT_TYPE) return new InsnNode(Opcodes.ICONST_0);
@@ -64,6 +72,30 @@ class Util {
         "java/lang/Double", "doubleValue", Type.getMethodDescriptor(Type.DOUBLE_TYPE), false);
   }
 
+  static void toRawBitsIfNecessary(Type type, MethodNode method) {
+    if (type == Type.FLOAT_TYPE) method.visitMethodInsn(Opcodes.INVOKESTATIC,
+        "java/lang/Float", "floatToRawIntBits", Type.getMethodDescriptor(Type.INT_TYPE, type), false);
+    else if (type == Type.DOUBLE_TYPE) method.visitMethodInsn(Opcodes.INVOKESTATIC,
+        "java/lang/Double", "doubleToRawLongBits", Type.getMethodDescriptor(Type.LONG_TYPE, type), false);
+  }
+
+  static void fromRawBitsIfNecessary(Type type, MethodNode method) {
+    if (type == Type.FLOAT_TYPE) method.visitMethodInsn(Opcodes.INVOKESTATIC,
+        "java/lang/Float", "intBitsToFloat", Type.getMethodDescriptor(type, Type.INT_TYPE), false);
+    else if (type == Type.DOUBLE_TYPE) method.visitMethodInsn(Opcodes.INVOKESTATIC,
+        "java/lang/Double", "longBitsToDouble", Type.getMethodDescriptor(type, Type.LONG_TYPE), false);
+  }
+
+  static void toLongBits(Type type, MethodNode method) {
+    toRawBitsIfNecessary(type, method);
+    if (type == Type.INT_TYPE || type == Type.FLOAT_TYPE) method.visitInsn(Opcodes.I2L);
+  }
+
+  static void fromLongBits(Type type, MethodNode method) {
+    if (type == Type.INT_TYPE || type == Type.FLOAT_TYPE) method.visitInsn(Opcodes.L2I);
+    fromRawBitsIfNecessary(type, method);
+  }
+
   static AbstractInsnNode intConst(int v) {
     switch (v) {
       case -1: return new InsnNode(Opcodes.ICONST_M1);
@@ -73,7 +105,11 @@ class Util {
       case 3: return new InsnNode(Opcodes.ICONST_3);
       case 4: return new InsnNode(Opcodes.ICONST_4);
       case 5: return new InsnNode(Opcodes.ICONST_5);
-      default: return new LdcInsnNode(v);
+      default:
+        // Push when small enough, it's smaller than LDC and doesn't need a constant
+        if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) return new IntInsnNode(Opcodes.BIPUSH, v);
+        if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) return new IntInsnNode(Opcodes.SIPUSH, v);
+        return new LdcInsnNode(v);
     }
   }
 
@@ -0,0 +1,244 @@
+package msplit;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.function.IntFunction;
+
+import static msplit.TestUtil.*;
+import static msplit.Util.*;
+
+/**
+ * Generates methods that are hard on the splitter, each scaled by a size. Unless noted otherwise, they are
+ * {@code static long name(int)} and return a sum based on the param, built with the same {@link TestUtil} helpers as
+ * {@link MethodGenerator}. They all have their own expanded frames and maxs so they can be written without computing
+ * them.
+ */
+class AdversarialMethods {
+  private AdversarialMethods() { }
+
+  /** Frame locals of the int param and the long sum, the only state at jump targets unless noted otherwise */
+  private static final Object[] FRAME_LOCALS = { Opcodes.INTEGER, Opcodes.LONG };
+
+  /** Each kind of method by name, for tests that go over all of them */
+  enum Kind {
+    HUGE_TABLE_SWITCH(AdversarialMethods::hugeTableSwitch),
+    HUGE_LOOKUP_SWITCH(AdversarialMethods::hugeLookupSwitch),
+    NESTED_TRY_CATCH_FINALLY(AdversarialMethods::nestedTryCatchFinally),
+    MANY_BACKWARD_BRANCHES(AdversarialMethods::manyBackwardBranches),
+    /** Scaled by updates since the locals at every instruction are inherently that many times the instructions */
+    MANY_LIVE_LOCALS(updates -> manyLiveLocals(1000, updates)),
+    WIDE_STACKS(AdversarialMethods::wideStacks);
+
+    final IntFunction<MethodNode> generate;
+
+    Kind(IntFunction<MethodNode> generate) { this.generate = generate; }
+  }
+
+  /** A table switch with the given number of cases, each adding to the sum a few times */
+  static MethodNode hugeTableSwitch(int cases) {
+    MethodNode method = startLongSumMethod("hugeTableSwitch");
+    LabelNode[] labels = new LabelNode[cases];
+    for (int i = 0; i < cases; i++) labels[i] = new LabelNode();
+    LabelNode end = new LabelNode();
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.instructions.add(new TableSwitchInsnNode(0, cases - 1, end, labels));
+    addCases(method, labels, end);
+    return finishLongSumMethod(method, 4, 3);
+  }
+
+  /** A lookup switch with the given number of sparse keys, each adding to the sum a few times */
+  static MethodNode hugeLookupSwitch(int cases) {
+    MethodNode method = startLongSumMethod("hugeLookupSwitch");
+    LabelNode[] labels = new LabelNode[cases];
+    int[] keys = new int[cases];
+    for (int i = 0; i < cases; i++) {
+      labels[i] = new LabelNode();
+      keys[i] = i * 7;
+    }
+    LabelNode end = new LabelNode();
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.instructions.add(new LookupSwitchInsnNode(end, keys, labels));
+    addCases(method, labels, end);
+    return finishLongSumMethod(method, 4, 3);
+  }
+
+  /**
+   * The given number of nested try blocks, each with a catch that adds and a finally that adds on both the normal and
+   * the exceptional path like javac emits. The innermost throws when the param is negative.
+   */
+  static MethodNode nestedTryCatchFinally(int depth) { return nestedTryCatchFinally(depth, 1); }
+
+  /**
+   * Same as {@link #nestedTryCatchFinally(int)} with the given number of adds at the start of each try block, so the
+   * method can grow without nesting deeper
+   */
+  static MethodNode nestedTryCatchFinally(int depth, int bodyAdds) {
+    MethodNode method = startLongSumMethod("nestedTryCatchFinally");
+    addNestedTry(method, depth, 1, bodyAdds);
+    // Throwable local for finally is slot 3
+    return finishLongSumMethod(method, 4, 4);
+  }
+
+  private static void addNestedTry(MethodNode method, int depth, int value, int bodyAdds) {
+    LabelNode start = new LabelNode();
+    LabelNode end = new LabelNode();
+    LabelNode catchHandler = new LabelNode();
+    LabelNode finallyHandler = new LabelNode();
+    LabelNode after = new LabelNode();
+    method.instructions.add(start);
+    for (int i = 1; i <= bodyAdds; i++) addParamTimes(method, value * i);
+    if (depth > 1) {
+      addNestedTry(method, depth - 1, value + 1, bodyAdds);
+    } else {
+      // Throw if negative
+      LabelNode noThrow = new LabelNode();
+      method.visitVarInsn(Opcodes.ILOAD, 0);
+      method.instructions.add(new JumpInsnNode(Opcodes.IFGE, noThrow));
+      method.visitTypeInsn(Opcodes.NEW, "java/lang/IllegalStateException");
+      method.visitInsn(Opcodes.DUP);
+      method.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/IllegalStateException", "<init>", "()V", false);
+      method.visitInsn(Opcodes.ATHROW);
+      addLabelWithFrame(method, noThrow, FRAME_LOCALS);
+    }
+    method.instructions.add(end);
+    // Finally on the normal path
+    addParamTimes(method, value * 1000);
+    method.instructions.add(new JumpInsnNode(Opcodes.GOTO, after));
+    // Catch adds, then finally
+    method.instructions.add(catchHandler);
+    method.instructions.add(frame(FRAME_LOCALS, "java/lang/RuntimeException"));
+    method.visitInsn(Opcodes.POP);
+    addParamTimes(method, value * 100);
+    LabelNode catchEnd = new LabelNode();
+    method.instructions.add(catchEnd);
+    addParamTimes(method, value * 1000);
+    method.instructions.add(new JumpInsnNode(Opcodes.GOTO, after));
+    // Finally on the exceptional path of the try or the catch stores, adds, and rethrows
+    method.instructions.add(finallyHandler);
+    method.instructions.add(frame(FRAME_LOCALS, "java/lang/Throwable"));
+    method.visitVarInsn(Opcodes.ASTORE, 3);
+    addParamTimes(method, value * 1000);
+    method.visitVarInsn(Opcodes.ALOAD, 3);
+    method.visitInsn(Opcodes.ATHROW);
+    addLabelWithFrame(method, after, FRAME_LOCALS);
+    // Inner blocks are added first since the first matching block in the list handles the exception
+    method.tryCatchBlocks.add(new TryCatchBlockNode(start, end, catchHandler, "java/lang/RuntimeException"));
+    method.tryCatchBlocks.add(new TryCatchBlockNode(start, end, finallyHandler, null));
+    method.tryCatchBlocks.add(new TryCatchBlockNode(catchHandler, catchEnd, finallyHandler, null));
+  }
+
+  /** The given number of small loops that each run three times, so every other instruction is in a loop */
+  static MethodNode manyBackwardBranches(int loops) {
+    MethodNode method = startLongSumMethod("manyBackwardBranches");
+    Object[] frameLocals = { Opcodes.INTEGER, Opcodes.LONG, Opcodes.INTEGER };
+    for (int i = 0; i < loops; i++) {
+      LabelNode top = new LabelNode();
+      LabelNode end = new LabelNode();
+      method.visitInsn(Opcodes.ICONST_0);
+      method.visitVarInsn(Opcodes.ISTORE, 3);
+      addLabelWithFrame(method, top, frameLocals);
+      method.visitVarInsn(Opcodes.ILOAD, 3);
+      method.visitInsn(Opcodes.ICONST_3);
+      method.instructions.add(new JumpInsnNode(Opcodes.IF_ICMPGE, end));
+      addParamTimes(method, i + 1);
+      method.visitIincInsn(3, 1);
+      method.instructions.add(new JumpInsnNode(Opcodes.GOTO, top));
+      addLabelWithFrame(method, end, frameLocals);
+    }
+    return finishLongSumMethod(method, 4, 4);
+  }
+
+  /**
+   * The given number of int locals set from the param, then the given number of updates that each xor a local with the
+   * next one, then all summed at the end so every local is live throughout
+   */
+  static MethodNode manyLiveLocals(int locals, int updates) {
+    MethodNode method = startLongSumMethod("manyLiveLocals");
+    int first = 3;
+    for (int i = 0; i < locals; i++) {
+      method.visitVarInsn(Opcodes.ILOAD, 0);
+      intConst(i).accept(method);
+      method.visitInsn(Opcodes.IADD);
+      method.visitVarInsn(Opcodes.ISTORE, first + i);
+    }
+    for (int i = 0; i < updates; i++) {
+      method.visitVarInsn(Opcodes.ILOAD, first + i % locals);
+      method.visitVarInsn(Opcodes.ILOAD, first + (i + 1) % locals);
+      method.visitInsn(Opcodes.IXOR);
+      method.visitVarInsn(Opcodes.ISTORE, first + i % locals);
+    }
+    for (int i = 0; i < locals; i++) {
+      method.visitVarInsn(Opcodes.LLOAD, SUM_LOCAL);
+      method.visitVarInsn(Opcodes.ILOAD, first + i);
+      method.visitInsn(Opcodes.I2L);
+      method.visitInsn(Opcodes.LADD);
+      method.visitVarInsn(Opcodes.LSTORE, SUM_LOCAL);
+    }
+    return finishLongSumMethod(method, 4, first + locals);
+  }
+
+  /**
+   * The given number of groups that each push four longs and four doubles computed from the param before adding them
+   * all to the sum, so many candidate split points have a stack of longs and doubles at the start or end
+   */
+  static MethodNode wideStacks(int groups) {
+    MethodNode method = startLongSumMethod("wideStacks");
+    for (int i = 0; i < groups; i++) {
+      for (int j = 0; j < 8; j++) {
+        method.visitVarInsn(Opcodes.ILOAD, 0);
+        if (j % 2 == 0) {
+          method.visitInsn(Opcodes.I2L);
+          method.visitLdcInsn((long) (i * 8 + j + 1));
+          method.visitInsn(Opcodes.LMUL);
+        } else {
+          method.visitInsn(Opcodes.I2D);
+          method.visitLdcInsn((double) (i * 8 + j + 1));
+          method.visitInsn(Opcodes.DMUL);
+        }
+      }
+      // Pop back down adding each pair, doubles to longs
+      for (int j = 0; j < 4; j++) {
+        method.visitInsn(Opcodes.D2L);
+        method.visitInsn(Opcodes.LADD);
+        method.visitVarInsn(Opcodes.LLOAD, SUM_LOCAL);
+        method.visitInsn(Opcodes.LADD);
+        method.visitVarInsn(Opcodes.LSTORE, SUM_LOCAL);
+      }
+    }
+    return finishLongSumMethod(method, 18, 3);
+  }
+
+  /**
+   * A {@code static void <clinit>()} that sets the {@code int[] DATA} static field of the owner to an array of the
+   * given length filled with constants, the same as javac does for a large constant array
+   */
+  static MethodNode largeClinit(String owner, int length) {
+    MethodNode method = new MethodNode(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+    intConst(length).accept(method);
+    method.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+    for (int i = 0; i < length; i++) {
+      method.visitInsn(Opcodes.DUP);
+      intConst(i).accept(method);
+      intConst(i * 31).accept(method);
+      method.visitInsn(Opcodes.IASTORE);
+    }
+    method.visitFieldInsn(Opcodes.PUTSTATIC, owner, "DATA", "[I");
+    method.visitInsn(Opcodes.RETURN);
+    method.visitMaxs(4, 0);
+    return method;
+  }
+
+  /**
+   * Each label is a case that adds multiples of its index and jumps to the end which has a frame. A case can't be split
+   * off with the others since the switch jumps into each, so it adds enough to be worth splitting off on its own.
+   */
+  private static void addCases(MethodNode method, LabelNode[] labels, LabelNode end) {
+    for (int i = 0; i < labels.length; i++) {
+      addLabelWithFrame(method, labels[i], FRAME_LOCALS);
+      for (int j = 1; j <= 6; j++) addParamTimes(method, (i + 1) * j);
+      method.instructions.add(new JumpInsnNode(Opcodes.GOTO, end));
+    }
+    addLabelWithFrame(method, end, FRAME_LOCALS);
+  }
+}
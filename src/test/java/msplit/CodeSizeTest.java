@@ -0,0 +1,61 @@
+package msplit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import static msplit.TestUtil.*;
+import static msplit.Util.*;
+
+public class CodeSizeTest {
+
+  @Test
+  public void testCodeSizeMatchesWritten() {
+    // Create a method too large with many differently sized insns, never run so it doesn't have to be valid
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.VOID_TYPE), null, null);
+    for (int i = 0; i < 1500; i++) {
+      Label label = new Label();
+      method.visitLabel(label);
+      method.visitLineNumber(i + 1, label);
+      intConst(i).accept(method);
+      method.visitVarInsn(Opcodes.ISTORE, i % 300);
+      method.visitIincInsn(i % 300, i % 2 == 0 ? 1 : 1000);
+      method.visitLdcInsn((long) i);
+      method.visitVarInsn(Opcodes.LSTORE, 2);
+      method.visitFieldInsn(Opcodes.GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+      method.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/Object");
+      method.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/lang/Runnable", "run", "()V", true);
+      method.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+      method.visitMultiANewArrayInsn("[[I", 2);
+      // Switches at varying offsets for padding
+      for (int j = 0; j < i % 4; j++) method.visitInsn(Opcodes.NOP);
+      Label end = new Label();
+      method.visitVarInsn(Opcodes.ILOAD, 1);
+      method.visitTableSwitchInsn(0, 2, end, end, end, end);
+      method.visitVarInsn(Opcodes.ILOAD, 1);
+      method.visitLookupSwitchInsn(end, new int[] { 5, 10 }, new Label[] { end, end });
+      method.visitVarInsn(Opcodes.ILOAD, 1);
+      method.visitJumpInsn(Opcodes.IFEQ, label);
+      method.visitLabel(end);
+    }
+    method.visitInsn(Opcodes.RETURN);
+    ClassNode cls = manualClassWithMethods(method);
+
+    // Write it and make sure the exception has the size we calculated
+    try {
+      ClassWriter writer = new ClassWriter(0);
+      cls.accept(writer);
+      writer.toByteArray();
+      Assert.fail("Expected exception");
+    } catch (MethodTooLargeException e) {
+      Assert.assertEquals(CodeSize.of(method), e.getCodeSize());
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package msplit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static msplit.TestUtil.*;
+
+public class JarSplitterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSplitJar() throws Exception {
+    // Create a jar with a class with a large method, a class without, and a non-class entry between them
+    ClassNode large = manualClassWithMethods(summingMethod("testMethod", 5000));
+    ClassNode small = manualClassWithMethods(summingMethod("testMethod", 10));
+    File in = folder.newFile("in.jar");
+    try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(in))) {
+      zipOut.putNextEntry(new ZipEntry(large.name + ".class"));
+      zipOut.write(classNodeToBytes(large));
+      zipOut.putNextEntry(new ZipEntry("resource.txt"));
+      zipOut.write("Some text".getBytes(StandardCharsets.UTF_8));
+      zipOut.putNextEntry(new ZipEntry(small.name + ".class"));
+      zipOut.write(classNodeToBytes(small));
+    }
+
+    // Split it
+    File out = new File(folder.getRoot(), "out.jar");
+    JarSplitter.Summary summary = new JarSplitter(Opcodes.ASM6, 8000, ForkJoinPool.commonPool()).
+        split(in.toPath(), out.toPath());
+    Assert.assertEquals(2, summary.classCount);
+    Assert.assertEquals(1, summary.rewrittenClassCount);
+    Assert.assertEquals(1, summary.splitMethodCount);
+    Assert.assertTrue(summary.splitOffMethodCount > 0);
+    Assert.assertTrue(summary.failedClasses.isEmpty());
+
+    // Check the entries are in order, the text is the same, and the split class works
+    try (ZipFile zip = new ZipFile(out)) {
+      List<? extends ZipEntry> entries = Collections.list(zip.entries());
+      Assert.assertEquals(Arrays.asList(large.name + ".class", "resource.txt", small.name + ".class"),
+          Arrays.asList(entries.get(0).getName(), entries.get(1).getName(), entries.get(2).getName()));
+      byte[] text = JarSplitter.readAll(zip.getInputStream(entries.get(1)));
+      Assert.assertEquals("Some text", new String(text, StandardCharsets.UTF_8));
+      byte[] largeBytes = JarSplitter.readAll(zip.getInputStream(entries.get(0)));
+      for (MethodNode method : bytesToClassNode(largeBytes).methods) Assert.assertTrue(CodeSize.of(method) <= 8000);
+      Method method = RuntimeCompiler.defineClass(large.name, largeBytes).getMethod("testMethod");
+      Assert.assertEquals(summingMethodResult(5000), method.invoke(null));
+    }
+  }
+
+  @Test
+  public void testSplitJarWithBadClass() throws Exception {
+    // A class that can't be read between more classes than one thread has in flight
+    File in = folder.newFile("in.jar");
+    byte[] bad = "Not a class".getBytes(StandardCharsets.UTF_8);
+    List<String> names = new ArrayList<>();
+    try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(in))) {
+      for (int i = 0; i < 10; i++) {
+        String name = i == 3 ? "Bad.class" : "Good" + i + ".class";
+        names.add(name);
+        zipOut.putNextEntry(new ZipEntry(name));
+        zipOut.write(i == 3 ? bad : classNodeToBytes(manualClassWithMethods(summingMethod("testMethod", 2500))));
+      }
+    }
+
+    // It's left as is and the rest are still split
+    File out = new File(folder.getRoot(), "out.jar");
+    ForkJoinPool pool = new ForkJoinPool(1);
+    try {
+      JarSplitter.Summary summary = new JarSplitter(Opcodes.ASM6, 8000, pool).split(in.toPath(), out.toPath());
+      Assert.assertEquals(10, summary.classCount);
+      Assert.assertEquals(9, summary.rewrittenClassCount);
+      Assert.assertEquals(Collections.singletonList("Bad.class"), summary.failedClasses);
+    } finally {
+      pool.shutdown();
+    }
+    try (ZipFile zip = new ZipFile(out)) {
+      List<String> outNames = new ArrayList<>();
+      for (ZipEntry entry : Collections.list(zip.entries())) outNames.add(entry.getName());
+      Assert.assertEquals(names, outNames);
+      Assert.assertArrayEquals(bad, JarSplitter.readAll(zip.getInputStream(zip.getEntry("Bad.class"))));
+    }
+  }
+
+  @Test
+  public void testSplitSignedJar() throws Exception {
+    // A signed jar with a large class and a resource, both stored instead of deflated, then a small class and one that
+    // can't be read
+    ClassNode large = manualClassWithMethods(summingMethod("testMethod", 5000));
+    byte[] smallBytes = classNodeToBytes(manualClassWithMethods(summingMethod("testMethod", 10)));
+    byte[] bad = "Not a class".getBytes(StandardCharsets.UTF_8);
+    byte[] text = "Some text".getBytes(StandardCharsets.UTF_8);
+    File in = folder.newFile("in.jar");
+    try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(in))) {
+      zipOut.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+      zipOut.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+      zipOut.putNextEntry(new ZipEntry("META-INF/SIGNER.SF"));
+      zipOut.write("Signature-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+      zipOut.putNextEntry(new ZipEntry("META-INF/SIGNER.RSA"));
+      zipOut.write(new byte[] { 1, 2, 3 });
+      zipOut.putNextEntry(storedEntry("resource.txt", text));
+      zipOut.write(text);
+      byte[] largeBytes = classNodeToBytes(large);
+      zipOut.putNextEntry(storedEntry(large.name + ".class", largeBytes));
+      zipOut.write(largeBytes);
+      zipOut.putNextEntry(new ZipEntry("Small.class"));
+      zipOut.write(smallBytes);
+      zipOut.putNextEntry(new ZipEntry("Bad.class"));
+      zipOut.write(bad);
+    }
+
+    // The signature files are left out since the class no longer matches them, the rest stay stored
+    File out = new File(folder.getRoot(), "out.jar");
+    JarSplitter.Summary summary = new JarSplitter(Opcodes.ASM6, 8000, ForkJoinPool.commonPool()).
+        split(in.toPath(), out.toPath());
+    Assert.assertEquals(3, summary.classCount);
+    Assert.assertEquals(1, summary.rewrittenClassCount);
+    Assert.assertEquals(Collections.singletonList("Bad.class"), summary.failedClasses);
+    Assert.assertEquals(2, summary.droppedSignatureFileCount);
+    try (ZipFile zip = new ZipFile(out)) {
+      List<String> names = new ArrayList<>();
+      for (ZipEntry entry : Collections.list(zip.entries())) names.add(entry.getName());
+      Assert.assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "resource.txt", large.name + ".class", "Small.class",
+          "Bad.class"), names);
+      Assert.assertArrayEquals(smallBytes, JarSplitter.readAll(zip.getInputStream(zip.getEntry("Small.class"))));
+      ZipEntry resource = zip.getEntry("resource.txt");
+      Assert.assertEquals(ZipEntry.STORED, resource.getMethod());
+      Assert.assertArrayEquals(text, JarSplitter.readAll(zip.getInputStream(resource)));
+      ZipEntry largeEntry = zip.getEntry(large.name + ".class");
+      Assert.assertEquals(ZipEntry.STORED, largeEntry.getMethod());
+      byte[] largeBytes = JarSplitter.readAll(zip.getInputStream(largeEntry));
+      Method method = RuntimeCompiler.defineClass(large.name, largeBytes).getMethod("testMethod");
+      Assert.assertEquals(summingMethodResult(5000), method.invoke(null));
+    }
+
+    // With the JVM limit nothing is rewritten so the signature files stay
+    summary = new JarSplitter(Opcodes.ASM6, SplitMethod.MAX_CODE_SIZE, ForkJoinPool.commonPool()).
+        split(in.toPath(), out.toPath());
+    Assert.assertEquals(3, summary.classCount);
+    Assert.assertEquals(0, summary.rewrittenClassCount);
+    Assert.assertEquals(0, summary.droppedSignatureFileCount);
+    try (ZipFile zip = new ZipFile(out)) {
+      Assert.assertNotNull(zip.getEntry("META-INF/SIGNER.SF"));
+      Assert.assertNotNull(zip.getEntry("META-INF/SIGNER.RSA"));
+    }
+  }
+
+  private static ZipEntry storedEntry(String name, byte[] bytes) {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(bytes.length);
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    entry.setCrc(crc.getValue());
+    return entry;
+  }
+}
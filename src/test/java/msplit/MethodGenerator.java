@@ -0,0 +1,155 @@
+package msplit;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.*;
+
+import java.util.Random;
+
+import static msplit.TestUtil.*;
+import static msplit.Util.*;
+
+/**
+ * Generates large methods with a given mix of jumps, switches, and try/catch nesting for tests and benchmarks. The
+ * generated method is {@code static long name(int)} and has its own expanded frames and maxs, so it can be split and
+ * written without computing them even when it's too large for a class writer to compute them. The same settings and
+ * seed always generate the same method.
+ * <p>
+ * The method is made of blocks that each add a value based on the param to a long local. Each block is a plain add, a
+ * forward jump over an add, a small loop around an add (backward jump), or a table switch with an add per case. With
+ * try/catch nesting set, every group of blocks is wrapped in that many nested try/catch blocks whose handlers also add.
+ */
+class MethodGenerator {
+  /** Locals are the int param, the long sum, and an int loop counter */
+  private static final Object[] FRAME_LOCALS = { Opcodes.INTEGER, Opcodes.LONG, Opcodes.INTEGER };
+  private static final int COUNTER_LOCAL = 3;
+  private static final int BLOCKS_PER_TRY = 10;
+
+  int insnCount = 10000;
+  /** The chance of each block being a jump, half are forward and half are loops */
+  double jumpDensity;
+  /** The chance of each block being a switch */
+  double switchDensity;
+  /** How many try/catch blocks are nested around each group of blocks, 0 for none */
+  int tryDepth;
+  long seed = 1;
+
+  private Random random;
+  private MethodNode method;
+  private int nextValue;
+
+  MethodGenerator insnCount(int insnCount) {
+    this.insnCount = insnCount;
+    return this;
+  }
+
+  MethodGenerator jumpDensity(double jumpDensity) {
+    this.jumpDensity = jumpDensity;
+    return this;
+  }
+
+  MethodGenerator switchDensity(double switchDensity) {
+    this.switchDensity = switchDensity;
+    return this;
+  }
+
+  MethodGenerator tryDepth(int tryDepth) {
+    this.tryDepth = tryDepth;
+    return this;
+  }
+
+  MethodGenerator seed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  /** Generate a method with at least {@link #insnCount} instructions */
+  MethodNode generate(String name) {
+    random = new Random(seed);
+    nextValue = 1;
+    method = startLongSumMethod(name);
+    method.visitInsn(Opcodes.ICONST_0);
+    method.visitVarInsn(Opcodes.ISTORE, COUNTER_LOCAL);
+    while (method.instructions.size() < insnCount) {
+      if (tryDepth > 0) addTryCatch(tryDepth);
+      else addBlock();
+    }
+    // Two longs on the stack at most, and the long and ints in locals
+    return finishLongSumMethod(method, 4, 4);
+  }
+
+  private void addBlock() {
+    double choice = random.nextDouble();
+    if (choice < jumpDensity / 2) addForwardJump();
+    else if (choice < jumpDensity) addLoop();
+    else if (choice < jumpDensity + switchDensity) addSwitch();
+    else addAdd();
+  }
+
+  /** Add the param times a new value to the sum */
+  private void addAdd() { addParamTimes(method, nextValue++); }
+
+  private void addForwardJump() {
+    LabelNode skip = new LabelNode();
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    intConst(nextValue % 100).accept(method);
+    method.instructions.add(new JumpInsnNode(Opcodes.IF_ICMPLT, skip));
+    addAdd();
+    addLabelWithFrame(skip);
+  }
+
+  private void addLoop() {
+    LabelNode top = new LabelNode();
+    LabelNode end = new LabelNode();
+    method.visitInsn(Opcodes.ICONST_0);
+    method.visitVarInsn(Opcodes.ISTORE, COUNTER_LOCAL);
+    addLabelWithFrame(top);
+    method.visitVarInsn(Opcodes.ILOAD, COUNTER_LOCAL);
+    method.visitInsn(Opcodes.ICONST_3);
+    method.instructions.add(new JumpInsnNode(Opcodes.IF_ICMPGE, end));
+    addAdd();
+    method.visitIincInsn(COUNTER_LOCAL, 1);
+    method.instructions.add(new JumpInsnNode(Opcodes.GOTO, top));
+    addLabelWithFrame(end);
+  }
+
+  private void addSwitch() {
+    LabelNode[] cases = { new LabelNode(), new LabelNode(), new LabelNode(), new LabelNode() };
+    LabelNode dflt = new LabelNode();
+    LabelNode end = new LabelNode();
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.visitInsn(Opcodes.ICONST_4);
+    method.visitInsn(Opcodes.IREM);
+    method.instructions.add(new TableSwitchInsnNode(0, cases.length - 1, dflt, cases));
+    for (LabelNode label : cases) {
+      addLabelWithFrame(label);
+      addAdd();
+      method.instructions.add(new JumpInsnNode(Opcodes.GOTO, end));
+    }
+    addLabelWithFrame(dflt);
+    addAdd();
+    addLabelWithFrame(end);
+  }
+
+  /** Wrap a group of blocks in the given number of try/catch blocks, each handler adds instead */
+  private void addTryCatch(int depth) {
+    LabelNode start = new LabelNode();
+    LabelNode end = new LabelNode();
+    LabelNode handler = new LabelNode();
+    LabelNode after = new LabelNode();
+    method.instructions.add(start);
+    if (depth > 1) addTryCatch(depth - 1);
+    else for (int i = 0; i < BLOCKS_PER_TRY; i++) addBlock();
+    method.instructions.add(end);
+    // Added after the nested ones since the first matching block in the list handles the exception
+    method.tryCatchBlocks.add(new TryCatchBlockNode(start, end, handler, "java/lang/RuntimeException"));
+    method.instructions.add(new JumpInsnNode(Opcodes.GOTO, after));
+    method.instructions.add(handler);
+    method.instructions.add(frame(FRAME_LOCALS, "java/lang/RuntimeException"));
+    method.visitInsn(Opcodes.POP);
+    addAdd();
+    addLabelWithFrame(after);
+  }
+
+  /** Add the label with a frame with all locals and an empty stack, the only state at any jump target here */
+  private void addLabelWithFrame(LabelNode label) { TestUtil.addLabelWithFrame(method, label, FRAME_LOCALS); }
+}
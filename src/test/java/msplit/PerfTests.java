@@ -0,0 +1,8 @@
+package msplit;
+
+/**
+ * JUnit category of tests that compare wall-clock times. They're left out of "gradle test" and run on their own by
+ * "gradle perfTest", after the other tests and with nothing else in that JVM, which "gradle check" depends on.
+ */
+public interface PerfTests {
+}
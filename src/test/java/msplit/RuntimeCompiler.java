@@ -8,6 +8,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Collections;
 
 class RuntimeCompiler {
@@ -46,9 +47,9 @@ class RuntimeCompiler {
         return targetFile;
       }
     };
-    // Run compiler
+    // Run compiler, targeting 8 so the class can be read by ASM no matter the JDK
     JavaCompiler.CompilationTask task = compiler.getTask(new OutputStreamWriter(err),
-        fileManager, null, null, null, Collections.singleton(sourceFile));
+        fileManager, null, Arrays.asList("-source", "8", "-target", "8"), null, Collections.singleton(sourceFile));
     if (!task.call()) throw new RuntimeException("Compilation failed, output:\n" + new String(err.toByteArray()));
     return out.toByteArray();
   }
@@ -0,0 +1,186 @@
+package msplit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static msplit.TestUtil.*;
+
+public class ScalingTest {
+  /**
+   * How many times longer the analysis can take for a method 4x the size. Linear is 4x and n log n is a bit more, so
+   * this leaves room for noise while quadratic (16x) still fails.
+   */
+  private static final double MAX_GROWTH = 10;
+
+  /**
+   * How many times longer building split points can take for a nest of try blocks 4x as deep. Quadratic is 16x, so this
+   * leaves the same room for noise while cubic (64x) still fails.
+   */
+  private static final double MAX_QUADRATIC_GROWTH = 40;
+
+  @Test
+  public void testSplitAdversarialMethods() throws Exception {
+    for (AdversarialMethods.Kind kind : AdversarialMethods.Kind.values()) {
+      MethodNode method = smallMethod(kind);
+      Method origMethod = compileMethodAsIs(manualClassWithMethods(method), method.name);
+      ClassNode cls = manualClassWithMethods(method);
+      int maxBytes = new CodeSize(method).sizeOf(0, method.instructions.size() - 1) / 3;
+      SplitMethod.FitResult result = new SplitMethod(Opcodes.ASM6).splitUntilFits(cls.name, method, maxBytes);
+      Assert.assertNotNull("Unable to split " + kind, result);
+      List<MethodNode> methods = new ArrayList<>(result.splitOffMethods);
+      methods.add(result.trimmedMethod);
+      cls.methods = methods;
+      Method trimmedMethod = compileMethodAsIs(cls, method.name);
+      for (int param : new int[] { 0, 5, 42, -1 }) {
+        Assert.assertEquals(kind + " with " + param, invoke(origMethod, param), invoke(trimmedMethod, param));
+      }
+    }
+  }
+
+  @Test
+  public void testSplitLargeClinit() throws Exception {
+    ClassNode cls = manualClassWithMethods();
+    cls.fields.add(new FieldNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "DATA", "[I", null, null));
+    MethodNode method = AdversarialMethods.largeClinit(cls.name, 3000);
+    SplitMethod.FitResult result = new SplitMethod(Opcodes.ASM6).splitUntilFits(cls.name, method, 8000);
+    Assert.assertNotNull(result);
+    cls.methods.addAll(result.splitOffMethods);
+    cls.methods.add(result.trimmedMethod);
+    int[] data = (int[]) RuntimeCompiler.defineClass(cls.name, classNodeToBytes(cls)).getField("DATA").get(null);
+    Assert.assertEquals(3000, data.length);
+    for (int i = 0; i < data.length; i++) Assert.assertEquals(i * 31, data[i]);
+  }
+
+  @Test
+  @Category(PerfTests.class)
+  public void testAnalysisScaling() {
+    for (AdversarialMethods.Kind kind : AdversarialMethods.Kind.values()) {
+      int size = scalingSize(kind);
+      assertScalesLinearly(kind + " range search", kind.generate.apply(size), kind.generate.apply(size * 4),
+          ScalingTest::rangeSearch);
+      assertScalesLinearly(kind + " split points", splitPointScalingMethod(kind, size),
+          splitPointScalingMethod(kind, size * 4), ScalingTest::buildSplitPoints);
+    }
+  }
+
+  @Test
+  @Category(PerfTests.class)
+  public void testTryDepthScaling() {
+    // Each split point crosses and catches for the blocks of every level around its start, so 4x the depth at the same
+    // body length is 4x the split points each doing up to 4x the work
+    assertGrowsAtMost("nested try depth split points", AdversarialMethods.nestedTryCatchFinally(10, 10),
+        AdversarialMethods.nestedTryCatchFinally(40, 10), ScalingTest::buildSplitPoints, MAX_QUADRATIC_GROWTH);
+  }
+
+  /** Fail if the analysis takes more than {@link #MAX_GROWTH} times longer for the larger method */
+  private static void assertScalesLinearly(String what, MethodNode method, MethodNode largerMethod,
+      Consumer<MethodNode> analysis) {
+    assertGrowsAtMost(what, method, largerMethod, analysis, MAX_GROWTH);
+  }
+
+  /** Fail if the analysis takes more than the given times longer for the larger method */
+  private static void assertGrowsAtMost(String what, MethodNode method, MethodNode largerMethod,
+      Consumer<MethodNode> analysis, double maxGrowth) {
+    // Warm up, then take the best of a few runs to leave out the JIT and GC as much as possible. A real regression
+    // is over every time, so noise is left out further by measuring again when over.
+    analysisNanos(method, analysis);
+    analysisNanos(largerMethod, analysis);
+    double growth = Double.MAX_VALUE;
+    for (int attempt = 0; attempt < 3 && growth > maxGrowth; attempt++) {
+      growth = Math.min(growth,
+          (double) analysisNanos(largerMethod, analysis) / analysisNanos(method, analysis));
+    }
+    if (debug) System.out.println(what + " analysis growth for 4x size: " + growth);
+    Assert.assertTrue(what + " analysis grew " + growth + "x for 4x size", growth <= maxGrowth);
+  }
+
+  /** Best time of a few runs of the analysis */
+  private static long analysisNanos(MethodNode method, Consumer<MethodNode> analysis) {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < 3; run++) {
+      System.gc();
+      long start = System.nanoTime();
+      analysis.accept(method);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  /** Build the splitter state and find the longest range at every index, which is what split until fits does */
+  private static void rangeSearch(MethodNode method) {
+    Splitter.Iter iter = new Splitter(Opcodes.ASM6, "Foo", method, Splitter.SizeUnit.BYTES, 1,
+        SplitMethod.HUGE_METHOD_LIMIT).newIter();
+    int size = method.instructions.size();
+    for (int i = 0; i < size; i++) iter.longestRangeForIndex(i, size - 1);
+  }
+
+  /**
+   * Build every split point with the default sizes of {@link SplitMethod#split(String, MethodNode)}. Those ranges grow
+   * with the method, so anything done over a whole range for each split point shows up as quadratic.
+   */
+  private static void buildSplitPoints(MethodNode method) {
+    int insnCount = method.instructions.size();
+    Iterator<Splitter.SplitPoint> iter = new Splitter(Opcodes.ASM6, "Foo", method, (int) (insnCount * 0.2) + 1,
+        (int) (insnCount * 0.7) + 1).iterator();
+    while (iter.hasNext()) iter.next();
+  }
+
+  /**
+   * A method of each kind for {@link #buildSplitPoints(MethodNode)}. Each split point in a method with many live locals
+   * passes most of them, so it has fewer to be timed in a reasonable time. Each split point in a nest of try blocks
+   * crosses and catches for the blocks of every level around its start, which grows with the depth squared no matter
+   * what, so the nest grows by the length of each level's body at a fixed depth here, and
+   * {@link #testTryDepthScaling()} holds growing the depth to a quadratic bound.
+   */
+  private static MethodNode splitPointScalingMethod(AdversarialMethods.Kind kind, int size) {
+    if (kind == AdversarialMethods.Kind.MANY_LIVE_LOCALS) return AdversarialMethods.manyLiveLocals(50, size);
+    if (kind == AdversarialMethods.Kind.NESTED_TRY_CATCH_FINALLY) {
+      return AdversarialMethods.nestedTryCatchFinally(10, size / 10);
+    }
+    return kind.generate.apply(size);
+  }
+
+  /** A method of each kind that's large enough to split but small enough to split quickly and write as is */
+  private static MethodNode smallMethod(AdversarialMethods.Kind kind) {
+    switch (kind) {
+      // Ranges starting inside the nest have to tell apart every part its blocks cover to rethrow to the right
+      // handler, so each level needs enough of a body to be worth splitting off of it
+      case NESTED_TRY_CATCH_FINALLY: return AdversarialMethods.nestedTryCatchFinally(20, 6);
+      // Reading and writing hundreds of locals is larger than most ranges, so it takes long to find the few that aren't
+      case MANY_LIVE_LOCALS: return AdversarialMethods.manyLiveLocals(100, 1000);
+      case WIDE_STACKS: return kind.generate.apply(50);
+      default: return kind.generate.apply(200);
+    }
+  }
+
+  /** Size of each kind that gives a few thousand instructions, so timing is more than noise */
+  private static int scalingSize(AdversarialMethods.Kind kind) {
+    switch (kind) {
+      case HUGE_TABLE_SWITCH:
+      case HUGE_LOOKUP_SWITCH: return 250;
+      case NESTED_TRY_CATCH_FINALLY: return 100;
+      case MANY_LIVE_LOCALS: return 2500;
+      case WIDE_STACKS: return 250;
+      default: return 1000;
+    }
+  }
+
+  /** The result or the exception type */
+  private static Object invoke(Method method, int param) throws Exception {
+    try {
+      return method.invoke(null, param);
+    } catch (InvocationTargetException e) {
+      return e.getCause().getClass();
+    }
+  }
+}
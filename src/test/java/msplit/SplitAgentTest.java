@@ -0,0 +1,77 @@
+package msplit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.File;
+import java.lang.reflect.Method;
+
+import static msplit.TestUtil.*;
+
+public class SplitAgentTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testTransformer() throws Exception {
+    ClassNode large = manualClassWithMethods(summingMethod("testMethod", 5000));
+    byte[] largeBytes = classNodeToBytes(large);
+    byte[] smallBytes = classNodeToBytes(manualClassWithMethods(summingMethod("testMethod", 10)));
+    File cacheDir = folder.newFolder();
+    SplitAgent.Transformer transformer = new SplitAgent.Transformer(Opcodes.ASM6, 8000, cacheDir.toPath());
+
+    // Small classes are left alone, large ones are split and work
+    Assert.assertNull(transformer.transform(null, "small", null, null, smallBytes));
+    byte[] split = transformer.transform(null, large.name, null, null, largeBytes);
+    Assert.assertNotNull(split);
+    for (MethodNode method : bytesToClassNode(split).methods) Assert.assertTrue(CodeSize.of(method) <= 8000);
+    Method method = RuntimeCompiler.defineClass(large.name, split).getMethod("testMethod");
+    Assert.assertEquals(summingMethodResult(5000), method.invoke(null));
+
+    // The same bytes come from disk, for a new transformer too, and different max bytes are stored separately
+    Assert.assertEquals(1, cacheDir.list().length);
+    Assert.assertArrayEquals(split, transformer.transform(null, large.name, null, null, largeBytes));
+    transformer = new SplitAgent.Transformer(Opcodes.ASM6, 8000, cacheDir.toPath());
+    Assert.assertArrayEquals(split, transformer.transform(null, large.name, null, null, largeBytes));
+    Assert.assertEquals(1, cacheDir.list().length);
+    new SplitAgent.Transformer(Opcodes.ASM6, 7000, cacheDir.toPath()).transform(null, large.name, null, null,
+        largeBytes);
+    Assert.assertEquals(2, cacheDir.list().length);
+
+    // Without a cache dir it's still split the same
+    transformer = new SplitAgent.Transformer(Opcodes.ASM6, 8000, null);
+    Assert.assertArrayEquals(split, transformer.transform(null, large.name, null, null, largeBytes));
+  }
+
+  @Test
+  public void testTransformerCacheLimits() throws Exception {
+    ClassNode large = manualClassWithMethods(summingMethod("testMethod", 5000));
+    byte[] largeBytes = classNodeToBytes(large);
+    File cacheDir = folder.newFolder();
+
+    // A class loaded again comes from memory even when its file is gone
+    SplitAgent.Transformer transformer = new SplitAgent.Transformer(Opcodes.ASM6, 8000, cacheDir.toPath());
+    byte[] split = transformer.transform(null, large.name, null, null, largeBytes);
+    for (File file : cacheDir.listFiles()) Assert.assertTrue(file.delete());
+    Assert.assertSame(split, transformer.transform(null, large.name, null, null, largeBytes));
+    Assert.assertEquals(0, cacheDir.list().length);
+
+    // Nothing is kept in memory over its max size, and the dir is evicted down when over its own, which only has room
+    // for one split class
+    long maxCacheDirBytes = split.length * 3 / 2;
+    transformer = new SplitAgent.Transformer(Opcodes.ASM6, 8000, cacheDir.toPath(), maxCacheDirBytes, 0);
+    Assert.assertArrayEquals(split, transformer.transform(null, large.name, null, null, largeBytes));
+    Assert.assertEquals(1, cacheDir.list().length);
+    Assert.assertNotSame(split, transformer.transform(null, large.name, null, null, largeBytes));
+    byte[] otherSplit = new SplitAgent.Transformer(Opcodes.ASM6, 7000, cacheDir.toPath(), maxCacheDirBytes, 0).
+        transform(null, large.name, null, null, largeBytes);
+    Assert.assertTrue(otherSplit.length <= maxCacheDirBytes * SplitCache.EVICT_TO_RATIO);
+    Assert.assertEquals(1, cacheDir.list().length);
+  }
+}
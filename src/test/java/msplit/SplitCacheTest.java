@@ -0,0 +1,83 @@
+package msplit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static msplit.TestUtil.*;
+
+public class SplitCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCachedSplitUntilFits() throws Exception {
+    File dir = folder.newFolder();
+    MethodNode method = summingMethod("testMethod", 5000);
+    ClassNode cls = manualClassWithMethods(method);
+
+    // First is a miss, second with a new cache is a hit
+    SplitMethod.FitResult result = new SplitCache(new SplitMethod(Opcodes.ASM6), dir.toPath(), Long.MAX_VALUE).
+        splitUntilFits(cls.name, method, 8000, 8000);
+    SplitCache cache = new SplitCache(new SplitMethod(Opcodes.ASM6), dir.toPath(), Long.MAX_VALUE);
+    SplitMethod.FitResult cached = cache.splitUntilFits(cls.name, method, 8000, 8000);
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(0, cache.getMissCount());
+    Assert.assertEquals(result.splitOffMethods.size(), cached.splitOffMethods.size());
+    Assert.assertEquals(CodeSize.of(result.trimmedMethod), CodeSize.of(cached.trimmedMethod));
+
+    // The cached one works
+    List<MethodNode> methods = new ArrayList<>(cached.splitOffMethods);
+    methods.add(cached.trimmedMethod);
+    cls.methods = methods;
+    Method trimmedMethod = compileMethodAsIs(cls, method.name);
+    Assert.assertEquals(summingMethodResult(5000), trimmedMethod.invoke(null));
+
+    // Different params and different methods are misses
+    cache.splitUntilFits(cls.name, method, 7000, 7000);
+    cache.splitUntilFits(cls.name, summingMethod("testMethod", 5001), 8000, 8000);
+    Assert.assertEquals(2, cache.getMissCount());
+    Assert.assertEquals(3, dir.list().length);
+
+    // So are methods that only differ by annotation values, and each keeps its own
+    for (String value : Arrays.asList("a", "b")) {
+      MethodNode annotated = summingMethod("testMethod", 5000);
+      annotated.visitAnnotation("Lmsplit/Marker;", false).visit("value", value);
+      SplitMethod.FitResult annotatedResult = cache.splitUntilFits(cls.name, annotated, 8000, 8000);
+      Assert.assertEquals(value, annotatedResult.trimmedMethod.invisibleAnnotations.get(0).values.get(1));
+    }
+    Assert.assertEquals(4, cache.getMissCount());
+    Assert.assertEquals(5, dir.list().length);
+
+    // So are cost models with the same name and different weights
+    for (double weight : new double[] { 1, 2 }) {
+      CostModel costModel = new CostModel.Weighted("custom", 0, weight, 4, 1, false);
+      cache = new SplitCache(new SplitMethod(Opcodes.ASM6,
+          SplitMethod.Options.builder().costModel(costModel).build()), dir.toPath(), Long.MAX_VALUE);
+      cache.splitUntilFits(cls.name, method, 8000, 8000);
+      Assert.assertEquals(1, cache.getMissCount());
+    }
+    Assert.assertEquals(7, dir.list().length);
+
+    // Searching concurrently doesn't change the result, so it's a hit
+    cache = new SplitCache(new SplitMethod(Opcodes.ASM6,
+        SplitMethod.Options.builder().pool(ForkJoinPool.commonPool()).build()), dir.toPath(), Long.MAX_VALUE);
+    cache.splitUntilFits(cls.name, method, 8000, 8000);
+    Assert.assertEquals(1, cache.getHitCount());
+
+    // A cache too small for more than one evicts the least recently used
+    cache = new SplitCache(new SplitMethod(Opcodes.ASM6), dir.toPath(), 1);
+    cache.splitUntilFits(cls.name, method, 6000, 6000);
+    Assert.assertEquals(0, dir.list().length);
+  }
+}
@@ -2,14 +2,19 @@ package msplit;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodTooLargeException;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
-import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.*;
 
+import java.io.BufferedReader;
+import java.io.StringReader;
 import java.lang.reflect.Method;
-import java.util.Arrays;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import static msplit.TestUtil.*;
 import static msplit.Util.*;
@@ -62,4 +67,997 @@ public class SplitMethodTest {
     Method trimmedMethod = compileMethod(cls, method.name);
     Assert.assertEquals(expected, trimmedMethod.invoke(null));
   }
+
+  @Test
+  public void testSplitToFit() throws Exception {
+    // Create a method a bit too large
+    MethodNode method = summingMethod(13000);
+    ClassNode cls = manualClassWithMethods(method);
+
+    // Split it once, only as much as needed
+    SplitMethod.Result result = new SplitMethod(Opcodes.ASM6).splitToFit(cls.name, method, 65535);
+    if (debug) {
+      System.out.println("Orig method size: " + CodeSize.of(method));
+      System.out.println("Split off method size: " + CodeSize.of(result.splitOffMethod));
+      System.out.println("Trimmed method size: " + CodeSize.of(result.trimmedMethod));
+    }
+    Assert.assertTrue(CodeSize.of(result.trimmedMethod) <= 65535);
+    Assert.assertTrue(CodeSize.of(result.splitOffMethod) < CodeSize.of(method) - 65535 + 100);
+
+    // Replace methods, recalc frames/max, and compile
+    cls.methods = Arrays.asList(result.splitOffMethod, result.trimmedMethod);
+    cls = classWithComputedFramesAndMaxes(cls);
+    Method trimmedMethod = compileMethod(cls, method.name);
+    Assert.assertEquals(summingMethodResult(13000), trimmedMethod.invoke(null));
+  }
+
+  @Test
+  public void testSplitUntilFits() throws Exception {
+    // Create a method several times too large
+    MethodNode method = summingMethod(50000);
+    ClassNode cls = manualClassWithMethods(method);
+
+    // Split it and make sure every method fits
+    SplitMethod.FitResult result = new SplitMethod(Opcodes.ASM6).splitUntilFits(cls.name, method, 65535);
+    if (debug) {
+      System.out.println("Orig method insn count: " + method.instructions.size());
+      System.out.println("Split off method count: " + result.splitOffMethods.size());
+      System.out.println("Trimmed method insn count: " + result.trimmedMethod.instructions.size());
+    }
+    Assert.assertTrue(result.splitOffMethods.size() > 1);
+    Assert.assertTrue(CodeSize.of(result.trimmedMethod) <= 65535);
+    for (MethodNode splitOff : result.splitOffMethods) Assert.assertTrue(CodeSize.of(splitOff) <= 65535);
+
+    // Replace methods, recalc frames/max, and compile
+    List<MethodNode> methods = new ArrayList<>(result.splitOffMethods);
+    methods.add(result.trimmedMethod);
+    cls.methods = methods;
+    cls = classWithComputedFramesAndMaxes(cls);
+    Method trimmedMethod = compileMethod(cls, method.name);
+    Assert.assertEquals(summingMethodResult(50000), trimmedMethod.invoke(null));
+  }
+
+  @Test
+  public void testSplitForJit() throws Exception {
+    // Create a method that fits but is too large to be compiled
+    MethodNode method = summingMethod(3000);
+    ClassNode cls = manualClassWithMethods(method);
+    Assert.assertTrue(CodeSize.of(method) > SplitMethod.HUGE_METHOD_LIMIT);
+
+    // Split it so it's compiled, with split off methods small enough to inline
+    SplitMethod.JitResult result = new SplitMethod(Opcodes.ASM6).splitForJit(cls.name, method,
+        SplitMethod.HUGE_METHOD_LIMIT, SplitMethod.FREQ_INLINE_SIZE);
+    if (debug) {
+      System.out.println("Orig method size: " + result.originalSize);
+      System.out.println("Split off method count: " + result.splitOffMethods.size());
+      System.out.println("Trimmed method size: " + CodeSize.of(result.trimmedMethod));
+    }
+    Assert.assertTrue(result.wasBroughtUnderLimit());
+    Assert.assertTrue(result.isUnderInlineTarget());
+
+    // Replace methods, recalc frames/max, and compile
+    List<MethodNode> methods = new ArrayList<>(result.splitOffMethods);
+    methods.add(result.trimmedMethod);
+    cls.methods = methods;
+    cls = classWithComputedFramesAndMaxes(cls);
+    Method trimmedMethod = compileMethod(cls, method.name);
+    Assert.assertEquals(summingMethodResult(3000), trimmedMethod.invoke(null));
+
+    // Only not fitting is fallen back from, e.g. a profile whose offsets weren't read still fails
+    ExecutionProfile profile = ExecutionProfile.read(new BufferedReader(new StringReader(
+        cls.name + "." + method.name + method.desc + " 0 1\n")));
+    try {
+      new SplitMethod(Opcodes.ASM6, SplitMethod.Options.builder().profile(profile).build()).splitForJit(cls.name,
+          method, SplitMethod.HUGE_METHOD_LIMIT, SplitMethod.FREQ_INLINE_SIZE);
+      Assert.fail("Expected exception");
+    } catch (IllegalStateException e) {
+      Assert.assertFalse(e instanceof SplitMethod.UnableToFitException);
+    }
+  }
+
+  @Test
+  public void testSplitPrunesDeadLocals() throws Exception {
+    // Create a method too large that goes through a temp local and also writes one that is never read
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.INT_TYPE), null, null);
+    intConst(0).accept(method);
+    method.visitVarInsn(Opcodes.ISTORE, 0);
+    for (int i = 0; i < 7000; i++) {
+      // Store i in temp 1 and as a long in temp 2, then add temp 1 to 0
+      intConst(i).accept(method);
+      method.visitInsn(Opcodes.DUP);
+      method.visitVarInsn(Opcodes.ISTORE, 1);
+      method.visitInsn(Opcodes.I2L);
+      method.visitVarInsn(Opcodes.LSTORE, 2);
+      method.visitVarInsn(Opcodes.ILOAD, 0);
+      method.visitVarInsn(Opcodes.ILOAD, 1);
+      method.visitInsn(Opcodes.IADD);
+      method.visitVarInsn(Opcodes.ISTORE, 0);
+    }
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.visitInsn(Opcodes.IRETURN);
+    ClassNode cls = manualClassWithMethods(method);
+
+    // Make sure the never read local never goes in or out of a split since it is never live
+    Iterator<Splitter.SplitPoint> splitPoints = new Splitter(Opcodes.ASM6, cls.name, method, 30000, 40000).iterator();
+    for (int i = 0; i < 100 && splitPoints.hasNext(); i++) {
+      Splitter.SplitPoint splitPoint = splitPoints.next();
+      Assert.assertFalse(splitPoint.localsRead.containsKey(2));
+      Assert.assertFalse(splitPoint.localsWritten.containsKey(2));
+    }
+
+    // Split it
+    SplitMethod.Result result = new SplitMethod(Opcodes.ASM6).splitToFit(cls.name, method, 65535);
+
+    // Replace methods, recalc frames/max, and compile
+    cls.methods = Arrays.asList(result.splitOffMethod, result.trimmedMethod);
+    cls = classWithComputedFramesAndMaxes(cls);
+    Method trimmedMethod = compileMethod(cls, method.name);
+    Assert.assertEquals(summingMethodResult(7000), trimmedMethod.invoke(null));
+  }
+
+  @Test
+  public void testSplitTail() throws Exception {
+    MethodNode method = summingMethod(1000);
+    ClassNode cls = manualClassWithMethods(method);
+
+    // Find a split point that runs to the end of the method
+    Splitter.SplitPoint tail = null;
+    for (Splitter.SplitPoint splitPoint : new Splitter(Opcodes.ASM6, cls.name, method, 500, 600)) {
+      if (splitPoint.tail) {
+        tail = splitPoint;
+        break;
+      }
+    }
+    Assert.assertNotNull(tail);
+    Assert.assertEquals(method.instructions.size(), tail.start + tail.length);
+    Assert.assertTrue(tail.localsWritten.isEmpty() && tail.putOnStackAtEnd.isEmpty());
+
+    // Split it and make sure the split off method returns the result which the trimmed method returns as is
+    SplitMethod.Result result = new SplitMethod(Opcodes.ASM6).fromSplitPoint(cls.name, method, tail);
+    Assert.assertEquals(Type.INT_TYPE, Type.getReturnType(result.splitOffMethod.desc));
+    Assert.assertEquals(Opcodes.IRETURN, result.trimmedMethod.instructions.getLast().getOpcode());
+    Assert.assertEquals(Opcodes.INVOKESTATIC, result.trimmedMethod.instructions.getLast().getPrevious().getOpcode());
+
+    // Replace methods, recalc frames/max, and compile
+    cls.methods = Arrays.asList(result.splitOffMethod, result.trimmedMethod);
+    cls = classWithComputedFramesAndMaxes(cls);
+    Method trimmedMethod = compileMethod(cls, method.name);
+    Assert.assertEquals(summingMethodResult(1000), trimmedMethod.invoke(null));
+  }
+
+  @Test
+  public void testSplitPacksTooManyArgs() throws Exception {
+    // Create a method that sums 150 long locals, a float local, and the length of a string local, which is more than
+    // can be passed as params
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.LONG_TYPE), null, null);
+    SortedMap<Integer, Type> localsRead = new TreeMap<>();
+    for (int i = 0; i < 150; i++) {
+      method.visitLdcInsn((long) i);
+      method.visitVarInsn(Opcodes.LSTORE, i * 2);
+      localsRead.put(i * 2, Type.LONG_TYPE);
+    }
+    method.visitLdcInsn(1.5f);
+    method.visitVarInsn(Opcodes.FSTORE, 300);
+    localsRead.put(300, Type.FLOAT_TYPE);
+    method.visitLdcInsn("foo");
+    method.visitVarInsn(Opcodes.ASTORE, 301);
+    localsRead.put(301, Type.getType(String.class));
+    int splitStart = method.instructions.size();
+    method.visitInsn(Opcodes.LCONST_0);
+    for (int i = 0; i < 150; i++) {
+      method.visitVarInsn(Opcodes.LLOAD, i * 2);
+      method.visitInsn(Opcodes.LADD);
+    }
+    method.visitVarInsn(Opcodes.FLOAD, 300);
+    method.visitInsn(Opcodes.F2L);
+    method.visitInsn(Opcodes.LADD);
+    method.visitVarInsn(Opcodes.ALOAD, 301);
+    method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+    method.visitInsn(Opcodes.I2L);
+    method.visitInsn(Opcodes.LADD);
+    method.visitVarInsn(Opcodes.LSTORE, 302);
+    int splitLength = method.instructions.size() - splitStart;
+    method.visitVarInsn(Opcodes.LLOAD, 302);
+    method.visitInsn(Opcodes.LRETURN);
+    ClassNode cls = manualClassWithMethods(method);
+
+    // Split off the summing and make sure the read locals are packed
+    Splitter.SplitPoint splitPoint = new Splitter.SplitPoint(localsRead,
+        new TreeMap<>(Collections.singletonMap(302, Type.LONG_TYPE)), Collections.emptyList(),
+        Collections.emptyList(), splitStart, splitLength, false, 0, -1, 0);
+    Assert.assertTrue(SplitMethod.packsReadLocals(splitPoint));
+    SplitMethod.Result result = new SplitMethod(Opcodes.ASM6).fromSplitPoint(cls.name, method, splitPoint);
+    Assert.assertArrayEquals(new Type[] { Type.getType(long[].class), Type.getType(Object[].class) },
+        Type.getArgumentTypes(result.splitOffMethod.desc));
+
+    // Replace methods, recalc frames/max, and compile
+    cls.methods = Arrays.asList(result.splitOffMethod, result.trimmedMethod);
+    cls = classWithComputedFramesAndMaxes(cls);
+    Method trimmedMethod = compileMethod(cls, method.name);
+    Assert.assertEquals(149L * 150 / 2 + 1 + 3, trimmedMethod.invoke(null));
+  }
+
+  @Test
+  public void testSplitReturnConventions() throws Exception {
+    // Two 32-bit locals are packed into a long, more are put in a long array, and objects arrays are the fallback
+    assertReturnConvention(false, EnumSet.allOf(SplitMethod.ReturnConvention.class), Type.LONG_TYPE);
+    assertReturnConvention(false, EnumSet.of(SplitMethod.ReturnConvention.LONG_ARRAY), Type.getType(long[].class));
+    assertReturnConvention(false, EnumSet.noneOf(SplitMethod.ReturnConvention.class), Type.getType(Object[].class));
+    assertReturnConvention(true, EnumSet.allOf(SplitMethod.ReturnConvention.class), Type.getType(long[].class));
+    assertReturnConvention(true, EnumSet.noneOf(SplitMethod.ReturnConvention.class), Type.getType(Object[].class));
+  }
+
+  private static void assertReturnConvention(boolean wide, Set<SplitMethod.ReturnConvention> returnConventions,
+      Type expectedReturnType) throws Exception {
+    // Create a method that adds to an int and a float local and optionally a long and double local
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.DOUBLE_TYPE), null, null);
+    SortedMap<Integer, Type> locals = new TreeMap<>();
+    locals.put(0, Type.INT_TYPE);
+    locals.put(1, Type.FLOAT_TYPE);
+    if (wide) {
+      locals.put(2, Type.LONG_TYPE);
+      locals.put(4, Type.DOUBLE_TYPE);
+    }
+    locals.forEach((index, type) -> {
+      zeroVal(type).accept(method);
+      method.visitVarInsn(type.getOpcode(Opcodes.ISTORE), index);
+    });
+    int splitStart = method.instructions.size();
+    for (int i = 1; i <= 100; i++) {
+      method.visitVarInsn(Opcodes.ILOAD, 0);
+      intConst(i).accept(method);
+      method.visitInsn(Opcodes.IADD);
+      method.visitVarInsn(Opcodes.ISTORE, 0);
+      method.visitVarInsn(Opcodes.FLOAD, 1);
+      method.visitLdcInsn(0.5f);
+      method.visitInsn(Opcodes.FADD);
+      method.visitVarInsn(Opcodes.FSTORE, 1);
+      if (wide) {
+        method.visitVarInsn(Opcodes.LLOAD, 2);
+        method.visitLdcInsn(10000000000L);
+        method.visitInsn(Opcodes.LADD);
+        method.visitVarInsn(Opcodes.LSTORE, 2);
+        method.visitVarInsn(Opcodes.DLOAD, 4);
+        method.visitLdcInsn(0.25);
+        method.visitInsn(Opcodes.DADD);
+        method.visitVarInsn(Opcodes.DSTORE, 4);
+      }
+    }
+    int splitLength = method.instructions.size() - splitStart;
+    // Add them all up as doubles and return it
+    method.visitInsn(Opcodes.DCONST_0);
+    locals.forEach((index, type) -> {
+      method.visitVarInsn(type.getOpcode(Opcodes.ILOAD), index);
+      if (type == Type.INT_TYPE) method.visitInsn(Opcodes.I2D);
+      else if (type == Type.FLOAT_TYPE) method.visitInsn(Opcodes.F2D);
+      else if (type == Type.LONG_TYPE) method.visitInsn(Opcodes.L2D);
+      method.visitInsn(Opcodes.DADD);
+    });
+    method.visitInsn(Opcodes.DRETURN);
+    ClassNode cls = manualClassWithMethods(method);
+    double expected = (double) compileMethod(classWithComputedFramesAndMaxes(cls), method.name).invoke(null);
+
+    // Split off all of the adding
+    Splitter.SplitPoint splitPoint = new Splitter.SplitPoint(locals, locals,
+        Collections.emptyList(), Collections.emptyList(), splitStart, splitLength, false, 0, -1, 0);
+    SplitMethod.Result result = new SplitMethod(Opcodes.ASM6,
+        SplitMethod.Options.builder().returnConventions(returnConventions).build()).fromSplitPoint(cls.name, method,
+        splitPoint);
+    Assert.assertEquals(expectedReturnType, Type.getReturnType(result.splitOffMethod.desc));
+
+    // Replace methods, recalc frames/max, and compile
+    cls.methods = Arrays.asList(result.splitOffMethod, result.trimmedMethod);
+    cls = classWithComputedFramesAndMaxes(cls);
+    Method trimmedMethod = compileMethod(cls, method.name);
+    Assert.assertEquals(expected, (double) trimmedMethod.invoke(null), 0);
+  }
+
+  @Test
+  public void testSplitEmitsFramesAndMaxs() throws Exception {
+    // Create a method with branches in a loop that needs frames, then compile it so it has frames
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.LONG_TYPE, Type.INT_TYPE), null, null);
+    method.visitLdcInsn(0L);
+    method.visitVarInsn(Opcodes.LSTORE, 1);
+    long expected = 0;
+    for (int i = 0; i < 2000; i++) {
+      // If param is even add i else subtract it, then change param
+      expected += (i % 2 == 0) ? i : -i;
+      Label odd = new Label();
+      Label end = new Label();
+      method.visitVarInsn(Opcodes.ILOAD, 0);
+      method.visitInsn(Opcodes.ICONST_1);
+      method.visitInsn(Opcodes.IAND);
+      method.visitJumpInsn(Opcodes.IFNE, odd);
+      method.visitVarInsn(Opcodes.LLOAD, 1);
+      method.visitLdcInsn((long) i);
+      method.visitInsn(Opcodes.LADD);
+      method.visitVarInsn(Opcodes.LSTORE, 1);
+      method.visitJumpInsn(Opcodes.GOTO, end);
+      method.visitLabel(odd);
+      method.visitVarInsn(Opcodes.LLOAD, 1);
+      method.visitLdcInsn((long) i);
+      method.visitInsn(Opcodes.LSUB);
+      method.visitVarInsn(Opcodes.LSTORE, 1);
+      method.visitLabel(end);
+      method.visitIincInsn(0, 1);
+    }
+    method.visitVarInsn(Opcodes.LLOAD, 1);
+    method.visitInsn(Opcodes.LRETURN);
+    ClassNode cls = new ClassNode();
+    new ClassReader(classNodeToBytes(manualClassWithMethods(method))).accept(cls, ClassReader.EXPAND_FRAMES);
+    method = cls.methods.get(0);
+
+    // Split it and write it as is without computing anything
+    SplitMethod.FitResult result = new SplitMethod(Opcodes.ASM6).splitUntilFits(cls.name, method, 5000);
+    Assert.assertTrue(result.splitOffMethods.size() > 1);
+    List<MethodNode> methods = new ArrayList<>(result.splitOffMethods);
+    methods.add(result.trimmedMethod);
+    cls.methods = methods;
+    Method trimmedMethod = compileMethodAsIs(cls, method.name);
+    Assert.assertEquals(expected, trimmedMethod.invoke(null, 0));
+  }
+
+  @Test
+  public void testSplitWithCounters() throws Exception {
+    MethodNode method = summingMethod(5000);
+    ClassNode cls = manualClassWithMethods(method);
+    // With no return conventions allowed, the sum comes back boxed in an object array
+    SplitMethod.FitResult result = new SplitMethod(Opcodes.ASM6, SplitMethod.Options.builder().
+        returnConventions(EnumSet.noneOf(SplitMethod.ReturnConvention.class)).countCalls(true).build()).
+        splitUntilFits(cls.name, method, 8000);
+    Assert.assertTrue(result.splitOffMethods.size() > 1);
+    List<MethodNode> methods = new ArrayList<>(result.splitOffMethods);
+    methods.add(result.trimmedMethod);
+    cls.methods = methods;
+    cls = classWithComputedFramesAndMaxes(cls);
+    Method trimmedMethod = compileMethod(cls, method.name);
+    for (int i = 0; i < 3; i++) Assert.assertEquals(summingMethodResult(5000), trimmedMethod.invoke(null));
+    // Each split off method is called once per call with the sum boxed
+    Map<String, SplitCounters.Site> sites = new HashMap<>();
+    for (SplitCounters.Site site : SplitCounters.sites()) sites.put(site.name, site);
+    for (MethodNode splitOff : result.splitOffMethods) {
+      SplitCounters.Site site = sites.get(cls.name + "." + splitOff.name + splitOff.desc);
+      Assert.assertNotNull(site);
+      Assert.assertEquals(3, site.calls());
+      Assert.assertEquals(3, site.boxedValues());
+    }
+  }
+
+  @Test
+  public void testSplitGeneratedMethods() throws Exception {
+    // Methods with each kind of control flow split to fit and written with only their own frames and maxs
+    MethodGenerator[] generators = {
+        new MethodGenerator().jumpDensity(0.3),
+        new MethodGenerator().switchDensity(0.2),
+        new MethodGenerator().tryDepth(3),
+        new MethodGenerator().jumpDensity(0.2).switchDensity(0.1).tryDepth(2)
+    };
+    for (MethodGenerator generator : generators) {
+      MethodNode method = generator.insnCount(5000).generate("testMethod");
+      Method origMethod = compileMethodAsIs(manualClassWithMethods(method), method.name);
+      ClassNode cls = manualClassWithMethods(method);
+      SplitMethod.FitResult result = new SplitMethod(Opcodes.ASM6).splitUntilFits(cls.name, method, 2000);
+      List<MethodNode> methods = new ArrayList<>(result.splitOffMethods);
+      methods.add(result.trimmedMethod);
+      cls.methods = methods;
+      Method trimmedMethod = compileMethodAsIs(cls, method.name);
+      for (int param : new int[] { 0, 3, 50, 150 }) {
+        Assert.assertEquals(origMethod.invoke(null, param), trimmedMethod.invoke(null, param));
+      }
+    }
+  }
+
+  @Test
+  public void testSplitWithCostModels() throws Exception {
+    // Sets 30 locals, updates just one of them many times, then sums them all. Split points as long as the update part
+    // that cross the set or sum parts need most of the locals in or out, the update part alone needs one.
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), null, null);
+    for (int i = 1; i <= 30; i++) {
+      method.visitVarInsn(Opcodes.ILOAD, 0);
+      intConst(i).accept(method);
+      method.visitInsn(Opcodes.IADD);
+      method.visitVarInsn(Opcodes.ISTORE, i);
+    }
+    for (int i = 0; i < 30; i++) {
+      method.visitVarInsn(Opcodes.ILOAD, 1);
+      intConst(31).accept(method);
+      method.visitInsn(Opcodes.IMUL);
+      intConst(i).accept(method);
+      method.visitInsn(Opcodes.IADD);
+      method.visitVarInsn(Opcodes.ISTORE, 1);
+    }
+    method.visitInsn(Opcodes.ICONST_0);
+    for (int i = 1; i <= 30; i++) {
+      method.visitVarInsn(Opcodes.ILOAD, i);
+      method.visitInsn(Opcodes.IADD);
+    }
+    method.visitInsn(Opcodes.IRETURN);
+    ClassNode cls = manualClassWithMethods(method);
+    Object expected = compileMethod(cls, method.name).invoke(null, 7);
+
+    Map<CostModel, MethodNode> splitOffs = new HashMap<>();
+    for (CostModel costModel : new CostModel[] { CostModel.BALANCED, CostModel.LOWEST_OVERHEAD,
+        CostModel.FEWEST_SPLITS, CostModel.FASTEST_ANALYSIS }) {
+      SplitMethod.Result result = new SplitMethod(Opcodes.ASM6,
+          SplitMethod.Options.builder().costModel(costModel).build()).split(cls.name, method, 100, 180, 0);
+      Assert.assertNotNull(result);
+      splitOffs.put(costModel, result.splitOffMethod);
+      cls.methods = Arrays.asList(result.splitOffMethod, result.trimmedMethod);
+      Assert.assertEquals(costModel.toString(), expected, compileMethod(cls, method.name).invoke(null, 7));
+    }
+    // The first longest needs most of the locals in or out, the cheapest is the update part and needs few of them
+    Assert.assertTrue(isCheapBoundary(splitOffs.get(CostModel.LOWEST_OVERHEAD).desc));
+    Assert.assertFalse(isCheapBoundary(splitOffs.get(CostModel.FEWEST_SPLITS).desc));
+    // Only those with boundary weights need the control flow graph for the loops cut
+    Assert.assertTrue(CostModel.BALANCED.weighsLoopsCut());
+    Assert.assertTrue(CostModel.LOWEST_OVERHEAD.weighsLoopsCut());
+    Assert.assertFalse(CostModel.FEWEST_SPLITS.weighsLoopsCut());
+    Assert.assertFalse(CostModel.FASTEST_ANALYSIS.weighsLoopsCut());
+  }
+
+  @Test
+  public void testSplitInParallel() {
+    // Searching concurrently has to choose exactly what searching serially does, including where it stops early
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      MethodGenerator[] generators = {
+          new MethodGenerator().jumpDensity(0.3),
+          new MethodGenerator().jumpDensity(0.2).switchDensity(0.1).tryDepth(2)
+      };
+      for (MethodGenerator generator : generators) {
+        MethodNode method = generator.insnCount(5000).generate("testMethod");
+        for (CostModel costModel : new CostModel[] { CostModel.BALANCED, CostModel.FEWEST_SPLITS,
+            CostModel.FASTEST_ANALYSIS }) {
+          SplitMethod.Options options = SplitMethod.Options.builder().costModel(costModel).build();
+          SplitMethod serial = new SplitMethod(Opcodes.ASM6, options);
+          SplitMethod parallel = new SplitMethod(Opcodes.ASM6, options.toBuilder().pool(pool).build());
+          for (int firstAtLeast : new int[] { 0, 1500 }) {
+            SplitMethod.Result expected = serial.split("Foo", method, 500, 2500, firstAtLeast);
+            SplitMethod.Result actual = parallel.split("Foo", method, 500, 2500, firstAtLeast);
+            Assert.assertNotNull(expected);
+            Assert.assertEquals(methodAsm(expected.splitOffMethod), methodAsm(actual.splitOffMethod));
+            Assert.assertEquals(methodAsm(expected.trimmedMethod), methodAsm(actual.trimmedMethod));
+          }
+        }
+        SplitMethod.FitResult expected = new SplitMethod(Opcodes.ASM6).splitUntilFits("Foo", method, 2000);
+        SplitMethod.FitResult actual = new SplitMethod(Opcodes.ASM6,
+            SplitMethod.Options.builder().pool(pool).build()).splitUntilFits("Foo", method, 2000);
+        Assert.assertEquals(expected.splitOffMethods.size(), actual.splitOffMethods.size());
+        for (int i = 0; i < expected.splitOffMethods.size(); i++) {
+          Assert.assertEquals(methodAsm(expected.splitOffMethods.get(i)), methodAsm(actual.splitOffMethods.get(i)));
+        }
+        Assert.assertEquals(methodAsm(expected.trimmedMethod), methodAsm(actual.trimmedMethod));
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testSplitWithBudget() throws Exception {
+    MethodNode method = new MethodGenerator().jumpDensity(0.3).insnCount(3000).generate("testMethod");
+    Method origMethod = compileMethodAsIs(manualClassWithMethods(method), method.name);
+    SplitMethod splitMethod = new SplitMethod(Opcodes.ASM6);
+    // Unlimited is the same as no budget
+    Assert.assertEquals(
+        methodAsm(splitMethod.split("Foo", method, 300, 1500, 0).splitOffMethod),
+        methodAsm(splitMethod.split("Foo", method, Splitter.SizeUnit.INSNS, 300, 1500, 0,
+            SplitMethod.Budget.UNLIMITED).splitOffMethod));
+    // Out of time before any candidate, and the analysis gives up too instead of running in full. A single candidate
+    // is mostly the analysis, so giving up has to take well under that.
+    long analysisNanos = System.nanoTime();
+    splitMethod.bestSplitPoint("Foo", method, Splitter.SizeUnit.INSNS, 300, 1500, 0,
+        SplitMethod.Budget.ofCandidates(1));
+    analysisNanos = System.nanoTime() - analysisNanos;
+    long outOfTimeNanos = System.nanoTime();
+    Assert.assertNull(splitMethod.bestSplitPoint("Foo", method, Splitter.SizeUnit.INSNS, 300, 1500, 0,
+        SplitMethod.Budget.ofTime(1, TimeUnit.NANOSECONDS)));
+    outOfTimeNanos = System.nanoTime() - outOfTimeNanos;
+    Assert.assertTrue(outOfTimeNanos + " ns out of time vs " + analysisNanos + " ns analyzing",
+        outOfTimeNanos < analysisNanos / 2);
+    Deadline passed = new Deadline(System.nanoTime(), 1);
+    Thread.sleep(1);
+    for (Runnable analysis : Arrays.<Runnable>asList(() -> new FrameTable(Opcodes.ASM6, "Foo", method, passed),
+        () -> new Liveness(method, passed), () -> new ControlFlowGraph(method, passed))) {
+      try {
+        analysis.run();
+        Assert.fail("Expected exception");
+      } catch (Deadline.ExceededException e) {
+        // Expected
+      }
+    }
+    // A few candidates is enough when the likeliest are tried first, and it's the same every time
+    SplitMethod.Budget budget = SplitMethod.Budget.ofCandidates(10);
+    Splitter.SplitPoint splitPoint =
+        splitMethod.bestSplitPoint("Foo", method, Splitter.SizeUnit.INSNS, 300, 1500, 0, budget);
+    Assert.assertNotNull(splitPoint);
+    Splitter.SplitPoint again =
+        splitMethod.bestSplitPoint("Foo", method, Splitter.SizeUnit.INSNS, 300, 1500, 0, budget);
+    Assert.assertEquals(splitPoint.start, again.start);
+    Assert.assertEquals(splitPoint.length, again.length);
+    ClassNode cls = manualClassWithMethods();
+    SplitMethod.Result result = splitMethod.fromSplitPoint(cls.name, method, splitPoint);
+    cls.methods = Arrays.asList(result.splitOffMethod, result.trimmedMethod);
+    Method trimmedMethod = compileMethodAsIs(cls, method.name);
+    for (int param : new int[] { 0, 3, 50, 150 }) {
+      Assert.assertEquals(origMethod.invoke(null, param), trimmedMethod.invoke(null, param));
+    }
+  }
+
+  @Test
+  public void testSplitWithProfile() throws Exception {
+    // Cold code, a loop that runs hot, then more cold code. The loop is as large as either cold part.
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), null, null);
+    Label loopStart = new Label();
+    Label loopEnd = new Label();
+    addAdds(method, 0, 150);
+    intConst(0).accept(method);
+    method.visitVarInsn(Opcodes.ISTORE, 2);
+    method.visitLabel(loopStart);
+    method.visitVarInsn(Opcodes.ILOAD, 2);
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.visitJumpInsn(Opcodes.IF_ICMPGE, loopEnd);
+    addAdds(method, 1000, 150);
+    method.visitIincInsn(2, 1);
+    method.visitJumpInsn(Opcodes.GOTO, loopStart);
+    method.visitLabel(loopEnd);
+    addAdds(method, 2000, 150);
+    method.visitVarInsn(Opcodes.ILOAD, 1);
+    method.visitInsn(Opcodes.IRETURN);
+    // Read back with frames, the offsets of the loop's labels are those read
+    ClassNode cls = new ClassNode();
+    ClassReader reader = new ClassReader(classNodeToBytes(manualClassWithMethods(method)));
+    reader.accept(cls, ClassReader.EXPAND_FRAMES);
+    method = cls.methods.get(0);
+    Object expected = compileMethodAsIs(manualClassWithMethods(method), method.name).invoke(null, 7);
+    AbstractInsnNode[] insns = method.instructions.toArray();
+    int loopStartIndex = -1;
+    int loopEndIndex = -1;
+    for (int i = 0; i < insns.length; i++) {
+      if (insns[i] instanceof JumpInsnNode && insns[i].getOpcode() == Opcodes.GOTO) {
+        loopStartIndex = Arrays.asList(insns).indexOf(((JumpInsnNode) insns[i]).label);
+      } else if (insns[i] instanceof JumpInsnNode && insns[i].getOpcode() == Opcodes.IF_ICMPGE) {
+        loopEndIndex = Arrays.asList(insns).indexOf(((JumpInsnNode) insns[i]).label);
+      }
+    }
+    String profileText = "# Called once, looped a million times\n" +
+        cls.name + ".testMethod(I)I 0 1\n" +
+        cls.name + ".testMethod(I)I " + ((LabelNode) insns[loopStartIndex]).getLabel().getOffset() + " 1000000\n" +
+        cls.name + ".testMethod(I)I " + ((LabelNode) insns[loopEndIndex]).getLabel().getOffset() + " 1\n";
+    ExecutionProfile profile = ExecutionProfile.read(new BufferedReader(new StringReader(profileText)));
+    profile.readOffsets(reader);
+    SplitMethod splitMethod = new SplitMethod(Opcodes.ASM6,
+        SplitMethod.Options.builder().profile(profile).build());
+    // Splitting any of the three parts off makes it fit, so the cold ones are split off and the loop stays
+    int maxBytes = CodeSize.of(method) * 3 / 4;
+    SplitMethod.FitResult result = splitMethod.splitUntilFits(cls.name, method, maxBytes);
+    Assert.assertFalse(result.splitOffMethods.isEmpty());
+    for (MethodNode splitOff : result.splitOffMethods) Assert.assertFalse(hasJump(splitOff));
+    Assert.assertTrue(hasJump(result.trimmedMethod));
+    List<MethodNode> methods = new ArrayList<>(result.splitOffMethods);
+    methods.add(result.trimmedMethod);
+    cls.methods = methods;
+    Assert.assertEquals(expected, compileMethodAsIs(cls, method.name).invoke(null, 7));
+    // Same for the best split point, which would otherwise be the loop since it's the first as large
+    Splitter.SplitPoint splitPoint = splitMethod.bestSplitPoint(cls.name, method, Splitter.SizeUnit.BYTES,
+        maxBytes / 4, maxBytes, 0, SplitMethod.Budget.UNLIMITED);
+    Assert.assertNotNull(splitPoint);
+    Assert.assertTrue(splitPoint.start >= loopEndIndex || splitPoint.start + splitPoint.length <= loopStartIndex);
+  }
+
+  @Test
+  public void testProfileOffsetsAsRead() throws Exception {
+    // Two short LDCs, each of which ASM's layout would count as an LDC_W
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.INT_TYPE), null, null);
+    method.visitLdcInsn("abc");
+    method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+    method.visitVarInsn(Opcodes.ISTORE, 0);
+    method.visitLdcInsn("de");
+    method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.visitInsn(Opcodes.IADD);
+    method.visitInsn(Opcodes.IRETURN);
+    ClassReader reader = new ClassReader(classNodeToBytes(manualClassWithMethods(method)));
+    ClassNode cls = new ClassNode();
+    reader.accept(cls, ClassReader.EXPAND_FRAMES);
+    method = cls.methods.get(0);
+    // As javap -c shows it:
+    //    0: ldc           #N  // String abc
+    //    2: invokevirtual #N  // Method java/lang/String.length:()I
+    //    5: istore_0
+    //    6: ldc           #N  // String de
+    //    8: invokevirtual #N  // Method java/lang/String.length:()I
+    //   11: iload_0
+    //   12: iadd
+    //   13: ireturn
+    String profileText = cls.name + ".testMethod()I 0 1\n" +
+        cls.name + ".testMethod()I 6 2\n" +
+        cls.name + ".testMethod()I 12 3\n";
+    ExecutionProfile profile = ExecutionProfile.read(new BufferedReader(new StringReader(profileText)));
+    try {
+      profile.countsFor(cls.name, method);
+      Assert.fail();
+    } catch (IllegalStateException e) { }
+    profile.readOffsets(reader);
+    ExecutionProfile.Counts counts = profile.countsFor(cls.name, method);
+    long[] expected = { 1, 1, 1, 2, 2, 2, 3, 3 };
+    int opcodeIndex = 0;
+    for (int i = 0; i < method.instructions.size(); i++) {
+      if (method.instructions.get(i).getOpcode() >= 0) {
+        Assert.assertEquals(expected[opcodeIndex++], counts.countAt(i));
+      }
+    }
+    Assert.assertEquals(expected.length, opcodeIndex);
+  }
+
+  @Test
+  public void testSplitKeepsLoopsWhole() throws Exception {
+    // Straight code, a loop in a loop with a larger body, then more straight code
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), null, null);
+    Label outerStart = new Label();
+    Label outerEnd = new Label();
+    Label innerStart = new Label();
+    Label innerEnd = new Label();
+    addAdds(method, 0, 200);
+    intConst(0).accept(method);
+    method.visitVarInsn(Opcodes.ISTORE, 2);
+    method.visitLabel(outerStart);
+    method.visitVarInsn(Opcodes.ILOAD, 2);
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.visitJumpInsn(Opcodes.IF_ICMPGE, outerEnd);
+    intConst(0).accept(method);
+    method.visitVarInsn(Opcodes.ISTORE, 3);
+    method.visitLabel(innerStart);
+    method.visitVarInsn(Opcodes.ILOAD, 3);
+    method.visitVarInsn(Opcodes.ILOAD, 2);
+    method.visitJumpInsn(Opcodes.IF_ICMPGE, innerEnd);
+    addAdds(method, 1000, 250);
+    method.visitIincInsn(3, 1);
+    method.visitJumpInsn(Opcodes.GOTO, innerStart);
+    method.visitLabel(innerEnd);
+    method.visitIincInsn(2, 1);
+    method.visitJumpInsn(Opcodes.GOTO, outerStart);
+    method.visitLabel(outerEnd);
+    addAdds(method, 2000, 200);
+    method.visitVarInsn(Opcodes.ILOAD, 1);
+    method.visitInsn(Opcodes.IRETURN);
+    ClassNode cls = new ClassNode();
+    new ClassReader(classNodeToBytes(manualClassWithMethods(method))).accept(cls, ClassReader.EXPAND_FRAMES);
+    method = cls.methods.get(0);
+    Method origMethod = compileMethodAsIs(manualClassWithMethods(method), method.name);
+    ControlFlowGraph cfg = new ControlFlowGraph(method);
+    Assert.assertEquals(2, cfg.loops().size());
+    Assert.assertSame(cfg.loops().get(1), cfg.loops().get(0).parent());
+    Assert.assertTrue(cfg.dominates(cfg.loops().get(1).header, cfg.loops().get(0).header));
+    // The loops don't fit in a split off method, and the body is larger than either straight part, but splitting it
+    // off would call the split off method on every inner iteration
+    int maxBytes = CodeSize.of(method) - 1000;
+    int maxSplitOffBytes = 1400;
+    SplitMethod.FitResult result =
+        new SplitMethod(Opcodes.ASM6).splitUntilFits(cls.name, method, maxBytes, maxSplitOffBytes);
+    Assert.assertNotNull(result);
+    Assert.assertEquals(0, loopDepthOfSplitOffCalls(result.trimmedMethod));
+    List<MethodNode> methods = new ArrayList<>(result.splitOffMethods);
+    methods.add(result.trimmedMethod);
+    cls.methods = methods;
+    Method trimmedMethod = compileMethodAsIs(cls, method.name);
+    for (int param : new int[] { 0, 1, 5 }) {
+      Assert.assertEquals(origMethod.invoke(null, param), trimmedMethod.invoke(null, param));
+    }
+    // Going only by the size, the body is taken instead
+    result = new SplitMethod(Opcodes.ASM6, SplitMethod.Options.builder().costModel(CostModel.FEWEST_SPLITS).build()).
+        splitUntilFits(cls.name, method, maxBytes, maxSplitOffBytes);
+    Assert.assertEquals(2, loopDepthOfSplitOffCalls(result.trimmedMethod));
+    // Same for the best split point when the boundary matters more than the size
+    Splitter.SplitPoint splitPoint = new SplitMethod(Opcodes.ASM6,
+        SplitMethod.Options.builder().costModel(CostModel.LOWEST_OVERHEAD).build()).bestSplitPoint(cls.name, method,
+        Splitter.SizeUnit.BYTES, 1000, maxSplitOffBytes, 0, SplitMethod.Budget.UNLIMITED);
+    Assert.assertNotNull(splitPoint);
+    Assert.assertEquals(0, cfg.loopsCutBy(splitPoint.start, splitPoint.start + splitPoint.length - 1));
+  }
+
+  @Test
+  public void testWholeLoopRanges() throws Exception {
+    // Straight code, a loop entered by jumping to its condition at the bottom, then more straight code
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), null, null);
+    Label body = new Label();
+    Label cond = new Label();
+    addAdds(method, 0, 100);
+    intConst(0).accept(method);
+    method.visitVarInsn(Opcodes.ISTORE, 2);
+    method.visitJumpInsn(Opcodes.GOTO, cond);
+    method.visitLabel(body);
+    addAdds(method, 1000, 100);
+    method.visitIincInsn(2, 1);
+    method.visitLabel(cond);
+    method.visitVarInsn(Opcodes.ILOAD, 2);
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.visitJumpInsn(Opcodes.IF_ICMPLT, body);
+    addAdds(method, 2000, 100);
+    method.visitVarInsn(Opcodes.ILOAD, 1);
+    method.visitInsn(Opcodes.IRETURN);
+    ClassNode cls = new ClassNode();
+    new ClassReader(classNodeToBytes(manualClassWithMethods(method))).accept(cls, ClassReader.EXPAND_FRAMES);
+    method = cls.methods.get(0);
+    Method origMethod = compileMethodAsIs(manualClassWithMethods(method), method.name);
+    // The range runs from the jump into the loop to the end of the loop, while the longest range at the same index
+    // runs on to the end of the method
+    Splitter.Iter iter =
+        new Splitter(Opcodes.ASM6, cls.name, method, Splitter.SizeUnit.BYTES, 1, CodeSize.of(method)).newIter();
+    List<Splitter.InsnTraverseInfo> ranges = iter.wholeLoopRanges();
+    Assert.assertEquals(1, ranges.size());
+    ControlFlowGraph.Loop loop = iter.cfg().loops().get(0);
+    Splitter.InsnTraverseInfo range = ranges.get(0);
+    Assert.assertEquals(Opcodes.GOTO, method.instructions.get(range.startIndex).getOpcode());
+    Assert.assertEquals(loop.lastIndex(), range.endIndex);
+    Assert.assertTrue(iter.longestRangeForIndex(range.startIndex, method.instructions.size() - 1).endIndex >
+        loop.lastIndex());
+    // Splitting it off works
+    SplitMethod.Result result = new SplitMethod(Opcodes.ASM6).fromSplitPoint(cls.name, method,
+        iter.splitPointFromInfo(range));
+    cls.methods = Arrays.asList(result.splitOffMethod, result.trimmedMethod);
+    Method trimmedMethod = compileMethodAsIs(cls, method.name);
+    Assert.assertEquals(0, loopDepthOfSplitOffCalls(result.trimmedMethod));
+    for (int param : new int[] { 0, 1, 5 }) {
+      Assert.assertEquals(origMethod.invoke(null, param), trimmedMethod.invoke(null, param));
+    }
+  }
+
+  @Test
+  public void testSplitInsideTryBlocks() throws Exception {
+    // Adds, then a try block of adds around a division by the param whose handler adds to what was added before the
+    // throw, then more adds. The try block is too large to split off with its handler.
+    for (int[] counts : new int[][] { { 10, 100, 10 }, { 50, 200, 50 } }) {
+      MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+          Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), null, null);
+      Label tryStart = new Label();
+      Label tryEnd = new Label();
+      Label handler = new Label();
+      Label end = new Label();
+      addAdds(method, 0, counts[0]);
+      method.visitTryCatchBlock(tryStart, tryEnd, handler, "java/lang/ArithmeticException");
+      method.visitLabel(tryStart);
+      addAdds(method, 1000, counts[1]);
+      method.visitVarInsn(Opcodes.ILOAD, 1);
+      intConst(100).accept(method);
+      method.visitVarInsn(Opcodes.ILOAD, 0);
+      method.visitInsn(Opcodes.IDIV);
+      method.visitInsn(Opcodes.IADD);
+      method.visitVarInsn(Opcodes.ISTORE, 1);
+      addAdds(method, 2000, counts[1]);
+      method.visitLabel(tryEnd);
+      method.visitJumpInsn(Opcodes.GOTO, end);
+      method.visitLabel(handler);
+      method.visitInsn(Opcodes.POP);
+      method.visitIincInsn(1, 7);
+      method.visitLabel(end);
+      addAdds(method, 3000, counts[2]);
+      method.visitVarInsn(Opcodes.ILOAD, 1);
+      method.visitInsn(Opcodes.IRETURN);
+      ClassNode cls = new ClassNode();
+      new ClassReader(classNodeToBytes(manualClassWithMethods(method))).accept(cls, ClassReader.EXPAND_FRAMES);
+      method = cls.methods.get(0);
+      Method origMethod = compileMethodAsIs(manualClassWithMethods(method), method.name);
+      SplitMethod.FitResult result = new SplitMethod(Opcodes.ASM6).splitUntilFits(cls.name, method,
+          CodeSize.of(method) / 2 + 200);
+      Assert.assertNotNull(result);
+      // Some of the try block went to a split off method that catches for it
+      boolean caught = false;
+      for (MethodNode splitOff : result.splitOffMethods) caught |= !splitOff.tryCatchBlocks.isEmpty();
+      Assert.assertTrue(caught);
+      List<MethodNode> methods = new ArrayList<>(result.splitOffMethods);
+      methods.add(result.trimmedMethod);
+      cls.methods = methods;
+      Method trimmedMethod = compileMethodAsIs(cls, method.name);
+      // 0 throws after some of the adds in the try block
+      for (int param : new int[] { 0, 1, 3 }) {
+        Assert.assertEquals(origMethod.invoke(null, param), trimmedMethod.invoke(null, param));
+      }
+    }
+  }
+
+  @Test
+  public void testSplitInsideNestedTryBlocks() throws Exception {
+    // An outer try block catching Exception around adds, an inner try block catching RuntimeException around a
+    // division by the param, then a division by the param less one. The handlers add different amounts, so every
+    // split point whose split off method catches has to rethrow to the handler whose block covered the throw.
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), null, null);
+    Label outerStart = new Label();
+    Label outerEnd = new Label();
+    Label outerHandler = new Label();
+    Label innerStart = new Label();
+    Label innerEnd = new Label();
+    Label innerHandler = new Label();
+    Label end = new Label();
+    method.visitTryCatchBlock(innerStart, innerEnd, innerHandler, "java/lang/RuntimeException");
+    method.visitTryCatchBlock(outerStart, outerEnd, outerHandler, "java/lang/Exception");
+    addAdds(method, 0, 10);
+    method.visitLabel(outerStart);
+    addAdds(method, 1000, 3);
+    method.visitLabel(innerStart);
+    for (int divisorLess : new int[] { 0, 1 }) {
+      if (divisorLess == 1) method.visitLabel(innerEnd);
+      addAdds(method, 2000 + divisorLess * 1000, 3);
+      method.visitVarInsn(Opcodes.ILOAD, 1);
+      intConst(100).accept(method);
+      method.visitVarInsn(Opcodes.ILOAD, 0);
+      intConst(divisorLess).accept(method);
+      method.visitInsn(Opcodes.ISUB);
+      method.visitInsn(Opcodes.IDIV);
+      method.visitInsn(Opcodes.IADD);
+      method.visitVarInsn(Opcodes.ISTORE, 1);
+      addAdds(method, 4000 + divisorLess * 1000, 3);
+    }
+    method.visitLabel(outerEnd);
+    method.visitJumpInsn(Opcodes.GOTO, end);
+    method.visitLabel(innerHandler);
+    method.visitInsn(Opcodes.POP);
+    method.visitIincInsn(1, 222);
+    method.visitJumpInsn(Opcodes.GOTO, end);
+    method.visitLabel(outerHandler);
+    method.visitInsn(Opcodes.POP);
+    method.visitIincInsn(1, 111);
+    method.visitLabel(end);
+    addAdds(method, 6000, 10);
+    method.visitVarInsn(Opcodes.ILOAD, 1);
+    method.visitInsn(Opcodes.IRETURN);
+    ClassNode cls = new ClassNode();
+    new ClassReader(classNodeToBytes(manualClassWithMethods(method))).accept(cls, ClassReader.EXPAND_FRAMES);
+    method = cls.methods.get(0);
+    Method origMethod = compileMethodAsIs(manualClassWithMethods(method), method.name);
+    int caughtCount = 0;
+    for (Iterator<Splitter.SplitPoint> iter = new Splitter(Opcodes.ASM6, cls.name, method, 1, CodeSize.of(method)).
+        iterator(); iter.hasNext(); ) {
+      Splitter.SplitPoint splitPoint = iter.next();
+      if (splitPoint.caughtLocal == -1) continue;
+      caughtCount++;
+      SplitMethod.Result result = new SplitMethod(Opcodes.ASM6).fromSplitPoint(cls.name, method, splitPoint);
+      cls.methods = Arrays.asList(result.trimmedMethod, result.splitOffMethod);
+      Method trimmedMethod = compileMethodAsIs(cls, method.name);
+      // 0 throws in the inner block, 1 in the outer one only
+      for (int param : new int[] { 0, 1, 3 }) {
+        Assert.assertEquals(origMethod.invoke(null, param), trimmedMethod.invoke(null, param));
+      }
+    }
+    Assert.assertTrue(caughtCount > 0);
+  }
+
+  @Test
+  public void testSplitWithoutFrames() throws Exception {
+    // A string local that's null on one path and "abc" on the other, then one that's null on the first iteration of a
+    // loop and "de" on the rest. Without frames, the state where the paths meet has to have the string type from the
+    // path that isn't first or the jump back, or split off methods would take an object they call length on.
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.INT_TYPE, Type.INT_TYPE), null, null);
+    Label isNull = new Label();
+    Label joined = new Label();
+    Label loop = new Label();
+    addAdds(method, 0, 5);
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.visitJumpInsn(Opcodes.IFEQ, isNull);
+    method.visitLdcInsn("abc");
+    method.visitVarInsn(Opcodes.ASTORE, 2);
+    method.visitJumpInsn(Opcodes.GOTO, joined);
+    method.visitLabel(isNull);
+    method.visitInsn(Opcodes.ACONST_NULL);
+    method.visitVarInsn(Opcodes.ASTORE, 2);
+    method.visitLabel(joined);
+    addAdds(method, 100, 5);
+    addStringLengthAdd(method, 2);
+    method.visitInsn(Opcodes.ACONST_NULL);
+    method.visitVarInsn(Opcodes.ASTORE, 3);
+    intConst(0).accept(method);
+    method.visitVarInsn(Opcodes.ISTORE, 4);
+    method.visitLabel(loop);
+    addAdds(method, 200, 3);
+    addStringLengthAdd(method, 3);
+    method.visitLdcInsn("de");
+    method.visitVarInsn(Opcodes.ASTORE, 3);
+    method.visitIincInsn(4, 1);
+    method.visitVarInsn(Opcodes.ILOAD, 4);
+    intConst(3).accept(method);
+    method.visitJumpInsn(Opcodes.IF_ICMPLT, loop);
+    method.visitVarInsn(Opcodes.ILOAD, 1);
+    method.visitInsn(Opcodes.IRETURN);
+    ClassNode cls = manualClassWithMethods(method);
+    Method origMethod = compileMethod(cls, method.name);
+    Set<Integer> stringLocalsRead = new HashSet<>();
+    for (Iterator<Splitter.SplitPoint> iter = new Splitter(Opcodes.ASM6, cls.name, method, 1, CodeSize.of(method)).
+        iterator(); iter.hasNext(); ) {
+      Splitter.SplitPoint splitPoint = iter.next();
+      splitPoint.localsRead.forEach((local, type) -> {
+        if (type.equals(Type.getType(String.class))) stringLocalsRead.add(local);
+      });
+      SplitMethod.Result result = new SplitMethod(Opcodes.ASM6).fromSplitPoint(cls.name, method, splitPoint);
+      cls.methods = Arrays.asList(result.trimmedMethod, result.splitOffMethod);
+      Method trimmedMethod = compileMethod(cls, method.name);
+      for (int param : new int[] { 0, 1 }) {
+        Assert.assertEquals(origMethod.invoke(null, param), trimmedMethod.invoke(null, param));
+      }
+    }
+    Assert.assertEquals(new HashSet<>(Arrays.asList(2, 3)), stringLocalsRead);
+  }
+
+  /** The deepest loop any split off method is called in */
+  private static int loopDepthOfSplitOffCalls(MethodNode method) {
+    ControlFlowGraph cfg = new ControlFlowGraph(method);
+    AbstractInsnNode[] insns = method.instructions.toArray();
+    int ret = 0;
+    for (int i = 0; i < insns.length; i++) {
+      if (insns[i].getOpcode() == Opcodes.INVOKESTATIC) ret = Math.max(ret, cfg.loopDepth(i));
+    }
+    return ret;
+  }
+
+  /** Add count adds of constants starting at the given one to local 1, which is set to 0 first if start is 0 */
+  private static void addAdds(MethodNode method, int start, int count) {
+    if (start == 0) {
+      intConst(0).accept(method);
+      method.visitVarInsn(Opcodes.ISTORE, 1);
+    }
+    for (int i = start; i < start + count; i++) {
+      method.visitVarInsn(Opcodes.ILOAD, 1);
+      intConst(i).accept(method);
+      method.visitInsn(Opcodes.IADD);
+      method.visitVarInsn(Opcodes.ISTORE, 1);
+    }
+  }
+
+  /** Add the length of the string in the given local to local 1 unless it's null */
+  private static void addStringLengthAdd(MethodNode method, int local) {
+    Label isNull = new Label();
+    method.visitVarInsn(Opcodes.ALOAD, local);
+    method.visitJumpInsn(Opcodes.IFNULL, isNull);
+    method.visitVarInsn(Opcodes.ILOAD, 1);
+    method.visitVarInsn(Opcodes.ALOAD, local);
+    method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+    method.visitInsn(Opcodes.IADD);
+    method.visitVarInsn(Opcodes.ISTORE, 1);
+    method.visitLabel(isNull);
+  }
+
+  private static boolean hasJump(MethodNode method) {
+    for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+      if (insn instanceof JumpInsnNode) return true;
+    }
+    return false;
+  }
+
+  private static boolean isCheapBoundary(String desc) {
+    return Type.getArgumentTypes(desc).length <= 2 && Type.getReturnType(desc).getSort() != Type.ARRAY;
+  }
+
+  /** A method that adds each number below count to a local and then returns it */
+  private static MethodNode summingMethod(int count) {
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "testMethod",
+        Type.getMethodDescriptor(Type.INT_TYPE), null, null);
+    intConst(0).accept(method);
+    method.visitVarInsn(Opcodes.ISTORE, 0);
+    for (int i = 0; i < count; i++) {
+      // Load 0, add i, store
+      method.visitVarInsn(Opcodes.ILOAD, 0);
+      intConst(i).accept(method);
+      method.visitInsn(Opcodes.IADD);
+      method.visitVarInsn(Opcodes.ISTORE, 0);
+    }
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.visitInsn(Opcodes.IRETURN);
+    return method;
+  }
+
+  private static int summingMethodResult(int count) {
+    int ret = 0;
+    for (int i = 0; i < count; i++) ret += i;
+    return ret;
+  }
 }
@@ -0,0 +1,71 @@
+package msplit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+import static msplit.TestUtil.*;
+public class SplittingClassVisitorTest {
+
+  @Test
+  public void testSplitsOnlyLargeMethods() throws Exception {
+    // Create a class with a large method and a small one
+    MethodNode large = summingMethod("large", 5000);
+    MethodNode small = summingMethod("small", 10);
+    byte[] bytes = classNodeToBytes(manualClassWithMethods(large, small));
+    ClassReader reader = new ClassReader(bytes);
+
+    // Check the scanned code lengths match
+    Map<String, Integer> codeLengths = SplittingClassVisitor.codeLengths(reader);
+    Assert.assertEquals(2, codeLengths.size());
+    Assert.assertEquals(CodeSize.of(large), (int) codeLengths.get(large.name + large.desc));
+    Assert.assertEquals(CodeSize.of(small), (int) codeLengths.get(small.name + small.desc));
+    Set<String> methodsOver = SplittingClassVisitor.methodsOver(reader, 8000);
+    Assert.assertEquals(Collections.singleton(large.name + large.desc), methodsOver);
+
+    // Stream it through without computing anything
+    ClassWriter writer = new ClassWriter(0);
+    SplittingClassVisitor visitor = new SplittingClassVisitor(Opcodes.ASM6, writer, 8000, methodsOver);
+    reader.accept(visitor, ClassReader.EXPAND_FRAMES);
+    Assert.assertEquals(1, visitor.getSplitMethodCount());
+    Assert.assertTrue(visitor.getSplitOffMethodCount() > 0);
+    ClassNode cls = bytesToClassNode(writer.toByteArray());
+    for (MethodNode method : cls.methods) Assert.assertTrue(CodeSize.of(method) <= 8000);
+    Class<?> javaClass = RuntimeCompiler.defineClass(cls.name, writer.toByteArray());
+    Method largeMethod = javaClass.getMethod(large.name);
+    Assert.assertEquals(summingMethodResult(5000), largeMethod.invoke(null));
+    Method smallMethod = javaClass.getMethod(small.name);
+    Assert.assertEquals(summingMethodResult(10), smallMethod.invoke(null));
+  }
+
+  @Test
+  public void testSplitsInterfaces() throws Exception {
+    // An interface with constants too large for its <clinit>
+    for (int version : new int[] { Opcodes.V1_7, Opcodes.V1_8 }) {
+      ClassNode itf = new ClassNode();
+      itf.visit(version, Opcodes.ACC_PUBLIC + Opcodes.ACC_INTERFACE + Opcodes.ACC_ABSTRACT,
+          "temp" + UUID.randomUUID().toString().replace("-", ""), null, "java/lang/Object", null);
+      itf.fields.add(new FieldNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC + Opcodes.ACC_FINAL, "DATA", "[I", null,
+          null));
+      itf.methods.add(AdversarialMethods.largeClinit(itf.name, 3000));
+      ClassReader reader = new ClassReader(classNodeToBytes(itf));
+      ClassWriter writer = new ClassWriter(0);
+      SplittingClassVisitor visitor = new SplittingClassVisitor(Opcodes.ASM6, writer, 8000, reader);
+      reader.accept(visitor, ClassReader.EXPAND_FRAMES);
+      // Split off methods can't be in interfaces before Java 8, so it's left as is
+      Assert.assertEquals(version == Opcodes.V1_8 ? 1 : 0, visitor.getSplitMethodCount());
+      Class<?> javaClass = RuntimeCompiler.defineClass(itf.name, writer.toByteArray());
+      int[] data = (int[]) javaClass.getField("DATA").get(null);
+      Assert.assertEquals(3000, data.length);
+      for (int i = 0; i < data.length; i++) Assert.assertEquals(i * 31, data[i]);
+    }
+  }
+}
@@ -3,7 +3,10 @@ package msplit;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.util.Textifier;
 import org.objectweb.asm.util.TraceClassVisitor;
@@ -16,6 +19,7 @@ import java.util.Arrays;
 import java.util.UUID;
 
 import static msplit.Util.OBJECT_TYPE;
+import static msplit.Util.intConst;
 
 class TestUtil {
   private TestUtil() { }
@@ -51,6 +55,17 @@ class TestUtil {
     throw new NoSuchMethodException();
   }
 
+  /** Same as {@link #compileMethod(ClassNode, String)} but with the frames and maxs in the class as is */
+  static Method compileMethodAsIs(ClassNode cls, String methodName) throws Exception {
+    ClassWriter writer = new ClassWriter(0);
+    cls.accept(writer);
+    Class<?> javaClass = RuntimeCompiler.defineClass(cls.name, writer.toByteArray());
+    for (Method javaMethod : javaClass.getDeclaredMethods()) {
+      if (javaMethod.getName().equals(methodName)) return javaMethod;
+    }
+    throw new NoSuchMethodException();
+  }
+
   static byte[] classNodeToBytes(ClassNode node) {
     ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES + ClassWriter.COMPUTE_MAXS);
     node.accept(writer);
@@ -70,4 +85,72 @@ class TestUtil {
     cls.accept(new TraceClassVisitor(new PrintWriter(string)));
     return string.toString();
   }
+
+  /** A method with the given name that adds each number below count to a local and then returns it */
+  static MethodNode summingMethod(String name, int count) {
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, name,
+        Type.getMethodDescriptor(Type.INT_TYPE), null, null);
+    intConst(0).accept(method);
+    method.visitVarInsn(Opcodes.ISTORE, 0);
+    for (int i = 0; i < count; i++) {
+      method.visitVarInsn(Opcodes.ILOAD, 0);
+      intConst(i).accept(method);
+      method.visitInsn(Opcodes.IADD);
+      method.visitVarInsn(Opcodes.ISTORE, 0);
+    }
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.visitInsn(Opcodes.IRETURN);
+    return method;
+  }
+
+  static int summingMethodResult(int count) {
+    int ret = 0;
+    for (int i = 0; i < count; i++) ret += i;
+    return ret;
+  }
+
+  /** The long local that {@link #startLongSumMethod(String)} methods add to, right after the int param */
+  static final int SUM_LOCAL = 1;
+
+  /**
+   * Start a {@code static long name(int)} that sets {@link #SUM_LOCAL} to 0, for the generated methods that add to it
+   * and return it with {@link #finishLongSumMethod(MethodNode, int, int)}
+   */
+  static MethodNode startLongSumMethod(String name) {
+    MethodNode method = new MethodNode(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, name,
+        Type.getMethodDescriptor(Type.LONG_TYPE, Type.INT_TYPE), null, null);
+    method.visitInsn(Opcodes.LCONST_0);
+    method.visitVarInsn(Opcodes.LSTORE, SUM_LOCAL);
+    return method;
+  }
+
+  /** Return the sum and set the maxs, which the generated methods know up front */
+  static MethodNode finishLongSumMethod(MethodNode method, int maxStack, int maxLocals) {
+    method.visitVarInsn(Opcodes.LLOAD, SUM_LOCAL);
+    method.visitInsn(Opcodes.LRETURN);
+    method.visitMaxs(maxStack, maxLocals);
+    return method;
+  }
+
+  /** Add the param times the value to the sum */
+  static void addParamTimes(MethodNode method, long value) {
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.visitInsn(Opcodes.I2L);
+    method.visitLdcInsn(value);
+    method.visitInsn(Opcodes.LMUL);
+    method.visitVarInsn(Opcodes.LLOAD, SUM_LOCAL);
+    method.visitInsn(Opcodes.LADD);
+    method.visitVarInsn(Opcodes.LSTORE, SUM_LOCAL);
+  }
+
+  /** An expanded frame with the given locals and stack */
+  static FrameNode frame(Object[] locals, Object... stack) {
+    return new FrameNode(Opcodes.F_NEW, locals.length, locals, stack.length, stack);
+  }
+
+  /** Add the label with a frame of the given locals and an empty stack */
+  static void addLabelWithFrame(MethodNode method, LabelNode label, Object[] locals) {
+    method.instructions.add(label);
+    method.instructions.add(frame(locals));
+  }
 }